@@ -0,0 +1,34 @@
+package bench;
+
+import app.DatasetGenerator;
+import auth.UserAccount;
+import auth.UserManager;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * UserManager.authenticate with valid credentials, including opening the session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+public class AuthBenchmark {
+    private Dataset data;
+    private UserManager users;
+
+    @Setup(Level.Trial)
+    public void setup(Dataset data) {
+        this.data = data;
+        this.users = UserManager.getInstance();
+    }
+
+    @Benchmark
+    public UserAccount authenticate() {
+        int i = data.randomUser();
+        return users.authenticate(DatasetGenerator.username(i), DatasetGenerator.password(i));
+    }
+}
@@ -0,0 +1,39 @@
+package bench;
+
+import app.DatasetGenerator;
+import model.Order;
+import org.openjdk.jmh.annotations.*;
+import service.BackendFacade;
+import service.BackendFacade.UiCartItem;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BackendFacade.checkout end to end: order creation, stock taken and persisted, order saved.
+ * Runs the direct path unless -jvmArgsAppend -Dcandystore.checkout.mode=pipeline is given.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+public class CheckoutBenchmark {
+    private Dataset data;
+
+    @Setup(Level.Trial)
+    public void setup(Dataset data) {
+        this.data = data;
+        BackendFacade.init();
+        BackendFacade.setLowStockThreshold(0);
+    }
+
+    @Benchmark
+    public Order checkout() throws IOException {
+        String a = data.randomProduct(), b = data.randomProduct();
+        List<UiCartItem> cart = List.of(new UiCartItem(a, a, 1, 1.50), new UiCartItem(b, b, 2, 0.75));
+        return BackendFacade.checkout(DatasetGenerator.username(data.randomUser()), cart, null);
+    }
+}
@@ -0,0 +1,36 @@
+package bench;
+
+import org.openjdk.jmh.annotations.*;
+import util.CsvUtil;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-file CSV reads and atomic rewrites at each dataset size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+public class CsvBenchmark {
+    private List<String[]> inventoryRows;
+
+    @Setup(Level.Trial)
+    public void setup(Dataset data) throws IOException {
+        inventoryRows = CsvUtil.read("inventory.csv");
+    }
+
+    @Benchmark
+    public List<String[]> read() throws IOException {
+        return CsvUtil.read("orders.csv");
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        CsvUtil.write("bench_write.csv", inventoryRows);
+    }
+}
@@ -0,0 +1,104 @@
+package bench;
+
+import app.DatasetGenerator;
+import org.openjdk.jmh.annotations.*;
+import util.CsvCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CsvCodec against the split(",")/String.join handling it replaced, over 10,000 in-memory
+ * order_items rows. "plain" rows need no quoting, as nearly every row in the data files;
+ * there the codec has to be at least as fast as split. "quoted" rows carry a comma and a
+ * quote in every item name, which split cannot read back at all, so only the codec's own
+ * cost is of interest.
+ *
+ * Each call handles every row and returns the number of fields seen.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class CsvCodecBenchmark {
+    private static final int ROWS = 10_000;
+
+    @Param({"plain", "quoted"})
+    public String shape;
+
+    private String[][] rows;
+    private String[] lines;
+    private String text;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Random rnd = new Random(Dataset.SEED);
+        rows = new String[ROWS][];
+        lines = new String[ROWS];
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ROWS; i++) {
+            String name = DatasetGenerator.productName(rnd.nextInt(200_000));
+            if (shape.equals("quoted")) name = name + ", the \"big\" bag";
+            rows[i] = new String[] {"ORD-" + (1_000_000 + i), String.valueOf(1 + i % 4), "P" + rnd.nextInt(200_000),
+                    String.valueOf(1 + rnd.nextInt(5)), String.format(Locale.US, "%.2f", 0.5 + rnd.nextInt(1000) / 100.0), name};
+            lines[i] = CsvCodec.formatRow(rows[i]);
+            sb.append(lines[i]).append('\n');
+        }
+        text = sb.toString();
+    }
+
+    @Benchmark
+    public int splitLine() {
+        int n = 0;
+        for (String line : lines) n += line.split(",", -1).length;
+        return n;
+    }
+
+    @Benchmark
+    public int parseRecord() {
+        int n = 0;
+        for (String line : lines) n += CsvCodec.parseRecord(line).length;
+        return n;
+    }
+
+    /** What CsvUtil.read did per file: readLine, then split. */
+    @Benchmark
+    public int readLineSplit() throws IOException {
+        int n = 0;
+        try (BufferedReader in = new BufferedReader(new StringReader(text))) {
+            String line;
+            while ((line = in.readLine()) != null) n += line.split(",", -1).length;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int recordReader() throws IOException {
+        int n = 0;
+        try (CsvCodec.RecordReader in = new CsvCodec.RecordReader(new StringReader(text))) {
+            String[] row;
+            while ((row = in.next()) != null) n += row.length;
+        }
+        return n;
+    }
+
+    @Benchmark
+    public int join() {
+        int n = 0;
+        for (String[] row : rows) n += String.join(",", row).length();
+        return n;
+    }
+
+    @Benchmark
+    public int formatRow() {
+        int n = 0;
+        for (String[] row : rows) n += CsvCodec.formatRow(row).length();
+        return n;
+    }
+}
@@ -0,0 +1,59 @@
+package bench;
+
+import app.DatasetGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Stream;
+
+/**
+ * A generated data directory shared by every benchmark in a trial.
+ *
+ * Each (benchmark, rows) pair runs in its own forked JVM, so pointing candystore.data.dir at
+ * a fresh temp directory here, before any store is opened, isolates it from the real data
+ * and from every other size. The files come from {@link DatasetGenerator}, which is seeded:
+ * the same size always yields the same files.
+ *
+ *   inventory.csv              rows products, stock high enough that checkouts never run out
+ *   users.csv                  rows users; DatasetGenerator.username(i) has password(i)
+ *   orders.csv/order_items.csv rows orders over the past year, skewed towards popular products
+ */
+@State(Scope.Benchmark)
+public class Dataset {
+    static final long SEED = 42;
+    private static final int STOCK = 1_000_000_000;
+
+    @Param({"1000", "100000", "1000000", "10000000"})
+    public int rows;
+
+    Path dir;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        dir = Files.createTempDirectory("candystore-bench");
+        System.setProperty("candystore.data.dir", dir.toString());
+        DatasetGenerator.Spec spec = new DatasetGenerator.Spec(rows, rows, rows, 365,
+                LocalDate.of(2025, 12, 1), SEED, 1.1, STOCK, STOCK);
+        DatasetGenerator.generate(dir, spec, Runtime.getRuntime().availableProcessors());
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    String randomProduct() {
+        return DatasetGenerator.productName(ThreadLocalRandom.current().nextInt(rows));
+    }
+
+    int randomUser() {
+        return ThreadLocalRandom.current().nextInt(rows);
+    }
+}
@@ -0,0 +1,41 @@
+package bench;
+
+import model.InventoryItem;
+import org.openjdk.jmh.annotations.*;
+import repo.InventoryDataManager;
+
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inventory point reads and write-through saves.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+public class InventoryBenchmark {
+    private Dataset data;
+    private InventoryDataManager inventory;
+
+    @Setup(Level.Trial)
+    public void setup(Dataset data) {
+        this.data = data;
+        this.inventory = new InventoryDataManager();
+    }
+
+    @Benchmark
+    public Optional<InventoryItem> getItem() {
+        return inventory.getItem(data.randomProduct());
+    }
+
+    @Benchmark
+    public void saveItem() throws IOException {
+        inventory.saveItem(new InventoryItem(data.randomProduct(), "gummy", 1.50,
+                1_000_000 + ThreadLocalRandom.current().nextInt(1000)));
+    }
+}
@@ -0,0 +1,56 @@
+package bench;
+
+import app.DatasetGenerator;
+import model.Order;
+import model.OrderItem;
+import model.OrderStatus;
+import org.openjdk.jmh.annotations.*;
+import repo.OrderDataManager;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Order storage: journaled saves, per-customer history via the customer index,
+ * and a full read of every order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx8g"})
+public class OrderBenchmark {
+    private Dataset data;
+    private OrderDataManager orders;
+
+    @Setup(Level.Trial)
+    public void setup(Dataset data) {
+        this.data = data;
+        this.orders = new OrderDataManager();
+    }
+
+    @Benchmark
+    public Order saveOrder() throws IOException {
+        String product = data.randomProduct();
+        Order o = new Order(UUID.randomUUID().toString(), DatasetGenerator.username(data.randomUser()), Instant.now());
+        o.addItem(new OrderItem(product, product, 2, 1.50));
+        o.setStatus(OrderStatus.PAID);
+        orders.saveOrder(o);
+        return o;
+    }
+
+    @Benchmark
+    public List<Order> getOrdersByUser() {
+        return orders.getOrdersByUser(DatasetGenerator.username(data.randomUser()));
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public List<Order> getAllOrders() {
+        return orders.getAllOrders();
+    }
+}
@@ -16,6 +16,7 @@ import javafx.scene.control.Button;
 import javafx.application.Platform;
 import javafx.stage.Stage;
 import service.BackendFacade;
+import auth.UserManager;
 import model.Order;
 import model.OrderItem;
 // chatgpt helped with dugging and some code, but I used the TestFX example also
@@ -103,6 +104,7 @@ public class CustomerDashboard implements UIScreen{ //Factory Pattern
         });
         
         logoutButton.setOnAction(e -> {
+            UserManager.getInstance().logout(customer.getUsername());
             // Close the application instead of returning to login
             Stage stage = (Stage) borderPane.getScene().getWindow();
             stage.close();
@@ -8,6 +8,7 @@ import java.util.UUID;
 import java.util.Map;
 import java.util.stream.Collectors;
 import javafx.collections.FXCollections;
+import auth.UserManager;
 import service.BackendFacade;
 import service.BackendFacade.UiCartItem;
 import model.InventoryItem;
@@ -37,6 +38,8 @@ public class TestFX extends Application {
 	private List<Candy> cart = new ArrayList<>();
 	{cart.size();}
 	private double totalPrice = 0.0;
+	// Stock holds placed when items were added to the cart; released on clear, consumed by checkout
+	private final List<String> cartHolds = new ArrayList<>();
 
 	// Store username passed from LoginPage
 	private String externalUsername = null;
@@ -51,10 +54,15 @@ public class TestFX extends Application {
 	private void clearCart(ObservableList<Candy> cartItems, Label totalLabel) {
 		cartItems.clear(); // clears UI list
 		shoppingCart.clear(); // clears backend cart
+		releaseCartHolds(); // puts held stock back on sale
 		totalPrice = 0.0; // resets total
 		totalLabel.setText("Total: $0.00");
 		System.out.println("Your cart has been cleared.");
 	}
+	private void releaseCartHolds() {
+		for (String id : cartHolds) BackendFacade.getInventoryService().release(id);
+		cartHolds.clear();
+	}
 	private void processCheckout(ObservableList<Candy> cartItems, Label totalLabel,
 			ListView<Candy> cartListView, BorderPane borderPane, VBox loginBox, Customer loggedInCustomer, Pane dashboardView) {
     	if (cartItems.isEmpty()) {
@@ -103,7 +111,8 @@ public class TestFX extends Application {
     				}
 
     				// Process checkout through BackendFacade
-    				model.Order newOrder = BackendFacade.checkout(loggedInCustomer.getUsername(), uiCartItems, null);
+    				model.Order newOrder = BackendFacade.checkout(loggedInCustomer.getUsername(), uiCartItems, null, cartHolds);
+    				cartHolds.clear(); // consumed by the order
 
     				String timestamp = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
     				String receipt = "Order ID: " + newOrder.getId() + "\nDate: " + timestamp + "\n\n" + sb.toString();
@@ -221,6 +230,7 @@ public class TestFX extends Application {
 		Button clearCartButton = new Button("Clear Cart");
 		clearCartButton.setOnAction(e -> {
 			shoppingCart.clear();
+			releaseCartHolds();
 			cartItems.clear(); 
 			totalLabel.setText("Total: $0.00");
 		});
@@ -238,11 +248,13 @@ public class TestFX extends Application {
 		    	return;
 		    }
 
-		    // Check stock using BackendFacade
+		    // Hold the stock for this cart so it cannot sell out before checkout
 		    String candyName = selectedItem.getName();
-		    int stock = BackendFacade.getInventoryService().getStock(candyName);
-		    if (quantity > stock) {
-		    	showAlert("Not enough in stock", "Only " + stock + " left in stock.");
+		    try {
+		    	cartHolds.add(BackendFacade.getInventoryService().reserve(candyName, quantity).id());
+		    } catch (IllegalStateException ex) {
+		    	int available = BackendFacade.getInventoryService().getAvailable(candyName);
+		    	showAlert("Not enough in stock", "Only " + available + " left in stock.");
 		    	return;
 		    }
 
@@ -319,6 +331,7 @@ public class TestFX extends Application {
         Button logOutButton = new Button("Log Out");
 		logOutButton.setOnAction(e -> {
 			clearCart(cartItems, totalLabel); // clears cart when log out
+			if (externalUsername != null && !externalUsername.isEmpty()) UserManager.getInstance().logout(externalUsername);
 			// Close the application instead of returning to login
 			stage.close();
 			Platform.exit();
@@ -0,0 +1,101 @@
+package app;
+
+import model.InventoryItem;
+import repo.InventoryDataManager;
+import service.BackendFacade;
+import service.BackendFacade.UiCartItem;
+import service.InventoryService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Concurrent checkout stress run: many shoppers buy the same few products at once
+ * until stock runs out, then the run checks that stock was conserved.
+ *
+ *   initial stock - units sold == final stock (in memory and in inventory.csv), never below zero
+ *
+ * Runs against a fresh temporary data directory, so the real data files are never touched.
+ * Usage: mvn javafx:run -Pcheckout-stress   (optional args: threads checkoutsPerThread)
+ * Add -Dcandystore.checkout.mode=pipeline to exercise the batching checkout pipeline.
+ * A small run of the same check is the CheckoutConcurrencyTest unit test.
+ */
+public class CheckoutStress {
+    private static final String[] PRODUCTS = {"Gummy Bears", "Lollipop", "Toffee", "Jelly Beans"};
+    private static final int INITIAL_STOCK = 500;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int perThread = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+
+        Path dataDir = Files.createTempDirectory("candystore-stress");
+        System.setProperty("candystore.data.dir", dataDir.toString());
+        StringBuilder csv = new StringBuilder("name,type,price,quantity\n");
+        for (String p : PRODUCTS) csv.append(p).append(",Candy,1.00,").append(INITIAL_STOCK).append('\n');
+        Files.writeString(dataDir.resolve("inventory.csv"), csv);
+
+        BackendFacade.init();
+        BackendFacade.setLowStockThreshold(0);
+        InventoryService inventory = BackendFacade.getInventoryService();
+
+        Map<String, AtomicInteger> sold = new ConcurrentHashMap<>();
+        for (String p : PRODUCTS) sold.put(p, new AtomicInteger());
+        AtomicInteger rejected = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> shoppers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            shoppers.add(pool.submit(() -> {
+                Random rnd = new Random(seed);
+                start.await();
+                for (int i = 0; i < perThread; i++) {
+                    // two distinct products per cart, so carts contend on overlapping lines
+                    String a = PRODUCTS[rnd.nextInt(PRODUCTS.length)];
+                    String b = PRODUCTS[(Arrays.asList(PRODUCTS).indexOf(a) + 1 + rnd.nextInt(PRODUCTS.length - 1)) % PRODUCTS.length];
+                    int qa = 1 + rnd.nextInt(3), qb = 1 + rnd.nextInt(3);
+                    List<UiCartItem> cart = List.of(new UiCartItem(a, a, qa, 1.00), new UiCartItem(b, b, qb, 1.00));
+                    try {
+                        BackendFacade.checkout("U" + seed, cart, null);
+                        sold.get(a).addAndGet(qa);
+                        sold.get(b).addAndGet(qb);
+                    } catch (IllegalStateException e) {
+                        rejected.incrementAndGet();
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                        System.err.println("Checkout failed: " + e);
+                    }
+                }
+                return null;
+            }));
+        }
+        long began = System.nanoTime();
+        start.countDown();
+        for (Future<?> f : shoppers) f.get();
+        pool.shutdown();
+        long millis = (System.nanoTime() - began) / 1_000_000;
+
+        inventory.flush();                  // the CSV trails the counters by the writer's delay
+        InventoryDataManager reloaded = new InventoryDataManager();
+        reloaded.reload();
+        boolean ok = failed.get() == 0;
+        for (String p : PRODUCTS) {
+            int expected = INITIAL_STOCK - sold.get(p).get();
+            int inMemory = inventory.getStock(p);
+            int onDisk = reloaded.getItem(p).map(InventoryItem::getQuantity).orElse(-1);
+            boolean good = expected >= 0 && inMemory == expected && onDisk == expected;
+            ok &= good;
+            System.out.printf("%-12s sold=%4d expected=%4d memory=%4d csv=%4d %s%n",
+                    p, sold.get(p).get(), expected, inMemory, onDisk, good ? "ok" : "MISMATCH");
+        }
+        System.out.printf("%d threads x %d checkouts in %d ms, %d rejected for stock, %d failed%n",
+                threads, perThread, millis, rejected.get(), failed.get());
+        System.out.println(ok ? "PASS" : "FAIL");
+        System.exit(ok ? 0 : 1);
+    }
+}
@@ -0,0 +1,403 @@
+package app;
+
+import util.ZipfSampler;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.Month;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes a synthetic data directory in the formats the application reads:
+ *   users.csv                  UserManager accounts; user{i} logs in with password pw{i}
+ *   inventory.csv              InventoryDataManager products
+ *   orders.csv/order_items.csv OrderDataManager history (the legacy segment; indexes build on first open)
+ *
+ * The data is meant to look like a real shop:
+ * - Product popularity and customer activity are Zipf-skewed, with the top ranks spread
+ *   across the id space.
+ * - Order volume grows over the period, peaks at weekends and in December, and follows a
+ *   daily curve. createdAt ascends through the file, as in an append-only history.
+ * - Recent orders are still in flight; older ones are DELIVERED; a few are CANCELLED.
+ *
+ * Output is a pure function of the arguments. Rows are produced in fixed-size chunks, each
+ * from its own seeded generator, so the files are byte-identical whatever the thread count.
+ * Chunks are built on every core and written in order by one thread, with a bounded number
+ * in flight. Memory stays flat however many rows are written.
+ *
+ * Usage: java -cp build/classes app.DatasetGenerator --dir=PATH [--users=N] [--products=N]
+ *        [--orders=N] [--days=N] [--end=YYYY-MM-DD] [--seed=N] [--skew=S] [--threads=N]
+ *        [--min-stock=N] [--max-stock=N] [--force]
+ * or:    mvn javafx:run -Pgenerate-data -Djavafx.args="--dir=/tmp/big --orders=10000000"
+ */
+public class DatasetGenerator {
+    private static final int CHUNK = 20_000;
+
+    private static final String[] FLAVORS = {"Cherry", "Lemon", "Strawberry", "Blue Raspberry", "Watermelon",
+            "Sour Apple", "Grape", "Orange", "Mango", "Peach", "Cola", "Mint", "Caramel", "Vanilla", "Hazelnut",
+            "Dark Chocolate", "Milk Chocolate", "White Chocolate", "Cinnamon", "Butterscotch"};
+    private static final String[][] KINDS = {
+            {"Gummy Bears", "gummy"}, {"Gummy Worms", "gummy"}, {"Jelly Beans", "gummy"}, {"Fruit Chews", "gummy"},
+            {"Lollipop", "hard"}, {"Hard Drops", "hard"}, {"Rock Candy", "hard"}, {"Candy Cane", "hard"},
+            {"Sour Belts", "sour"}, {"Sour Straws", "sour"}, {"Fizz Balls", "sour"},
+            {"Truffles", "chocolate"}, {"Bar", "chocolate"}, {"Bonbons", "chocolate"}, {"Coated Pretzels", "chocolate"},
+            {"Toffee", "toffee"}, {"Fudge", "toffee"}, {"Brittle", "toffee"},
+            {"Licorice Twists", "licorice"}, {"Licorice Bites", "licorice"}};
+    // Relative order volume per hour of day (UTC)
+    private static final double[] HOURLY = {1.0, 0.6, 0.4, 0.3, 0.3, 0.5, 1.0, 1.8, 2.6, 3.2, 3.8, 4.6,
+            5.4, 5.0, 4.4, 4.2, 4.6, 5.2, 6.0, 6.4, 6.0, 4.8, 3.2, 1.8};
+
+    /** What to generate. */
+    public record Spec(long users, int products, long orders, int days, LocalDate end,
+                       long seed, double skew, int minStock, int maxStock) {
+        public static Spec defaults() {
+            return new Spec(1_000_000, 20_000, 10_000_000, 730, LocalDate.of(2025, 12, 1), 42, 1.1, 0, 500);
+        }
+    }
+
+    /** Name of product i. */
+    public static String productName(int i) {
+        return FLAVORS[i % FLAVORS.length] + " " + KINDS[(i / FLAVORS.length) % KINDS.length][0]
+                + String.format(Locale.ROOT, " %05d", i);
+    }
+
+    /** Login name of user i. */
+    public static String username(long i) {
+        return "user" + i;
+    }
+
+    /** Password of user i. */
+    public static String password(long i) {
+        return "pw" + i;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + a);
+            int eq = a.indexOf('=');
+            opts.put(eq < 0 ? a.substring(2) : a.substring(2, eq), eq < 0 ? "true" : a.substring(eq + 1));
+        }
+        if (!opts.containsKey("dir")) {
+            System.err.println("Usage: DatasetGenerator --dir=PATH [--users=N] [--products=N] [--orders=N] [--days=N]"
+                    + " [--end=YYYY-MM-DD] [--seed=N] [--skew=S] [--threads=N] [--min-stock=N] [--max-stock=N] [--force]");
+            System.exit(2);
+        }
+        Spec d = Spec.defaults();
+        Spec spec = new Spec(
+                Long.parseLong(opts.getOrDefault("users", String.valueOf(d.users()))),
+                Integer.parseInt(opts.getOrDefault("products", String.valueOf(d.products()))),
+                Long.parseLong(opts.getOrDefault("orders", String.valueOf(d.orders()))),
+                Integer.parseInt(opts.getOrDefault("days", String.valueOf(d.days()))),
+                LocalDate.parse(opts.getOrDefault("end", d.end().toString())),
+                Long.parseLong(opts.getOrDefault("seed", String.valueOf(d.seed()))),
+                Double.parseDouble(opts.getOrDefault("skew", String.valueOf(d.skew()))),
+                Integer.parseInt(opts.getOrDefault("min-stock", String.valueOf(d.minStock()))),
+                Integer.parseInt(opts.getOrDefault("max-stock", String.valueOf(d.maxStock()))));
+        int threads = Integer.parseInt(opts.getOrDefault("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+        Path dir = Paths.get(opts.get("dir"));
+
+        if (Files.isDirectory(dir) && !opts.containsKey("force")) {
+            try (var entries = Files.list(dir)) {
+                if (entries.findAny().isPresent()) {
+                    System.err.println(dir + " is not empty; pass --force to overwrite its data files");
+                    System.exit(2);
+                }
+            }
+        }
+        long began = System.nanoTime();
+        generate(dir, spec, threads);
+        System.out.printf("Wrote %d users, %d products, %d orders to %s in %d ms%n",
+                spec.users(), spec.products(), spec.orders(), dir, (System.nanoTime() - began) / 1_000_000);
+    }
+
+    /**
+     * Writes all four files into dir, replacing any that exist.
+     *
+     * @param threads Worker threads building chunks; does not affect the output
+     */
+    public static void generate(Path dir, Spec spec, int threads) throws IOException {
+        if (spec.users() < 1 || spec.products() < 1 || spec.orders() < 0 || spec.days() < 1) {
+            throw new IllegalArgumentException("users, products and days must be positive: " + spec);
+        }
+        Files.createDirectories(dir);
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "dataset-generator");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            new DatasetGenerator(spec, pool, Math.max(1, threads)).writeAll(dir);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // ---- generation ----
+
+    private final Spec spec;
+    private final ExecutorService pool;
+    private final int inFlight;
+    private final ZipfSampler productRank;
+    private final ZipfSampler customerRank;
+    private final long[] dayStart; // first order index of each day, plus the total at the end
+    private final double[] hourCdf = new double[HOURLY.length + 1];
+    private final long productStride, customerStride;
+
+    private DatasetGenerator(Spec spec, ExecutorService pool, int threads) {
+        this.spec = spec;
+        this.pool = pool;
+        this.inFlight = threads * 2;
+        this.productRank = new ZipfSampler(spec.products(), spec.skew());
+        this.customerRank = new ZipfSampler(spec.users(), 0.8);
+        this.productStride = coprimeStride(spec.products(), 0x9E3779B97F4A7C15L ^ spec.seed());
+        this.customerStride = coprimeStride(spec.users(), 0xC2B2AE3D27D4EB4FL ^ spec.seed());
+
+        double total = 0;
+        for (int h = 0; h < HOURLY.length; h++) {
+            total += HOURLY[h];
+            hourCdf[h + 1] = total;
+        }
+        for (int h = 0; h <= HOURLY.length; h++) hourCdf[h] /= total;
+
+        // Split the orders across days in proportion to each day's weight
+        LocalDate first = spec.end().minusDays(spec.days());
+        double[] weight = new double[spec.days()];
+        double sum = 0;
+        for (int d = 0; d < spec.days(); d++) {
+            LocalDate day = first.plusDays(d);
+            double w = 0.6 + 0.4 * d / spec.days(); // the shop grows
+            if (day.getDayOfWeek() == DayOfWeek.SATURDAY || day.getDayOfWeek() == DayOfWeek.SUNDAY) w *= 1.3;
+            if (day.getMonth() == Month.DECEMBER) w *= 1.5;
+            weight[d] = w;
+            sum += w;
+        }
+        dayStart = new long[spec.days() + 1];
+        double acc = 0;
+        for (int d = 0; d < spec.days(); d++) {
+            dayStart[d] = Math.round(spec.orders() * acc / sum);
+            acc += weight[d];
+        }
+        dayStart[spec.days()] = spec.orders();
+    }
+
+    private void writeAll(Path dir) throws IOException {
+        writeChunked(new Path[]{dir.resolve("inventory.csv")}, spec.products(), "name,type,price,quantity\n",
+                this::productChunk);
+        writeChunked(new Path[]{dir.resolve("users.csv")}, spec.users(),
+                "username,passwordHash,salt,role,email,recoveryQuestion,recoveryAnswerHash,answerSalt\n",
+                this::userChunk);
+        writeChunked(new Path[]{dir.resolve("orders.csv"), dir.resolve("order_items.csv")}, spec.orders(), null,
+                this::orderChunk);
+    }
+
+    /** Builds rows [from, to) of every output; appends one StringBuilder per output file. */
+    @FunctionalInterface
+    private interface ChunkWriter {
+        void write(long chunk, long from, long to, StringBuilder[] out);
+    }
+
+    /**
+     * Builds fixed-size chunks on the pool and appends them to the files in chunk order,
+     * keeping at most a few chunks per thread in memory.
+     */
+    private void writeChunked(Path[] files, long rows, String header, ChunkWriter writer) throws IOException {
+        FileChannel[] out = new FileChannel[files.length];
+        try {
+            for (int i = 0; i < files.length; i++) {
+                out[i] = FileChannel.open(files[i], StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+            if (header != null) writeFully(out[0], header.getBytes(StandardCharsets.UTF_8));
+            long chunks = (rows + CHUNK - 1) / CHUNK;
+            Deque<Future<byte[][]>> pending = new ArrayDeque<>();
+            long next = 0;
+            for (long written = 0; written < chunks; written++) {
+                while (next < chunks && pending.size() < inFlight) {
+                    long chunk = next++;
+                    pending.add(pool.submit(() -> {
+                        StringBuilder[] sb = new StringBuilder[files.length];
+                        for (int i = 0; i < sb.length; i++) sb[i] = new StringBuilder(CHUNK * 64);
+                        writer.write(chunk, chunk * CHUNK, Math.min(rows, (chunk + 1) * CHUNK), sb);
+                        byte[][] bytes = new byte[sb.length][];
+                        for (int i = 0; i < sb.length; i++) bytes[i] = sb[i].toString().getBytes(StandardCharsets.UTF_8);
+                        return bytes;
+                    }));
+                }
+                byte[][] bytes = pending.poll().get();
+                for (int i = 0; i < out.length; i++) writeFully(out[i], bytes[i]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating " + files[0], e);
+        } catch (ExecutionException e) {
+            throw new IOException("Generating " + files[0] + " failed", e.getCause());
+        } finally {
+            for (FileChannel c : out) {
+                if (c != null) c.close();
+            }
+        }
+    }
+
+    private void productChunk(long chunk, long from, long to, StringBuilder[] out) {
+        SplittableRandom rnd = chunkRandom(0, chunk);
+        int span = Math.max(0, spec.maxStock() - spec.minStock());
+        for (int i = (int) from; i < to; i++) {
+            int stock = spec.minStock() + (span == 0 ? 0 : rnd.nextInt(span + 1));
+            out[0].append(productName(i)).append(',').append(KINDS[(i / FLAVORS.length) % KINDS.length][1]).append(',')
+                    .append(String.format(Locale.US, "%.2f", priceOf(i))).append(',').append(stock).append('\n');
+        }
+    }
+
+    private void userChunk(long chunk, long from, long to, StringBuilder[] out) {
+        SplittableRandom rnd = chunkRandom(1, chunk);
+        MessageDigest sha256 = sha256();
+        Base64.Encoder b64 = Base64.getEncoder();
+        byte[] saltBytes = new byte[16];
+        for (long i = from; i < to; i++) {
+            nextBytes(rnd, saltBytes);
+            String salt = b64.encodeToString(saltBytes);
+            String hash = b64.encodeToString(sha256.digest((password(i) + salt).getBytes(StandardCharsets.UTF_8))); // as UserManager hashes
+            out[0].append(username(i)).append(',').append(hash).append(',').append(salt).append(",customer,")
+                    .append(username(i)).append("@example.com,,,\n");
+        }
+    }
+
+    private void orderChunk(long chunk, long from, long to, StringBuilder[] out) {
+        SplittableRandom rnd = chunkRandom(2, chunk);
+        long endEpochDay = spec.end().toEpochDay();
+        int day = dayOf(from);
+        int[] picked = new int[8];
+        for (long i = from; i < to; i++) {
+            while (dayStart[day + 1] <= i) day++;
+            long inDay = dayStart[day + 1] - dayStart[day];
+            double q = ((i - dayStart[day]) + rnd.nextDouble()) / inDay; // stratified, so times ascend
+            long epochDay = endEpochDay - spec.days() + day;
+            Instant createdAt = Instant.ofEpochSecond(epochDay * 86_400 + (long) (timeOfDay(q) * 86_400),
+                    rnd.nextInt(1_000_000_000));
+
+            String id = uuid(rnd);
+            int lines = 1;
+            while (lines < picked.length && rnd.nextDouble() < 0.55) lines++;
+            double subtotal = 0;
+            int line = 0;
+            for (int attempt = 0; line < lines && attempt < lines * 3; attempt++) {
+                int product = (int) permute(productRank.sample(rnd) - 1, spec.products(), productStride);
+                boolean seen = false;
+                for (int k = 0; k < line; k++) seen |= picked[k] == product;
+                if (seen) continue; // one line per product, as carts merge
+                picked[line++] = product;
+                int qty = 1 + (rnd.nextDouble() < 0.7 ? 0 : rnd.nextInt(5));
+                double price = priceOf(product);
+                subtotal += qty * price;
+                out[1].append(id).append(',').append(line).append(',').append(productName(product)).append(',')
+                        .append(qty).append(',').append(String.format(Locale.US, "%.2f", price)).append(',')
+                        .append(productName(product)).append('\n');
+            }
+            double discount = rnd.nextDouble() < 0.15 ? subtotal * 0.10 : 0;
+            String customer = username(permute(customerRank.sample(rnd) - 1, spec.users(), customerStride));
+            out[0].append(id).append(',').append(customer).append(',').append(createdAt).append(',')
+                    .append(statusFor(endEpochDay - epochDay, rnd)).append(',')
+                    .append(String.format(Locale.US, "%.2f,%.2f,%.2f", subtotal, discount, Math.max(0, subtotal - discount)))
+                    .append('\n');
+        }
+    }
+
+    // ---- helpers ----
+
+    private int dayOf(long orderIndex) {
+        int lo = 0, hi = spec.days() - 1;
+        while (lo < hi) { // last day whose start is <= orderIndex
+            int mid = (lo + hi + 1) >>> 1;
+            if (dayStart[mid] <= orderIndex) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /** Inverse of the daily-curve CDF: fraction of the day at which quantile q falls. */
+    private double timeOfDay(double q) {
+        int h = 0;
+        while (h < HOURLY.length - 1 && hourCdf[h + 1] <= q) h++;
+        double within = (q - hourCdf[h]) / (hourCdf[h + 1] - hourCdf[h]);
+        return (h + Math.min(Math.max(within, 0), 0.999999)) / HOURLY.length;
+    }
+
+    private static String statusFor(long ageDays, SplittableRandom rnd) {
+        if (rnd.nextDouble() < 0.04) return "CANCELLED";
+        if (ageDays <= 1) return rnd.nextBoolean() ? "PAID" : "PACKING";
+        if (ageDays <= 5) return "SHIPPED";
+        return "DELIVERED";
+    }
+
+    /** Stable price for product i, $0.50 to $20.00. */
+    private double priceOf(int i) {
+        return 0.50 + new SplittableRandom(spec.seed() * 31 + i).nextInt(1951) / 100.0;
+    }
+
+    private SplittableRandom chunkRandom(long table, long chunk) {
+        return new SplittableRandom(spec.seed() ^ (table * 0x9E3779B97F4A7C15L) ^ (chunk * 0xBF58476D1CE4E5B9L));
+    }
+
+    /** Maps popularity rank r to an id with a stride coprime to n, so top ranks are spread out. */
+    private static long permute(long rank, long n, long stride) {
+        return Math.floorMod(rank * stride, n);
+    }
+
+    private static long coprimeStride(long n, long seed) {
+        if (n <= 2) return 1;
+        long stride = Math.floorMod(seed, n - 1) + 1;
+        while (gcd(stride, n) != 1) stride = stride % (n - 1) + 1;
+        return stride;
+    }
+
+    private static long gcd(long a, long b) {
+        while (b != 0) {
+            long t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static String uuid(SplittableRandom rnd) {
+        long hi = (rnd.nextLong() & ~0xF000L) | 0x4000L;                  // version 4
+        long lo = (rnd.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L; // IETF variant
+        return new UUID(hi, lo).toString();
+    }
+
+    private static void nextBytes(SplittableRandom rnd, byte[] bytes) {
+        for (int i = 0; i < bytes.length; i += 8) {
+            long v = rnd.nextLong();
+            for (int j = i; j < Math.min(bytes.length, i + 8); j++, v >>>= 8) bytes[j] = (byte) v;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 algorithm not found", e);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        while (buf.hasRemaining()) channel.write(buf);
+    }
+}
@@ -0,0 +1,420 @@
+package app;
+
+import auth.UserManager;
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import model.InventoryItem;
+import model.Order;
+import model.OrderItem;
+import model.Reservation;
+import repo.InventoryDataManager;
+import service.BackendFacade;
+import service.BackendFacade.UiCartItem;
+import service.InventoryService;
+import util.ZipfSampler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.random.RandomGenerator;
+
+/**
+ * Headless load test: thousands of simulated shoppers use the back end at once, each
+ * repeating a visit until the run ends:
+ *
+ *   login -> browse products -> add to cart (holding stock) -> checkout -> order history -> logout
+ *
+ * with a think time before every step. Products are picked with Zipf popularity, so a few
+ * hot products see most of the contention and some of them sell out mid-run.
+ *
+ * At the end it prints throughput and latency percentiles per step, error and rejection
+ * counts, and reconciles stock for every product:
+ *
+ *   initial stock - units sold == final stock (in memory and in inventory.csv), never below zero, nothing left held
+ *
+ * Unless --dir is given it runs against a dataset generated into a fresh temporary directory
+ * (see {@link DatasetGenerator}); a --dir must hold a generated dataset with the same --users,
+ * since shoppers log in with the generator's passwords, and it is modified by the run.
+ *
+ * Usage: mvn javafx:run -Pload-sim -Djavafx.args="--shoppers=2000 --duration=120 --think=exp:200"
+ * Exits with status 1 if any step failed unexpectedly or stock does not reconcile.
+ */
+public class LoadSimulator {
+    private static final String[] STEPS = {"login", "browse", "add_to_cart", "checkout", "history", "logout"};
+
+    /** Run settings; see {@link #usage()}. */
+    public record Settings(int shoppers, long durationSeconds, ThinkTime think, double skew,
+                           int browse, int cartLines, int maxQty, boolean holds, long seed) {}
+
+    /** Pause a shopper takes before each step. */
+    public record ThinkTime(String kind, double a, double b) {
+        /**
+         * Parses none, fixed:MS, uniform:MIN-MAX or exp:MEAN (milliseconds).
+         */
+        public static ThinkTime parse(String spec) {
+            String[] parts = spec.split(":", 2);
+            try {
+                switch (parts[0]) {
+                    case "none" -> {
+                        if (parts.length == 1) return new ThinkTime("none", 0, 0);
+                    }
+                    case "fixed", "exp" -> {
+                        double ms = Double.parseDouble(parts[1]);
+                        if (ms >= 0) return new ThinkTime(parts[0], ms, 0);
+                    }
+                    case "uniform" -> {
+                        String[] range = parts[1].split("-", 2);
+                        double lo = Double.parseDouble(range[0]), hi = Double.parseDouble(range[1]);
+                        if (0 <= lo && lo <= hi) return new ThinkTime("uniform", lo, hi);
+                    }
+                    default -> {}
+                }
+            } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+                // fall through to the message below
+            }
+            throw new IllegalArgumentException("Think time must be none, fixed:MS, uniform:MIN-MAX or exp:MEAN: " + spec);
+        }
+
+        long nextMillis(RandomGenerator rnd) {
+            return switch (kind) {
+                case "fixed" -> Math.round(a);
+                case "uniform" -> Math.round(a + rnd.nextDouble() * (b - a));
+                case "exp" -> Math.round(-a * Math.log(1 - rnd.nextDouble()));
+                default -> 0;
+            };
+        }
+
+        @Override
+        public String toString() {
+            return switch (kind) {
+                case "none" -> kind;
+                case "uniform" -> kind + ":" + (long) a + "-" + (long) b;
+                default -> kind + ":" + (long) a;
+            };
+        }
+    }
+
+    private final Settings settings;
+    private final long users;
+    private final InventoryService inventory;
+    private final UserManager userManager;
+    private final List<String> products;
+    private final Map<String, Double> prices = new HashMap<>();
+    private final Map<String, Integer> initialStock = new HashMap<>();
+    private final ZipfSampler productMix;
+
+    private final Map<String, LatencyHistogram> latency = new LinkedHashMap<>();
+    private final Map<String, Counter> errors = new LinkedHashMap<>();
+    private final Map<String, LongAdder> sold = new ConcurrentHashMap<>();
+    private final LongAdder sessions = new LongAdder();
+    private final LongAdder ordersPaid = new LongAdder();
+    private final LongAdder ordersRejected = new LongAdder();
+    private final LongAdder linesRejected = new LongAdder();
+    private final LongAdder historyMissing = new LongAdder();
+
+    private volatile boolean stopping;
+
+    /**
+     * Captures the catalogue and its starting stock; call after the data directory is set.
+     *
+     * @param users Accounts in the dataset, named DatasetGenerator.username(0 .. users-1)
+     */
+    public LoadSimulator(Settings settings, long users) {
+        this.settings = settings;
+        this.users = users;
+        BackendFacade.init();
+        BackendFacade.setLowStockThreshold(0);
+        this.inventory = BackendFacade.getInventoryService();
+        this.userManager = UserManager.getInstance();
+
+        List<String> names = new ArrayList<>();
+        for (InventoryItem item : inventory.getAllItems()) {
+            names.add(item.getName());
+            prices.put(item.getName(), item.getPrice());
+            initialStock.put(item.getName(), item.getQuantity());
+            sold.put(item.getName(), new LongAdder());
+        }
+        if (names.isEmpty()) throw new IllegalStateException("The inventory is empty");
+        Collections.sort(names);
+        Collections.shuffle(names, new Random(settings.seed())); // popularity independent of name order
+        this.products = names;
+        this.productMix = new ZipfSampler(names.size(), settings.skew());
+
+        MetricsRegistry metrics = MetricsRegistry.getInstance();
+        for (String step : STEPS) {
+            latency.put(step, metrics.histogram("loadsim_step_seconds", "step", step));
+            errors.put(step, metrics.counter("loadsim_errors_total", "step", step));
+        }
+    }
+
+    /**
+     * Runs every shopper for the configured duration, printing progress every 5 seconds.
+     *
+     * @return Wall-clock nanoseconds the shoppers ran
+     */
+    public long run() throws InterruptedException, ExecutionException {
+        ExecutorService pool = Executors.newFixedThreadPool(settings.shoppers(), r -> {
+            Thread t = new Thread(r, "shopper");
+            t.setDaemon(true);
+            return t;
+        });
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "load-progress");
+            t.setDaemon(true);
+            return t;
+        });
+        long began = System.nanoTime();
+        long[] lastPaid = {0};
+        ticker.scheduleAtFixedRate(() -> {
+            long paid = ordersPaid.sum();
+            System.out.printf("%5ds  %,9d orders  %,7.0f orders/s  %,d sessions%n",
+                    (System.nanoTime() - began) / 1_000_000_000, paid, (paid - lastPaid[0]) / 5.0, sessions.sum());
+            lastPaid[0] = paid;
+        }, 5, 5, TimeUnit.SECONDS);
+
+        List<Future<?>> shoppers = new ArrayList<>();
+        for (int i = 0; i < settings.shoppers(); i++) {
+            SplittableRandom rnd = new SplittableRandom(settings.seed() * 1_000_003 + i);
+            shoppers.add(pool.submit(() -> {
+                while (!stopping) visit(rnd);
+                return null;
+            }));
+        }
+        Thread.sleep(TimeUnit.SECONDS.toMillis(settings.durationSeconds()));
+        stopping = true;
+        for (Future<?> f : shoppers) f.get();
+        long elapsed = System.nanoTime() - began;
+        ticker.shutdownNow();
+        pool.shutdown();
+        return elapsed;
+    }
+
+    /** One shopper visit. Holds it placed are always released, even if the run stops mid-cart. */
+    private void visit(SplittableRandom rnd) throws InterruptedException {
+        long user = rnd.nextLong(users);
+        String username = DatasetGenerator.username(user);
+        if (!think(rnd)) return;
+        boolean loggedIn = step("login", () -> userManager.authenticate(username, DatasetGenerator.password(user)) != null);
+        if (!loggedIn) return;
+        sessions.increment();
+
+        List<String> holds = new ArrayList<>();
+        try {
+            for (int i = 0; i < settings.browse(); i++) {
+                if (!think(rnd)) return;
+                String product = pickProduct(rnd);
+                step("browse", () -> inventory.getAvailable(product) >= 0);
+            }
+
+            Map<String, UiCartItem> cart = new LinkedHashMap<>();
+            int lines = 1 + rnd.nextInt(settings.cartLines());
+            for (int i = 0; i < lines; i++) {
+                if (!think(rnd)) return;
+                String product = pickProduct(rnd);
+                if (cart.containsKey(product)) continue;
+                int qty = 1 + rnd.nextInt(settings.maxQty());
+                step("add_to_cart", () -> {
+                    if (settings.holds()) {
+                        try {
+                            Reservation r = inventory.reserve(product, qty);
+                            holds.add(r.id());
+                        } catch (IllegalStateException e) {
+                            linesRejected.increment(); // sold out; a real shopper moves on
+                            return true;
+                        }
+                    }
+                    cart.put(product, new UiCartItem(product, product, qty, prices.get(product)));
+                    return true;
+                });
+            }
+            if (cart.isEmpty() || !think(rnd)) return;
+
+            Order[] placed = new Order[1];
+            step("checkout", () -> {
+                try {
+                    placed[0] = BackendFacade.checkout(username, new ArrayList<>(cart.values()), null, holds);
+                } catch (IllegalStateException e) {
+                    ordersRejected.increment();
+                    return true;
+                }
+                ordersPaid.increment();
+                for (OrderItem item : placed[0].getItems()) sold.get(item.getProductId()).add(item.getQty());
+                return true;
+            });
+
+            if (!think(rnd)) return;
+            step("history", () -> {
+                List<Order> history = BackendFacade.ordersForUser(username);
+                if (placed[0] != null && history.stream().noneMatch(o -> o.getId().equals(placed[0].getId()))) {
+                    historyMissing.increment();
+                }
+                return true;
+            });
+            think(rnd);
+        } finally {
+            for (String id : holds) inventory.release(id); // no-op for holds the checkout consumed
+            step("logout", () -> {
+                userManager.logout(username);
+                return true;
+            });
+        }
+    }
+
+    private interface Step {
+        boolean run() throws Exception;
+    }
+
+    /**
+     * Times one step. A false result or an unexpected exception counts as an error for that step.
+     *
+     * @return Whether the step succeeded
+     */
+    private boolean step(String name, Step action) {
+        long start = System.nanoTime();
+        boolean ok;
+        try {
+            ok = action.run();
+        } catch (Exception e) {
+            ok = false;
+            if (errors.get(name).get() < 5) System.err.println(name + " failed: " + e);
+        }
+        latency.get(name).recordSince(start);
+        if (!ok) errors.get(name).increment();
+        return ok;
+    }
+
+    /**
+     * Sleeps for one think time.
+     *
+     * @return False if the run ended meanwhile
+     */
+    private boolean think(RandomGenerator rnd) throws InterruptedException {
+        long millis = settings.think().nextMillis(rnd);
+        if (millis > 0) Thread.sleep(millis);
+        return !stopping;
+    }
+
+    private String pickProduct(RandomGenerator rnd) {
+        return products.get((int) productMix.sample(rnd) - 1);
+    }
+
+    /**
+     * Prints the per-step table and totals, then checks stock product by product.
+     *
+     * @return True if nothing failed unexpectedly and stock reconciles
+     */
+    public boolean report(long elapsedNanos) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("%n%d shoppers for %.1f s, think %s, skew %.2f, holds %s%n%n",
+                settings.shoppers(), seconds, settings.think(), settings.skew(), settings.holds() ? "on" : "off");
+        System.out.printf("%-12s %10s %8s %10s %9s %9s %9s %9s %9s %9s%n",
+                "step", "count", "errors", "per sec", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+        long totalErrors = 0;
+        for (String step : STEPS) {
+            LatencyHistogram.Snapshot s = latency.get(step).snapshot();
+            long failed = errors.get(step).get();
+            totalErrors += failed;
+            System.out.printf("%-12s %,10d %,8d %,10.1f %9.3f %9.3f %9.3f %9.3f %9.3f %9.3f%n",
+                    step, s.count(), failed, s.count() / seconds, s.meanNanos() / 1e6,
+                    s.p50() / 1e6, s.p90() / 1e6, s.p99() / 1e6, s.p999() / 1e6, s.maxNanos() / 1e6);
+        }
+
+        InventoryDataManager onDisk = new InventoryDataManager();
+        onDisk.reload();
+        Map<String, Integer> persisted = new HashMap<>();
+        for (InventoryItem item : onDisk.getAllItems()) persisted.put(item.getName(), item.getQuantity());
+        int oversold = 0, mismatched = 0, stillHeld = 0, soldOut = 0;
+        long units = 0;
+        for (String p : products) {
+            int initial = initialStock.get(p);
+            long unitsSold = sold.get(p).sum();
+            units += unitsSold;
+            long expected = initial - unitsSold;
+            int inMemory = inventory.getStock(p);
+            int csv = persisted.getOrDefault(p, -1);
+            if (expected < 0 || inMemory < 0) oversold++;
+            if (inMemory != expected || csv != expected) {
+                mismatched++;
+                if (mismatched <= 10) {
+                    System.err.printf("Stock mismatch for %s: initial=%d sold=%d memory=%d csv=%d%n", p, initial, unitsSold, inMemory, csv);
+                }
+            }
+            if (inventory.getHeld(p) != 0) stillHeld++;
+            if (initial > 0 && inMemory == 0) soldOut++;
+        }
+
+        System.out.printf("%n%,d sessions, %,d orders paid (%,.1f/s), %,d units sold%n",
+                sessions.sum(), ordersPaid.sum(), ordersPaid.sum() / seconds, units);
+        System.out.printf("%,d checkouts rejected for stock, %,d cart lines sold out, %,d products sold out%n",
+                ordersRejected.sum(), linesRejected.sum(), soldOut);
+        System.out.printf("%,d errors, %,d orders missing from history, %,d products oversold, %,d with stock mismatch, %,d still held%n",
+                totalErrors, historyMissing.sum(), oversold, mismatched, stillHeld);
+        boolean ok = totalErrors == 0 && historyMissing.sum() == 0 && oversold == 0 && mismatched == 0 && stillHeld == 0;
+        System.out.println(ok ? "PASS" : "FAIL");
+        return ok;
+    }
+
+    private static String usage() {
+        return "Usage: LoadSimulator [--dir=PATH] [--users=N] [--products=N] [--history=N] [--min-stock=N] [--max-stock=N]"
+                + " [--shoppers=N] [--duration=SECONDS] [--think=none|fixed:MS|uniform:MIN-MAX|exp:MEAN]"
+                + " [--skew=S] [--browse=N] [--cart-lines=N] [--max-qty=N] [--holds=true|false] [--seed=N]";
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+        for (String a : args) {
+            if (!a.startsWith("--")) {
+                System.err.println(usage());
+                System.exit(2);
+            }
+            int eq = a.indexOf('=');
+            opts.put(eq < 0 ? a.substring(2) : a.substring(2, eq), eq < 0 ? "true" : a.substring(eq + 1));
+        }
+        long users = Long.parseLong(opts.getOrDefault("users", "100000"));
+        long seed = Long.parseLong(opts.getOrDefault("seed", "42"));
+        Settings settings = new Settings(
+                Integer.parseInt(opts.getOrDefault("shoppers", "1000")),
+                Long.parseLong(opts.getOrDefault("duration", "60")),
+                ThinkTime.parse(opts.getOrDefault("think", "exp:500")),
+                Double.parseDouble(opts.getOrDefault("skew", "1.1")),
+                Integer.parseInt(opts.getOrDefault("browse", "5")),
+                Integer.parseInt(opts.getOrDefault("cart-lines", "3")),
+                Integer.parseInt(opts.getOrDefault("max-qty", "3")),
+                Boolean.parseBoolean(opts.getOrDefault("holds", "true")),
+                seed);
+        if (users < 1 || settings.shoppers() < 1 || settings.durationSeconds() < 1 || settings.browse() < 0
+                || settings.cartLines() < 1 || settings.maxQty() < 1) {
+            System.err.println(usage());
+            System.exit(2);
+        }
+
+        Path dir;
+        if (opts.containsKey("dir")) {
+            dir = Paths.get(opts.get("dir"));
+        } else {
+            dir = Files.createTempDirectory("candystore-load");
+            DatasetGenerator.Spec d = DatasetGenerator.Spec.defaults();
+            DatasetGenerator.Spec spec = new DatasetGenerator.Spec(users,
+                    Integer.parseInt(opts.getOrDefault("products", "5000")),
+                    Long.parseLong(opts.getOrDefault("history", "100000")),
+                    365, LocalDate.now(ZoneOffset.UTC), seed, d.skew(),
+                    Integer.parseInt(opts.getOrDefault("min-stock", "50")),
+                    Integer.parseInt(opts.getOrDefault("max-stock", "500")));
+            long began = System.nanoTime();
+            DatasetGenerator.generate(dir, spec, Runtime.getRuntime().availableProcessors());
+            System.out.printf("Generated %,d users, %,d products, %,d orders in %s (%d ms)%n",
+                    spec.users(), spec.products(), spec.orders(), dir, (System.nanoTime() - began) / 1_000_000);
+        }
+        System.setProperty("candystore.data.dir", dir.toString());
+
+        LoadSimulator sim = new LoadSimulator(settings, users);
+        boolean ok = sim.report(sim.run());
+        System.exit(ok ? 0 : 1);
+    }
+}
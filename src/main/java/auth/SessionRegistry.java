@@ -0,0 +1,197 @@
+package auth;
+
+import util.HyperLogLog;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Who is logged in, and how many distinct users have been active recently.
+ *
+ * Logins, logouts and touches count as activity. Active-user counts over the last
+ * 1..60 minutes come from a ring of per-minute buckets: each user is counted once, in
+ * the bucket of the minute they were last seen, and moves forward when seen again.
+ * A bucket is one AtomicLong holding (minute, users), updated by CAS, so recording
+ * activity never takes a lock and reading a window sums at most 60 buckets.
+ *
+ * Distinct users today and this month are HyperLogLog estimates (about 0.8% error,
+ * fixed 64 KB each), so they stay cheap however many logins there are. Like the
+ * session list itself they cover activity since the application started.
+ *
+ * Shared by the whole process (Singleton); UserManager records logins and logouts.
+ */
+public final class SessionRegistry {
+    public static final int MAX_WINDOW_MINUTES = 60;
+    private static final long MINUTE_MS = 60_000;
+
+    private static SessionRegistry instance;
+
+    /** An open login. */
+    public record Session(String username, Instant startedAt) {}
+
+    /** A distinct-user sketch for one day or month. */
+    private record PeriodSketch(long period, HyperLogLog users) {}
+
+    private final Map<String, Session> open = new ConcurrentHashMap<>();          // by username
+    private final Map<String, Integer> lastSeenMinute = new ConcurrentHashMap<>(); // users seen in the last hour
+    private final AtomicLongArray buckets = new AtomicLongArray(MAX_WINDOW_MINUTES); // minute << 32 | users
+    private final AtomicLong lastSweepMinute = new AtomicLong();
+    private final AtomicReference<PeriodSketch> daily = new AtomicReference<>(new PeriodSketch(-1, new HyperLogLog()));
+    private final AtomicReference<PeriodSketch> monthly = new AtomicReference<>(new PeriodSketch(-1, new HyperLogLog()));
+
+    private SessionRegistry() {}
+
+    /**
+     * Gets the process-wide registry.
+     *
+     * @return The shared SessionRegistry instance
+     */
+    public static synchronized SessionRegistry getInstance() {
+        if (instance == null) {
+            instance = new SessionRegistry();
+        }
+        return instance;
+    }
+
+    /**
+     * Opens a session for a user, replacing any session they already had.
+     *
+     * @param username The user who logged in
+     * @return The new session
+     */
+    public Session login(String username) {
+        Session session = new Session(username, Instant.now());
+        open.put(username, session);
+        touch(username);
+        return session;
+    }
+
+    /**
+     * Closes a user's session. Does nothing if they have none.
+     *
+     * @param username The user who logged out
+     */
+    public void logout(String username) {
+        if (username != null && open.remove(username) != null) touch(username);
+    }
+
+    /**
+     * Records activity by a user without changing their session.
+     *
+     * @param username The active user
+     */
+    public void touch(String username) {
+        long now = System.currentTimeMillis();
+        int minute = (int) (now / MINUTE_MS);
+        Integer previous = lastSeenMinute.put(username, minute);
+        if (previous == null || previous != minute) {
+            bump(minute, 1);
+            if (previous != null) bump(previous, -1);
+        }
+        sketch(daily, dayOf(now)).add(username);
+        sketch(monthly, monthOf(now)).add(username);
+        sweep(minute);
+    }
+
+    /**
+     * Distinct users active within the last few minutes.
+     *
+     * @param minutes Window length, 1 to {@value #MAX_WINDOW_MINUTES}
+     */
+    public int getActiveUsers(int minutes) {
+        if (minutes < 1 || minutes > MAX_WINDOW_MINUTES) {
+            throw new IllegalArgumentException("Window must be 1-" + MAX_WINDOW_MINUTES + " minutes: " + minutes);
+        }
+        int now = (int) (System.currentTimeMillis() / MINUTE_MS);
+        int total = 0;
+        for (int minute = now - minutes + 1; minute <= now; minute++) {
+            long v = buckets.get(slot(minute));
+            if ((int) (v >>> 32) == minute) total += (int) v;
+        }
+        return total;
+    }
+
+    /** Estimated distinct users active today (local time). */
+    public long getDailyUniqueUsers() {
+        return estimate(daily, dayOf(System.currentTimeMillis()));
+    }
+
+    /** Estimated distinct users active this calendar month (local time). */
+    public long getMonthlyUniqueUsers() {
+        return estimate(monthly, monthOf(System.currentTimeMillis()));
+    }
+
+    public int getOpenSessionCount() {
+        return open.size();
+    }
+
+    public boolean isLoggedIn(String username) {
+        return open.containsKey(username);
+    }
+
+    public List<Session> getOpenSessions() {
+        return new ArrayList<>(open.values());
+    }
+
+    // ---- internals ----
+
+    /** Adds delta to a minute's bucket, claiming the slot from an older minute if needed. */
+    private void bump(int minute, int delta) {
+        int slot = slot(minute);
+        while (true) {
+            long v = buckets.get(slot);
+            int tag = (int) (v >>> 32);
+            long next;
+            if (tag == minute) next = pack(minute, (int) v + delta);
+            else if (tag < minute && delta > 0) next = pack(minute, delta);
+            else return; // the minute has left the window; nothing to take back
+            if (buckets.compareAndSet(slot, v, next)) return;
+        }
+    }
+
+    /** Once a minute, forgets users not seen for an hour (their buckets have aged out). */
+    private void sweep(int minute) {
+        long last = lastSweepMinute.get();
+        if (last >= minute || !lastSweepMinute.compareAndSet(last, minute)) return;
+        lastSeenMinute.values().removeIf(seen -> seen <= minute - MAX_WINDOW_MINUTES);
+    }
+
+    private static HyperLogLog sketch(AtomicReference<PeriodSketch> ref, long period) {
+        PeriodSketch s = ref.get();
+        while (s.period() < period) {
+            ref.compareAndSet(s, new PeriodSketch(period, new HyperLogLog())); // first touch of a new day/month
+            s = ref.get();
+        }
+        return s.users();
+    }
+
+    private static long estimate(AtomicReference<PeriodSketch> ref, long period) {
+        PeriodSketch s = ref.get();
+        return s.period() == period ? s.users().estimate() : 0;
+    }
+
+    private static long dayOf(long millis) {
+        return LocalDate.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault()).toEpochDay();
+    }
+
+    private static long monthOf(long millis) {
+        LocalDate d = LocalDate.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        return d.getYear() * 12L + d.getMonthValue() - 1;
+    }
+
+    private static int slot(int minute) {
+        return Math.floorMod(minute, MAX_WINDOW_MINUTES);
+    }
+
+    private static long pack(int minute, int users) {
+        return ((long) minute << 32) | (users & 0xFFFFFFFFL);
+    }
+}
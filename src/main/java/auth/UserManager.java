@@ -1,36 +1,62 @@
 package auth;
 
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+import patterns.singleton.DataSource;
+import util.CsvCodec;
+import util.Snapshot;
+
 import java.io.*;
+import java.nio.IntBuffer;
 import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * ************* SINGLETON EXAMPLE **********************
  * UserManager - Singleton class for managing user accounts.
  * Handles user authentication, account creation, and CSV storage.
  * Uses SHA-256 with salt for password hashing.
+ * Accounts are also written periodically and at exit as a binary snapshot (users.csv.snap).
+ * While it still matches users.csv, startup maps it instead of parsing the file, and an
+ * account is copied out of it the first time it is looked up.
  *
  * @author Travis Dagostino
  * @since 2025-11-22
  */
 public class UserManager {
-    private static final String CSV_FILE = "src/main/java/data/users.csv";
+    private static final String CSV_FILE = "users.csv"; // in the data directory
     private static final String CSV_HEADER = "username,passwordHash,salt,role,email,recoveryQuestion,recoveryAnswerHash,answerSalt";
+    private static final String SNAPSHOT_FILE = CSV_FILE + ".snap";
+    private static final String SNAPSHOT_KIND = "users";
+    private static final int SNAPSHOT_VERSION = 1;
     private static UserManager instance;
 
+    private static final LatencyHistogram AUTH_LATENCY = MetricsRegistry.getInstance().histogram("auth_authenticate_seconds");
+    private static final Counter AUTH_OK = MetricsRegistry.getInstance().counter("auth_attempts_total", "result", "success");
+    private static final Counter AUTH_UNKNOWN = MetricsRegistry.getInstance().counter("auth_attempts_total", "result", "unknown_user");
+    private static final Counter AUTH_BAD_PASSWORD = MetricsRegistry.getInstance().counter("auth_attempts_total", "result", "bad_password");
+
     private Map<String, UserAccount> users;
     private Map<String, String> salts; // Store password salts separately
     private Map<String, String> answerSalts; // Store recovery answer salts separately
+    private final SessionRegistry sessions = SessionRegistry.getInstance();
+    private long changes; // bumped on every successful write of users.csv
+    private long snapshotAt = -1; // value of changes the snapshot matches
+    private volatile Snapshot snapshot; // accounts not copied into the maps yet; null once all are
+    private IntBuffer[] snapshotColumns;
 
     private UserManager() {
-        users = new HashMap<>();
-        salts = new HashMap<>();
-        answerSalts = new HashMap<>();
+        users = new ConcurrentHashMap<>();
+        salts = new ConcurrentHashMap<>();
+        answerSalts = new ConcurrentHashMap<>();
         loadUsers();
         initializeDefaultAccounts();
+        Snapshot.keepFresh("users", this::saveSnapshot);
     }
 
     /**
@@ -51,7 +77,7 @@ public class UserManager {
      */
     private void initializeDefaultAccounts() {
         // Only create defaults if no users exist
-        if (users.isEmpty()) {
+        if (users.isEmpty() && snapshot == null) {
             try {
                 createUser("admin", "admin123", "admin", "admin@sweetfactory.com",
                           "What is your favorite book?", "1984");
@@ -68,18 +94,22 @@ public class UserManager {
 
     /**
      * Load users from CSV file.
-     * Reads the users.csv file and populates the users map.
+     * Reads the users.csv file and populates the users map,
+     * from the snapshot if it still matches the file.
      */
     private void loadUsers() {
-        File file = new File(CSV_FILE);
+        File file = DataSource.getInstance().resolve(CSV_FILE).toFile();
         if (!file.exists()) {
             return;
         }
+        if (loadSnapshot()) {
+            snapshotAt = changes;
+            return;
+        }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line = reader.readLine(); // Skip header
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",", -1); // -1 to preserve empty strings
+        try (CsvCodec.RecordReader reader = new CsvCodec.RecordReader(new BufferedReader(new FileReader(file)))) {
+            String[] parts = reader.next(); // Skip header
+            while ((parts = reader.next()) != null) {
                 if (parts.length >= 8) {
                     String username = parts[0];
                     String passwordHash = parts[1];
@@ -111,35 +141,155 @@ public class UserManager {
             }
         } catch (IOException e) {
             System.err.println("Error loading users: " + e.getMessage());
+            snapshotAt = changes; // never snapshot a partial load
         }
     }
 
+    /**
+     * Map the snapshot if its stamp still matches users.csv.
+     * Usernames are its first column and the first strings in its dictionary,
+     * so the code of a username is the account's row.
+     *
+     * @return true if the users are served from the snapshot
+     */
+    private boolean loadSnapshot() {
+        try {
+            Snapshot snap = Snapshot.open(DataSource.getInstance().resolve(SNAPSHOT_FILE), SNAPSHOT_KIND, SNAPSHOT_VERSION);
+            if (snap == null || !Arrays.equals(snap.stamp(),
+                    Snapshot.contentStamp(DataSource.getInstance().resolve(CSV_FILE)))) {
+                return false;
+            }
+            IntBuffer[] columns = new IntBuffer[8];
+            for (int c = 0; c < columns.length; c++) {
+                columns[c] = snap.codes(c);
+            }
+            if (columns[0].limit() > 0) {
+                snapshotColumns = columns;
+                snapshot = snap;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get an account, copying it out of the snapshot on first use.
+     *
+     * @param username The username to look up
+     * @return The account, or null if there is none
+     */
+    private UserAccount account(String username) {
+        Snapshot snap = snapshot; // read first: once it is null, every account is in the maps
+        UserAccount account = users.get(username);
+        if (account != null || snap == null) {
+            return account;
+        }
+        int row = snap.find(username);
+        if (row < 0 || row >= snapshotColumns[0].limit()) {
+            return null;
+        }
+        return copyOut(snap, row);
+    }
+
+    /**
+     * Copy one snapshot row into the maps unless a newer state of the account is there already.
+     * The salts go in first, so whoever finds the account also finds them.
+     */
+    private UserAccount copyOut(Snapshot snap, int row) {
+        IntBuffer[] c = snapshotColumns;
+        String username = snap.string(c[0].get(row));
+        salts.putIfAbsent(username, snap.string(c[2].get(row)));
+        answerSalts.putIfAbsent(username, snap.string(c[7].get(row)));
+        UserAccount account = new UserAccount(username, snap.string(c[1].get(row)), snap.string(c[3].get(row)),
+                snap.string(c[4].get(row)), snap.string(c[5].get(row)), snap.string(c[6].get(row)));
+        UserAccount existing = users.putIfAbsent(username, account);
+        return existing != null ? existing : account;
+    }
+
+    /**
+     * Copy every account still in the snapshot into the maps, for callers that need them all.
+     */
+    private synchronized void copyAllOut() {
+        Snapshot snap = snapshot;
+        if (snap == null) {
+            return;
+        }
+        for (int row = 0; row < snapshotColumns[0].limit(); row++) {
+            copyOut(snap, row);
+        }
+        snapshot = null;
+    }
+
+    /**
+     * Save users to the snapshot if they changed since the last one.
+     * Holds the same columns as users.csv, with the values a reload of the file would give.
+     */
+    private synchronized void saveSnapshot() throws IOException {
+        if (snapshotAt == changes) {
+            return;
+        }
+        copyAllOut();
+        int n = users.size(), i = 0;
+        String[][] columns = new String[8][n];
+        for (UserAccount account : users.values()) {
+            String[] row = row(account);
+            for (int c = 0; c < columns.length; c++) {
+                columns[c][i] = row[c];
+            }
+            i++;
+        }
+        Snapshot.Writer writer = new Snapshot.Writer(SNAPSHOT_KIND, SNAPSHOT_VERSION,
+                Snapshot.contentStamp(DataSource.getInstance().resolve(CSV_FILE)));
+        for (String[] column : columns) {
+            writer.strings(column);
+        }
+        writer.write(DataSource.getInstance().resolve(SNAPSHOT_FILE));
+        snapshotAt = changes;
+    }
+
     /**
      * Save users to CSV file.
      * Writes all user accounts to the users.csv file.
      */
     private void saveUsers() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(CSV_FILE))) {
+        copyAllOut();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(DataSource.getInstance().resolve(CSV_FILE).toFile()))) {
             writer.println(CSV_HEADER);
             for (UserAccount account : users.values()) {
-                String salt = salts.get(account.getUsername());
-                String answerSalt = answerSalts.get(account.getUsername());
-                writer.printf("%s,%s,%s,%s,%s,%s,%s,%s%n",
-                    account.getUsername(),
-                    account.getPasswordHash(),
-                    salt,
-                    account.getRole(),
-                    account.getEmail(),
-                    account.getRecoveryQuestion() != null ? account.getRecoveryQuestion() : "",
-                    account.getRecoveryAnswerHash() != null ? account.getRecoveryAnswerHash() : "",
-                    answerSalt != null ? answerSalt : ""
-                );
+                writer.println(CsvCodec.formatRow(row(account)));
+            }
+            if (writer.checkError()) {
+                throw new IOException("could not write " + CSV_FILE);
             }
+            changes++;
         } catch (IOException e) {
             System.err.println("Error saving users: " + e.getMessage());
+            snapshotAt = changes; // the file does not hold what is in memory; no snapshot until a save succeeds
         }
     }
 
+    /**
+     * One account as a users.csv row.
+     *
+     * @param account The account to write
+     * @return The row's fields
+     */
+    private String[] row(UserAccount account) {
+        String salt = salts.get(account.getUsername());
+        String answerSalt = answerSalts.get(account.getUsername());
+        return new String[] {
+            account.getUsername(),
+            account.getPasswordHash(),
+            salt,
+            account.getRole(),
+            account.getEmail(),
+            account.getRecoveryQuestion() != null ? account.getRecoveryQuestion() : "",
+            account.getRecoveryAnswerHash() != null ? account.getRecoveryAnswerHash() : "",
+            answerSalt != null ? answerSalt : ""
+        };
+    }
+
     /**
      * Generate a random salt for password hashing.
      *
@@ -181,9 +331,9 @@ public class UserManager {
      * @param recoveryAnswer Answer to the security question
      * @return true if user was created successfully, false if username already exists
      */
-    public boolean createUser(String username, String password, String role, String email,
+    public synchronized boolean createUser(String username, String password, String role, String email,
                              String recoveryQuestion, String recoveryAnswer) {
-        if (users.containsKey(username)) {
+        if (account(username) != null) {
             return false; // Username already exists
         }
 
@@ -205,25 +355,44 @@ public class UserManager {
 
     /**
      * Authenticate a user with username and password.
+     * A successful login opens a session in the SessionRegistry.
      *
      * @param username The username to authenticate
      * @param password The password to verify
      * @return UserAccount object if authentication successful, null otherwise
      */
     public UserAccount authenticate(String username, String password) {
-        UserAccount account = users.get(username);
-        if (account == null) {
-            return null; // User not found
-        }
+        long start = System.nanoTime();
+        try {
+            UserAccount account = account(username);
+            if (account == null) {
+                AUTH_UNKNOWN.increment();
+                return null; // User not found
+            }
 
-        String salt = salts.get(username);
-        String passwordHash = hashPassword(password, salt);
+            String salt = salts.get(username);
+            String passwordHash = hashPassword(password, salt);
+
+            if (passwordHash.equals(account.getPasswordHash())) {
+                AUTH_OK.increment();
+                sessions.login(username);
+                return account; // Authentication successful
+            }
 
-        if (passwordHash.equals(account.getPasswordHash())) {
-            return account; // Authentication successful
+            AUTH_BAD_PASSWORD.increment();
+            return null; // Invalid password
+        } finally {
+            AUTH_LATENCY.recordSince(start);
         }
+    }
 
-        return null; // Invalid password
+    /**
+     * Log a user out, closing their session.
+     *
+     * @param username The username to log out
+     */
+    public void logout(String username) {
+        sessions.logout(username);
     }
 
     /**
@@ -233,7 +402,7 @@ public class UserManager {
      * @return true if username exists, false otherwise
      */
     public boolean userExists(String username) {
-        return users.containsKey(username);
+        return account(username) != null;
     }
 
     /**
@@ -243,7 +412,7 @@ public class UserManager {
      * @return UserAccount object if found, null otherwise
      */
     public UserAccount getUser(String username) {
-        return users.get(username);
+        return account(username);
     }
 
     /**
@@ -253,8 +422,8 @@ public class UserManager {
      * @param newPassword The new plaintext password
      * @return true if password was updated successfully, false if user not found
      */
-    public boolean updatePassword(String username, String newPassword) {
-        UserAccount account = users.get(username);
+    public synchronized boolean updatePassword(String username, String newPassword) {
+        UserAccount account = account(username);
         if (account == null) {
             return false;
         }
@@ -277,7 +446,7 @@ public class UserManager {
      * @return true if answer is correct, false otherwise
      */
     public boolean validateRecoveryAnswer(String username, String answer) {
-        UserAccount account = users.get(username);
+        UserAccount account = account(username);
         if (account == null || account.getRecoveryAnswerHash() == null || account.getRecoveryAnswerHash().isEmpty()) {
             return false;
         }
@@ -299,6 +468,7 @@ public class UserManager {
      * @since 2025-11-22
      */
     public List<UserAccount> getAllUsers() {
+        copyAllOut();
         return new ArrayList<>(users.values());
     }
 
@@ -311,8 +481,8 @@ public class UserManager {
      * @author Travis Dagostino
      * @since 2025-11-22
      */
-    public boolean updateUserRole(String username, String newRole) {
-        UserAccount account = users.get(username);
+    public synchronized boolean updateUserRole(String username, String newRole) {
+        UserAccount account = account(username);
         if (account == null) {
             return false;
         }
@@ -3,25 +3,46 @@ package managers;
 import model.*;
 import repo.*;
 import service.*;
-import auth.UserManager;
+import auth.SessionRegistry;
+import patterns.observer.EventPublisher;
 
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Aggregates statistics from various services for dashboard display
- * Implements caching to avoid excessive file I/O
+ * Keeps inventory value, low-stock count and today's orders live: each stock or order
+ * event adjusts them in O(1), and reads are O(1). A periodic reconciliation against
+ * storage corrects any drift (missed events, price edits, external file changes).
+ * Call {@link #close()} when the dashboard goes away, to stop the events and the reconciliation.
  * @author Travis Dagostino
  * @since 11-28-25
  */
 public class DashboardStatsManager {
+    private static final int LOW_STOCK_THRESHOLD = 10;
+    private static final long RECONCILE_INTERVAL_MS = 5 * 60_000; // 5 minutes
+    private static final int EVENT_BUFFER = 4096;
+
     private final OrderDataManager orderData;
     private final CustomerDataManager customerData;
     private final InventoryService inventoryService;
     private final Map<String, Double> productPrices;
+    private final ScheduledExecutorService reconciler;
+    private volatile Flow.Subscription subscription;
 
-    // Cache with TTL
-    private StatsCache cache;
-    private static final long CACHE_TTL_MS = 60_000; // 1 minute
+    // Live aggregates; written under this object's lock, read without it
+    private final Map<String, Integer> stockByProduct = new HashMap<>();
+    private Set<String> todaysOrderIds = new HashSet<>();
+    private LocalDate today = LocalDate.now();
+    private volatile double totalInventoryValue;
+    private volatile int lowStockCount;
+    private volatile int todaysOrderCount;
 
     public DashboardStatsManager(OrderDataManager orderData,
                                   CustomerDataManager customerData,
@@ -30,41 +51,75 @@ public class DashboardStatsManager {
         this.orderData = orderData;
         this.customerData = customerData;
         this.inventoryService = inventoryService;
-        this.productPrices = productPrices;
-        refreshCache();
+        this.productPrices = new ConcurrentHashMap<>(productPrices);
+        reconcile();
+
+        EventPublisher.getInstance().subscribe(new StatsSubscriber(), EVENT_BUFFER, EventPublisher.Overflow.LATEST);
+        reconciler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dashboard-stats-reconcile");
+            t.setDaemon(true);
+            return t;
+        });
+        reconciler.scheduleWithFixedDelay(this::reconcile, RECONCILE_INTERVAL_MS, RECONCILE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops receiving events and the periodic reconciliation
+     */
+    public void close() {
+        Flow.Subscription s = subscription;
+        if (s != null) s.cancel();
+        reconciler.shutdownNow();
     }
 
     /**
      * Get total inventory value (stock * price for all products)
      */
     public double getTotalInventoryValue() {
-        if (cache.isExpired()) refreshCache();
-        return cache.totalInventoryValue;
+        return totalInventoryValue;
     }
 
     /**
      * Get count of low stock items
      */
     public int getLowStockItemCount() {
-        if (cache.isExpired()) refreshCache();
-        return cache.lowStockCount;
+        return lowStockCount;
     }
 
     /**
      * Get today's order count
      */
-    public int getTodaysOrderCount() {
-        if (cache.isExpired()) refreshCache();
-        return cache.todaysOrders;
+    public synchronized int getTodaysOrderCount() {
+        rollDay();
+        return todaysOrderCount;
     }
 
     /**
-     * Get active user count (from UserManager)
+     * Get count of distinct users active in the last 15 minutes
      */
     public int getActiveUserCount() {
-        // Note: This would need to be implemented in UserManager
-        // For now, return a placeholder
-        return UserManager.getInstance() != null ? 5 : 0;
+        return getActiveUserCount(15);
+    }
+
+    /**
+     * Get count of distinct users active in the last few minutes (1-60)
+     */
+    public int getActiveUserCount(int minutes) {
+        return SessionRegistry.getInstance().getActiveUsers(minutes);
+    }
+
+    /**
+     * Get estimated distinct users active today
+     */
+    public long getDailyActiveUsers() {
+        return SessionRegistry.getInstance().getDailyUniqueUsers();
+    }
+
+    /**
+     * Get estimated distinct users active this month
+     */
+    public long getMonthlyActiveUsers() {
+        return SessionRegistry.getInstance().getMonthlyUniqueUsers();
     }
 
     /**
@@ -74,13 +129,32 @@ public class DashboardStatsManager {
         return orderData.getAllOrders();
     }
 
+    /**
+     * Get daily sales per product for a UTC date range, from the sales rollups
+     */
+    public List<DailySales> getDailySales(LocalDate from, LocalDate to) {
+        return SalesRollupStore.getInstance().between(from, to);
+    }
+
+    /**
+     * Get sales totals per product for a UTC date range, from the sales rollups
+     */
+    public Map<String, DailySales> getSalesByProduct(LocalDate from, LocalDate to) {
+        return SalesRollupStore.getInstance().totalsByProduct(from, to);
+    }
+
     /**
      * Get orders with customer info enriched for table display
      */
     public List<OrderDisplayModel> getOrdersWithCustomerInfo() {
-        List<OrderDisplayModel> result = new ArrayList<>();
-        for (Order order : getAllOrders()) {
-            Optional<Customer> customer = customerData.findById(order.getCustomerId());
+        List<Order> orders = getAllOrders();
+        Set<String> customerIds = new HashSet<>();
+        for (Order order : orders) customerIds.add(order.getCustomerId());
+        Map<String, Customer> customers = customerData.findByIds(customerIds); // one lookup, then a hash join
+
+        List<OrderDisplayModel> result = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            Optional<Customer> customer = Optional.ofNullable(customers.get(order.getCustomerId()));
             String customerName = customer.map(Customer::getUsername).orElse("Unknown");
             String customerEmail = customer.map(Customer::getEmail).orElse("");
 
@@ -90,55 +164,97 @@ public class DashboardStatsManager {
     }
 
     /**
-     * Manually trigger cache refresh
+     * Manually trigger a reconciliation against storage
      */
     public void refreshData() {
-        refreshCache();
+        reconcile();
     }
 
     /**
-     * Refresh statistics cache
+     * Recomputes every aggregate from storage: one pass over the products and a
+     * segment-pruned read of today's orders. Events wait while it runs, and applying an
+     * event that storage already reflected is harmless (stock events carry absolute
+     * levels, orders are counted by id).
      */
-    private void refreshCache() {
+    private synchronized void reconcile() {
+        stockByProduct.clear();
         double totalValue = 0.0;
-        int lowStockCount = 0;
-
+        int low = 0;
         for (Map.Entry<String, Double> entry : productPrices.entrySet()) {
-            String productId = entry.getKey();
-            double price = entry.getValue();
-            int stock = inventoryService.getStock(productId);
+            int stock = inventoryService.getStock(entry.getKey());
+            stockByProduct.put(entry.getKey(), stock);
+            totalValue += stock * entry.getValue();
+            if (isLow(stock)) low++;
+        }
+        totalInventoryValue = totalValue;
+        lowStockCount = low;
 
-            totalValue += stock * price;
+        today = LocalDate.now();
+        Set<String> ids = new HashSet<>();
+        for (Order o : orderData.getTodaysOrders()) ids.add(o.getId());
+        todaysOrderIds = ids;
+        todaysOrderCount = ids.size();
+    }
 
-            // Check if stock is low (using a default threshold of 10)
-            if (stock > 0 && stock <= 10) {
-                lowStockCount++;
-            }
+    private synchronized void apply(DomainEvent event) {
+        if (event instanceof DomainEvent.StockChanged e) {
+            setStock(e.productName(), e.onHand());
+        } else if (event instanceof DomainEvent.ItemAdded e) {
+            productPrices.put(e.item().getName(), e.item().getPrice());
+            setStock(e.item().getName(), e.item().getQuantity());
+        } else if (event instanceof DomainEvent.ItemDeleted e) {
+            setStock(e.productName(), 0);
+            stockByProduct.remove(e.productName());
+            productPrices.remove(e.productName());
+        } else if (event instanceof DomainEvent.OrderPlaced e) {
+            rollDay();
+            LocalDate created = LocalDate.ofInstant(e.order().getCreatedAt(), ZoneId.systemDefault());
+            if (created.equals(today) && todaysOrderIds.add(e.order().getId())) todaysOrderCount++;
         }
+    }
 
-        int todaysOrders = orderData.getTodaysOrders().size();
+    /** Moves one product to a new level, adjusting value and low-stock count by the difference. */
+    private void setStock(String productId, int stock) {
+        Double price = productPrices.get(productId);
+        if (price == null) return; // not a product the dashboard tracks
+        Integer previous = stockByProduct.put(productId, stock);
+        int before = previous == null ? 0 : previous;
+        totalInventoryValue += (stock - before) * price;
+        if (isLow(before) != isLow(stock)) lowStockCount += isLow(stock) ? 1 : -1;
+    }
 
-        cache = new StatsCache(totalValue, lowStockCount, todaysOrders);
+    /** Starts a fresh count at midnight. */
+    private void rollDay() {
+        LocalDate now = LocalDate.now();
+        if (now.equals(today)) return;
+        today = now;
+        todaysOrderIds = new HashSet<>();
+        todaysOrderCount = 0;
     }
 
-    /**
-     * Inner cache class with timestamp
-     */
-    private static class StatsCache {
-        final double totalInventoryValue;
-        final int lowStockCount;
-        final int todaysOrders;
-        final long timestamp;
-
-        StatsCache(double totalInventoryValue, int lowStockCount, int todaysOrders) {
-            this.totalInventoryValue = totalInventoryValue;
-            this.lowStockCount = lowStockCount;
-            this.todaysOrders = todaysOrders;
-            this.timestamp = System.currentTimeMillis();
+    private static boolean isLow(int stock) {
+        return stock > 0 && stock <= LOW_STOCK_THRESHOLD;
+    }
+
+    /** Feeds published events into the aggregates, one at a time. */
+    private class StatsSubscriber implements Flow.Subscriber<DomainEvent> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            DashboardStatsManager.this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(DomainEvent event) {
+            apply(event);
         }
 
-        boolean isExpired() {
-            return (System.currentTimeMillis() - timestamp) > CACHE_TTL_MS;
+        @Override
+        public void onError(Throwable throwable) {
+            System.err.println("Dashboard stats stopped receiving events: " + throwable.getMessage());
         }
+
+        @Override
+        public void onComplete() {}
     }
 }
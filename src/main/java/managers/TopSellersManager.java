@@ -0,0 +1,206 @@
+package managers;
+
+import model.DailySales;
+import model.DomainEvent;
+import model.Order;
+import model.OrderItem;
+import patterns.observer.EventPublisher;
+import repo.OrderDataManager;
+import repo.SalesRollupStore;
+import util.SpaceSaving;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Flow;
+
+/**
+ * Best-selling products by units sold, over a few fixed time windows.
+ *
+ * Each window is a ring of Space-Saving sketches, one per time bucket (e.g. twelve 5-minute
+ * buckets for the last hour); a bucket is cleared and reused when its time comes round again,
+ * and a query merges the live buckets. Memory is buckets x {@value #COUNTERS} counters per
+ * window, whatever the catalog size or order volume. Counts are estimates: a product's units
+ * are never undercounted, and any product selling more than 1/{@value #COUNTERS} of a bucket's
+ * units is always tracked.
+ *
+ * Seeded on construction without scanning order history: the all-time window starts from the
+ * daily sales rollups of every UTC day before the last 24 hours, and only the orders since the
+ * start of the UTC day 24 hours ago are read back, since the hourly and 5-minute buckets need
+ * their creation times. From then on it is fed by orders as they are paid.
+ * An order counts once, in the bucket of its creation time; a later cancellation is not
+ * taken back out (the sales rollups have exact figures). Products are counted by product id
+ * and shown by the last name seen for them. Call {@link #close()} to stop the events.
+ */
+public class TopSellersManager {
+    static final int COUNTERS = 64;
+    private static final int EVENT_BUFFER = 4096;
+
+    /** The windows the dashboard can show. */
+    public enum Window {
+        LAST_HOUR("Last hour", Duration.ofMinutes(5), 12),
+        LAST_DAY("Last 24 hours", Duration.ofHours(1), 24),
+        ALL_TIME("All time", null, 1);
+
+        private final String label;
+        private final long bucketMillis;
+        private final int buckets;
+
+        Window(String label, Duration bucket, int buckets) {
+            this.label = label;
+            this.bucketMillis = bucket == null ? Long.MAX_VALUE : bucket.toMillis();
+            this.buckets = buckets;
+        }
+
+        @Override
+        public String toString() {
+            return label;
+        }
+    }
+
+    /** A product and its estimated units sold in a window. */
+    public record Seller(String product, long units, long maxOvercount) {}
+
+    private final Ring[] rings = new Ring[Window.values().length];
+    private final Map<String, String> names = new ConcurrentHashMap<>(); // product id -> display name
+    private volatile Flow.Subscription subscription;
+
+    /**
+     * Builds the windows from the sales rollups and the last day of orders. This reads a day or
+     * two of orders, so call it off the FX thread.
+     */
+    public TopSellersManager(OrderDataManager orderData) {
+        for (Window w : Window.values()) rings[w.ordinal()] = new Ring(w);
+
+        // Subscribe before reading history; orders created from here on are left to the events
+        Instant cutoff = Instant.now();
+        EventPublisher.getInstance().subscribe(new SalesSubscriber(), EVENT_BUFFER, EventPublisher.Overflow.DROP);
+
+        // Rollups are per UTC day, so whole days before the last 24 hours come from them and
+        // the rest of the oldest day is replayed along with the last 24 hours
+        Instant dayAgo = cutoff.minus(Duration.ofDays(1));
+        LocalDate firstReplayed = LocalDate.ofInstant(dayAgo, ZoneOffset.UTC);
+        Ring allTime = rings[Window.ALL_TIME.ordinal()];
+        synchronized (this) {
+            for (DailySales d : SalesRollupStore.getInstance().totalsByProduct(LocalDate.MIN, firstReplayed.minusDays(1)).values()) {
+                if (d.units() > 0) allTime.offer(0, d.productId(), d.units());
+            }
+        }
+        for (Order o : orderData.getOrdersBetween(firstReplayed.atStartOfDay(ZoneOffset.UTC).toInstant(), cutoff)) {
+            if (!SalesRollupStore.isSold(o.getStatus())) continue;
+            if (o.getCreatedAt().isBefore(dayAgo)) record(o, allTime);
+            else record(o, rings);
+        }
+    }
+
+    /** Stops receiving order events. */
+    public void close() {
+        Flow.Subscription s = subscription;
+        if (s != null) s.cancel();
+    }
+
+    /**
+     * The best sellers in a window, highest first.
+     *
+     * @param n How many to return; at most {@value #COUNTERS}
+     */
+    public synchronized List<Seller> getTopSellers(Window window, int n) {
+        return rings[window.ordinal()].top(System.currentTimeMillis(), n).stream()
+                .map(e -> new Seller(names.getOrDefault(e.key(), e.key()), e.count(), e.error()))
+                .toList();
+    }
+
+    /** Total units counted in a window. */
+    public synchronized long getUnitsSold(Window window) {
+        return rings[window.ordinal()].total(System.currentTimeMillis());
+    }
+
+    private synchronized void record(Order order, Ring... into) {
+        long at = order.getCreatedAt().toEpochMilli();
+        for (OrderItem it : order.getItems()) {
+            if (it.getName() != null) names.put(it.getProductId(), it.getName());
+            for (Ring r : into) r.offer(at, it.getProductId(), it.getQty());
+        }
+    }
+
+    /** One window: a ring of per-bucket sketches indexed by bucket number modulo the ring size. */
+    private static final class Ring {
+        private final Window window;
+        private final SpaceSaving<String>[] sketches;
+        private final long[] bucketOf; // bucket number each slot currently holds, -1 if never used
+
+        @SuppressWarnings("unchecked")
+        Ring(Window window) {
+            this.window = window;
+            this.sketches = (SpaceSaving<String>[]) new SpaceSaving<?>[window.buckets];
+            this.bucketOf = new long[window.buckets];
+            for (int i = 0; i < window.buckets; i++) {
+                sketches[i] = new SpaceSaving<>(COUNTERS);
+                bucketOf[i] = -1;
+            }
+        }
+
+        void offer(long atMillis, String product, long units) {
+            long bucket = atMillis / window.bucketMillis;
+            int slot = (int) (bucket % window.buckets);
+            if (bucketOf[slot] > bucket) return; // older than anything the ring still covers
+            if (bucketOf[slot] < bucket) {
+                sketches[slot].clear();
+                bucketOf[slot] = bucket;
+            }
+            sketches[slot].offer(product, units);
+        }
+
+        List<SpaceSaving.Entry<String>> top(long nowMillis, int n) {
+            if (window.buckets == 1) return live(0, nowMillis) ? sketches[0].top(n) : List.of();
+            SpaceSaving<String> merged = new SpaceSaving<>(COUNTERS);
+            for (int i = 0; i < window.buckets; i++) {
+                if (live(i, nowMillis)) merged.addAll(sketches[i]);
+            }
+            return merged.top(n);
+        }
+
+        long total(long nowMillis) {
+            long sum = 0;
+            for (int i = 0; i < window.buckets; i++) {
+                if (live(i, nowMillis)) sum += sketches[i].total();
+            }
+            return sum;
+        }
+
+        /** True if the slot holds one of the window's last `buckets` buckets, up to now. */
+        private boolean live(int slot, long nowMillis) {
+            long current = nowMillis / window.bucketMillis;
+            return bucketOf[slot] >= 0 && bucketOf[slot] > current - window.buckets && bucketOf[slot] <= current;
+        }
+    }
+
+    /** Records each order when it first reaches a sold status. */
+    private class SalesSubscriber implements Flow.Subscriber<DomainEvent> {
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            TopSellersManager.this.subscription = subscription;
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(DomainEvent event) {
+            if (event instanceof DomainEvent.OrderStatusAdvanced e
+                    && !SalesRollupStore.isSold(e.previous()) && SalesRollupStore.isSold(e.order().getStatus())) {
+                record(e.order(), rings);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            System.err.println("Top sellers stopped receiving events: " + throwable.getMessage());
+        }
+
+        @Override
+        public void onComplete() {}
+    }
+}
@@ -0,0 +1,99 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Latency histogram in nanoseconds with HDR-style log-linear buckets: every power of two is
+ * split into 32 equal sub-buckets, so any recorded value, from 1 ns to centuries, lands in a
+ * bucket at most ~3% wide. The bucket array is fixed (1888 slots), so recording is an index
+ * computation and a few atomic adds, with no allocation and no locks.
+ *
+ * Percentiles report the upper edge of the bucket holding that rank (never below the truth,
+ * and never above the largest value recorded).
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 5;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+    /** Point-in-time summary, in nanoseconds. */
+    public record Snapshot(long count, long sumNanos, long maxNanos, long p50, long p90, long p99, long p999) {
+        public double meanNanos() {
+            return count == 0 ? 0 : (double) sumNanos / count;
+        }
+    }
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram() {}
+
+    /** Records one duration; negative values count as zero. */
+    public void record(long nanos) {
+        long v = Math.max(0, nanos);
+        counts.incrementAndGet(index(v));
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /** Records the time elapsed since a System.nanoTime() reading. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /** Runs an action and records how long it took, whether it returned or threw. */
+    public <T> T time(Supplier<T> action) {
+        long start = System.nanoTime();
+        try {
+            return action.get();
+        } finally {
+            recordSince(start);
+        }
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) n += copy[i] = counts.get(i);
+        long top = max.get();
+        return new Snapshot(n, sum.sum(), top,
+                percentile(copy, n, 0.50, top), percentile(copy, n, 0.90, top),
+                percentile(copy, n, 0.99, top), percentile(copy, n, 0.999, top));
+    }
+
+    private static long percentile(long[] counts, long total, double q, long max) {
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(q * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min(upperEdge(i), max);
+        }
+        return max;
+    }
+
+    static int index(long v) {
+        if (v < SUB) return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        return ((exp - SUB_BITS + 1) << SUB_BITS) + (int) ((v >>> (exp - SUB_BITS)) & (SUB - 1));
+    }
+
+    /** Largest value that maps to the bucket. */
+    static long upperEdge(int index) {
+        if (index < 2 * SUB - 1) return index;
+        if (index == BUCKETS - 1) return Long.MAX_VALUE;
+        return lowerEdge(index + 1) - 1;
+    }
+
+    private static long lowerEdge(int index) {
+        if (index < 2 * SUB) return index;
+        int exp = (index >>> SUB_BITS) + SUB_BITS - 1;
+        return (long) (SUB + (index & (SUB - 1))) << (exp - SUB_BITS);
+    }
+}
@@ -0,0 +1,178 @@
+package metrics;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide registry of counters and latency histograms, each identified by a name and
+ * optional label pairs, e.g. histogram("csv_read_seconds", "file", "inventory.csv").
+ *
+ * Looking a metric up costs a map lookup, so hot paths resolve theirs once and keep the
+ * reference. Recording never locks.
+ *
+ * Everything can be read as a {@link Snapshot} or written in Prometheus text format
+ * (histograms as summaries, in seconds). Setting -Dcandystore.metrics.file=path writes that
+ * file every candystore.metrics.interval seconds (default 15) and once more at exit.
+ *
+ * Shared by the whole process (Singleton).
+ */
+public final class MetricsRegistry {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private static MetricsRegistry instance;
+
+    /** Metric name plus its labels rendered in Prometheus form: a="x",b="y". */
+    private record Key(String name, String labels) implements Comparable<Key> {
+        @Override
+        public String toString() {
+            return labels.isEmpty() ? name : name + "{" + labels + "}";
+        }
+
+        @Override
+        public int compareTo(Key o) {
+            int c = name.compareTo(o.name);
+            return c != 0 ? c : labels.compareTo(o.labels);
+        }
+    }
+
+    /** Every metric's current value, keyed name{labels}, in name order. */
+    public record Snapshot(Map<String, Long> counters, Map<String, LatencyHistogram.Snapshot> histograms) {}
+
+    private final Map<Key, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<Key, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+
+    private MetricsRegistry() {}
+
+    /**
+     * Gets the process-wide registry, starting the periodic file dump if one is configured.
+     *
+     * @return The shared MetricsRegistry instance
+     */
+    public static synchronized MetricsRegistry getInstance() {
+        if (instance == null) {
+            instance = new MetricsRegistry();
+            String file = System.getProperty("candystore.metrics.file");
+            if (file != null && !file.isBlank()) {
+                long seconds = Long.getLong("candystore.metrics.interval", 15);
+                instance.dumpEvery(Paths.get(file), seconds);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * The counter with this name and labels, created on first use.
+     *
+     * @param labels Alternating label names and values
+     */
+    public Counter counter(String name, String... labels) {
+        return counters.computeIfAbsent(key(name, labels), k -> new Counter());
+    }
+
+    /**
+     * The latency histogram with this name and labels, created on first use.
+     *
+     * @param labels Alternating label names and values
+     */
+    public LatencyHistogram histogram(String name, String... labels) {
+        return histograms.computeIfAbsent(key(name, labels), k -> new LatencyHistogram());
+    }
+
+    public Snapshot snapshot() {
+        Map<String, Long> c = new LinkedHashMap<>();
+        for (Key k : new TreeSet<>(counters.keySet())) c.put(k.toString(), counters.get(k).get());
+        Map<String, LatencyHistogram.Snapshot> h = new LinkedHashMap<>();
+        for (Key k : new TreeSet<>(histograms.keySet())) h.put(k.toString(), histograms.get(k).snapshot());
+        return new Snapshot(c, h);
+    }
+
+    /**
+     * Writes every metric in the Prometheus text exposition format.
+     */
+    public void writePrometheus(Appendable out) throws IOException {
+        String family = null;
+        for (Key k : new TreeSet<>(counters.keySet())) {
+            if (!k.name().equals(family)) {
+                family = k.name();
+                out.append("# TYPE ").append(family).append(" counter\n");
+            }
+            out.append(k.toString()).append(' ').append(Long.toString(counters.get(k).get())).append('\n');
+        }
+        family = null;
+        for (Key k : new TreeSet<>(histograms.keySet())) {
+            if (!k.name().equals(family)) {
+                family = k.name();
+                out.append("# TYPE ").append(family).append(" summary\n");
+            }
+            LatencyHistogram.Snapshot s = histograms.get(k).snapshot();
+            long[] values = {s.p50(), s.p90(), s.p99(), s.p999()};
+            String sep = k.labels().isEmpty() ? "" : k.labels() + ",";
+            for (int i = 0; i < QUANTILES.length; i++) {
+                out.append(k.name()).append('{').append(sep).append("quantile=\"").append(Double.toString(QUANTILES[i]))
+                        .append("\"} ").append(seconds(values[i])).append('\n');
+            }
+            String labels = k.labels().isEmpty() ? "" : "{" + k.labels() + "}";
+            out.append(k.name()).append("_sum").append(labels).append(' ').append(seconds(s.sumNanos())).append('\n');
+            out.append(k.name()).append("_count").append(labels).append(' ').append(Long.toString(s.count())).append('\n');
+        }
+    }
+
+    /**
+     * Writes the Prometheus text to a file, replacing it atomically so scrapers never see half a dump.
+     */
+    public void dump(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            writePrometheus(out);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void dumpEvery(Path file, long seconds) {
+        ScheduledExecutorService dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-dump");
+            t.setDaemon(true);
+            return t;
+        });
+        Runnable task = () -> {
+            try {
+                dump(file);
+            } catch (IOException | UncheckedIOException e) {
+                System.err.println("Error writing metrics: " + e.getMessage());
+            }
+        };
+        dumper.scheduleWithFixedDelay(task, seconds, seconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(task, "metrics-final-dump"));
+    }
+
+    private static Key key(String name, String... labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name/value pairs: " + Arrays.toString(labels));
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"").append(escape(labels[i + 1])).append('"');
+        }
+        return new Key(name, sb.toString());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return String.format(Locale.US, "%.9f", nanos / 1e9);
+    }
+}
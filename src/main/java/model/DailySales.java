@@ -0,0 +1,22 @@
+package model;
+
+import java.time.LocalDate;
+
+/**
+ * Sales of one product on one UTC day, counted over paid (and later) orders.
+ *
+ * @param day UTC date the orders were created
+ * @param productId The product sold
+ * @param units Units sold
+ * @param revenue Line totals after each order's discount is spread over its lines
+ * @param discount Share of order discounts attributed to this product
+ * @param orders Number of orders containing the product
+ */
+public record DailySales(LocalDate day, String productId, long units, double revenue, double discount, long orders) {
+
+    /** Adds another set of totals for the same day and product. */
+    public DailySales plus(DailySales other) {
+        return new DailySales(day, productId, units + other.units, revenue + other.revenue,
+                discount + other.discount, orders + other.orders);
+    }
+}
@@ -0,0 +1,24 @@
+package model;
+
+/**
+ * Something that happened to inventory or orders, published on the
+ * {@link patterns.observer.EventPublisher} after it has been persisted.
+ * Order and item payloads are snapshots; changing them does not affect the store.
+ */
+public sealed interface DomainEvent {
+
+    /** A product's stock moved: a sale, restock, edit, or a cart hold placed or released. */
+    record StockChanged(String productName, int onHand, int available) implements DomainEvent {}
+
+    /** A new product was added to the inventory. */
+    record ItemAdded(InventoryItem item) implements DomainEvent {}
+
+    /** A product was removed from the inventory. */
+    record ItemDeleted(String productName) implements DomainEvent {}
+
+    /** An order was created (status PLACED). */
+    record OrderPlaced(Order order) implements DomainEvent {}
+
+    /** An order moved from one status to another. */
+    record OrderStatusAdvanced(Order order, OrderStatus previous) implements DomainEvent {}
+}
@@ -0,0 +1,15 @@
+package model;
+
+import java.time.Instant;
+
+/**
+ * A time-bounded hold on stock, taken when an item is added to a cart.
+ * Held units are not available to sell to anyone else until the hold is
+ * released, consumed by checkout, or expires.
+ *
+ * @param id Handle used to release or check out the hold
+ * @param productName The product being held
+ * @param qty Units held
+ * @param expiresAt When the hold lapses and the units become available again
+ */
+public record Reservation(String id, String productName, int qty, Instant expiresAt) {}
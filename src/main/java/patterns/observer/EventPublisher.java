@@ -0,0 +1,164 @@
+package patterns.observer;
+
+import model.DomainEvent;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide stream of {@link DomainEvent}s (Singleton), following the
+ * java.util.concurrent.Flow protocol.
+ *
+ * Publishing never blocks: every subscriber has its own bounded buffer, drained on a
+ * dispatch thread as the subscriber requests more. When a slow subscriber's buffer is
+ * full, its {@link Overflow} policy decides which event is lost; other subscribers are
+ * unaffected.
+ */
+public final class EventPublisher implements Flow.Publisher<DomainEvent> {
+    /** What a subscriber loses when it falls a full buffer behind. */
+    public enum Overflow {
+        /** Discard the incoming event; the subscriber sees the oldest events. */
+        DROP,
+        /** Discard the oldest buffered event; the subscriber always sees the latest state. */
+        LATEST
+    }
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final EventPublisher INSTANCE = new EventPublisher();
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Executor dispatch = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "event-dispatch");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private EventPublisher() {}
+
+    public static EventPublisher getInstance() { return INSTANCE; }
+
+    /** Subscribes with a {@link #DEFAULT_CAPACITY} buffer that keeps the latest events. */
+    @Override
+    public void subscribe(Flow.Subscriber<? super DomainEvent> subscriber) {
+        subscribe(subscriber, DEFAULT_CAPACITY, Overflow.LATEST);
+    }
+
+    /**
+     * Subscribes with an explicit buffer size and overflow policy.
+     *
+     * @param subscriber Receives events as it requests them
+     * @param capacity Events buffered for this subscriber before the policy applies
+     * @param overflow Which event to discard when the buffer is full
+     */
+    public void subscribe(Flow.Subscriber<? super DomainEvent> subscriber, int capacity, Overflow overflow) {
+        if (capacity <= 0) throw new IllegalArgumentException("Capacity must be positive");
+        Subscription s = new Subscription(subscriber, capacity, overflow);
+        subscriptions.add(s);
+        subscriber.onSubscribe(s);
+    }
+
+    /**
+     * Hands an event to every subscriber's buffer and returns at once.
+     *
+     * @param event The event to publish
+     */
+    public void publish(DomainEvent event) {
+        for (Subscription s : subscriptions) s.offer(event);
+    }
+
+    /** Number of live subscriptions. */
+    public int subscriberCount() {
+        return subscriptions.size();
+    }
+
+    private final class Subscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super DomainEvent> subscriber;
+        private final int capacity;
+        private final Overflow overflow;
+        private final ArrayDeque<DomainEvent> buffer = new ArrayDeque<>();
+        private final AtomicInteger wip = new AtomicInteger();   // serialises drain runs
+        private long demand;
+        private boolean cancelled;
+        private Throwable error;
+
+        Subscription(Flow.Subscriber<? super DomainEvent> subscriber, int capacity, Overflow overflow) {
+            this.subscriber = subscriber;
+            this.capacity = capacity;
+            this.overflow = overflow;
+        }
+
+        void offer(DomainEvent event) {
+            synchronized (this) {
+                if (cancelled) return;
+                if (buffer.size() >= capacity) {
+                    if (overflow == Overflow.DROP) return;
+                    buffer.pollFirst();
+                }
+                buffer.addLast(event);
+            }
+            schedule();
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled) return;
+                if (n <= 0) {
+                    error = new IllegalArgumentException("Non-positive request: " + n); // Flow rule 3.9
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            schedule();
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                buffer.clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        private void schedule() {
+            if (wip.getAndIncrement() == 0) dispatch.execute(this::drain);
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                while (true) {
+                    DomainEvent next;
+                    Throwable failure;
+                    synchronized (this) {
+                        if (cancelled) return;
+                        failure = error;
+                        next = failure == null && demand > 0 ? buffer.pollFirst() : null;
+                        if (next != null) demand--;
+                    }
+                    if (failure != null) {
+                        cancel();
+                        subscriber.onError(failure);
+                        return;
+                    }
+                    if (next == null) break;
+                    try {
+                        subscriber.onNext(next);
+                    } catch (RuntimeException e) {
+                        cancel(); // a throwing subscriber is considered gone (Flow rule 2.13)
+                        System.err.println("Event subscriber failed: " + e.getMessage());
+                        return;
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
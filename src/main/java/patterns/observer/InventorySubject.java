@@ -1,14 +1,92 @@
 package patterns.observer;
 
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Fans low-stock alerts out to observers.
+ *
+ * Alerts use hysteresis: a product alerts once when it drops to the threshold and stays quiet
+ * until {@link #notifyRestocked} reports it back above, however many sales happen in between.
+ *
+ * The default subject calls observers on the caller's thread. The async subject hands alerts
+ * to its own dispatch thread after a coalescing window: repeated reports for a product within
+ * the window collapse into one alert carrying the latest quantity, and a restock inside the
+ * window cancels the alert altogether. Observers may attach and detach from any thread.
+ */
 public class InventorySubject {
-    private final List<InventoryObserver> observers = new ArrayList<>();
+    private final List<InventoryObserver> observers = new CopyOnWriteArrayList<>();
+    private final Set<String> alerted = ConcurrentHashMap.newKeySet();
+    private final Map<String, Integer> pending = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService dispatcher; // null: deliver synchronously
+    private final long windowMillis;
+
+    /** Subject that notifies observers synchronously on the thread that reports the change. */
+    public InventorySubject() {
+        this.dispatcher = null;
+        this.windowMillis = 0;
+    }
+
+    /**
+     * Subject that notifies observers on its own daemon thread.
+     *
+     * @param coalesceWindow How long to gather reports for a product before alerting
+     */
+    public InventorySubject(Duration coalesceWindow) {
+        this.windowMillis = coalesceWindow.toMillis();
+        this.dispatcher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "low-stock-dispatch");
+            t.setDaemon(true);
+            return t;
+        });
+    }
 
     public void attach(InventoryObserver o) { observers.add(o); }
     public void detach(InventoryObserver o) { observers.remove(o); }
+
+    /**
+     * Reports a product at or below the low-stock threshold.
+     * Observers hear about it only if it was not already alerted since its last restock.
+     */
     public void notifyLowStock(String productId, int qty) {
-        for (InventoryObserver o : observers) o.onLowStock(productId, qty);
+        if (dispatcher != null && pending.computeIfPresent(productId, (k, v) -> qty) != null) return; // refresh queued alert
+        if (!alerted.add(productId)) return;
+        if (dispatcher == null) {
+            deliver(productId, qty);
+            return;
+        }
+        pending.put(productId, qty);
+        dispatcher.schedule(() -> flush(productId), windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Reports a product back above the threshold, re-arming its alert.
+     * A queued alert that has not been delivered yet is dropped.
+     */
+    public void notifyRestocked(String productId) {
+        if (!alerted.remove(productId)) return;
+        pending.remove(productId);
+    }
+
+    private void flush(String productId) {
+        Integer qty = pending.remove(productId);
+        if (qty != null) deliver(productId, qty);
+    }
+
+    private void deliver(String productId, int qty) {
+        for (InventoryObserver o : observers) {
+            try {
+                o.onLowStock(productId, qty);
+            } catch (RuntimeException e) {
+                System.err.println("Low stock observer failed: " + e.getMessage());
+            }
+        }
     }
 }
@@ -7,7 +7,8 @@ public final class DataSource {
     private static final DataSource INSTANCE = new DataSource();
     private final Path dataDir;
 
-    private DataSource() { this.dataDir = Paths.get("src/main/java/data"); }
+    // -Dcandystore.data.dir points the app (or a stress run) at another data directory
+    private DataSource() { this.dataDir = Paths.get(System.getProperty("candystore.data.dir", "src/main/java/data")); }
 
     public static DataSource getInstance() { return INSTANCE; }
 
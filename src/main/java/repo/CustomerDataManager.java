@@ -1,49 +1,41 @@
 package repo;
 
+import metrics.LatencyHistogram;
 import model.Customer;
-import util.CsvUtil;
 
-import java.io.IOException;
 import java.util.*;
 
 public class CustomerDataManager {
-    private final String file = "users.csv"; // user_id, username, password_hash, role, email, favorite_color
+    private static final LatencyHistogram BY_ID = RepoMetrics.query("customers", "findById");
+    private static final LatencyHistogram BY_USERNAME = RepoMetrics.query("customers", "findByUsername");
+    private static final LatencyHistogram BY_IDS = RepoMetrics.query("customers", "findByIds");
+    private static final LatencyHistogram ALL = RepoMetrics.query("customers", "getAllCustomers");
+
+    private final CustomerTable table = CustomerTable.getInstance();
 
     public Optional<Customer> findById(String id) {
-        try {
-            for (String[] row : CsvUtil.read(file)) {
-                if (row.length >= 5 && row[0].equals(id)) {
-                    return Optional.of(new Customer(row[0], row[1], row[4]));
-                }
-            }
-        } catch (IOException ignored) {}
-        return Optional.empty();
+        return BY_ID.time(() -> table.byId(id));
     }
 
     public Optional<Customer> findByUsername(String username) {
-        try {
-            for (String[] row : CsvUtil.read(file)) {
-                if (row.length >= 2 && row[1].equalsIgnoreCase(username)) {
-                    String email = (row.length >= 5) ? row[4] : "";
-                    return Optional.of(new Customer(row[0], row[1], email));
-                }
-            }
-        } catch (IOException ignored) {}
-        return Optional.empty();
+        return BY_USERNAME.time(() -> table.byUsername(username));
+    }
+
+    /**
+     * Bulk lookup for joining customers onto many records at once.
+     * Served from the resident index, so cost is one hash probe per id.
+     *
+     * @param ids Customer ids to resolve; duplicates are fine
+     * @return Customers found, keyed by id; ids with no customer are absent
+     */
+    public Map<String, Customer> findByIds(Collection<String> ids) {
+        return BY_IDS.time(() -> table.byIds(ids));
     }
 
     /**
      * Get all customers
      */
     public List<Customer> getAllCustomers() {
-        List<Customer> customers = new ArrayList<>();
-        try {
-            for (String[] row : CsvUtil.read(file)) {
-                if (row.length >= 5) {
-                    customers.add(new Customer(row[0], row[1], row[4]));
-                }
-            }
-        } catch (IOException ignored) {}
-        return customers;
+        return ALL.time(() -> new ArrayList<>(table.all()));
     }
 }
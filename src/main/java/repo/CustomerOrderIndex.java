@@ -0,0 +1,362 @@
+package repo;
+
+import model.Order;
+import patterns.singleton.DataSource;
+import util.CsvCodec;
+import util.CsvScanner;
+import util.Snapshot;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary index from customer id to that customer's order ids, in the order they were placed.
+ * Each id carries the UTC day the order was created, which names the segment holding it, so a
+ * customer's orders are read without probing every segment.
+ * Kept in memory and persisted as an append-only file (orders_by_customer.idx) of
+ * customerId,orderId,epochDay lines, so saveOrder only appends one line for a new order.
+ * An index file written before days were recorded is rebuilt once from the orders files.
+ *
+ * The whole index is also written periodically and at exit as a {@link Snapshot}
+ * (orders_by_customer.idx.snap): customer ids first in its dictionary, so a customer's code
+ * is its row, then first int[customers + 1], the order id codes of customer c at
+ * [first[c], first[c + 1]) and an int[] of their days at the same positions. The stamp is the
+ * length of the index file the snapshot covers and a checksum of the bytes just before that
+ * length. On startup the snapshot is read in place
+ * and only the lines appended after it are parsed; orders added since then are kept in a map
+ * on top of it.
+ */
+final class CustomerOrderIndex {
+    static final String FILE = "orders_by_customer.idx";
+    static final String SNAPSHOT = FILE + ".snap";
+    private static final String KIND = "customer-orders";
+    private static final int VERSION = 2;
+    private static final int UNKNOWN_DAY = Integer.MIN_VALUE;   // a torn line's day
+
+    private final Map<String, History> byCustomer = new ConcurrentHashMap<>();        // orders not in the snapshot
+    private BufferedWriter out;
+    private Snapshot snapshot;          // null if none was current at startup
+    private IntBuffer first;
+    private IntBuffer orders;
+    private IntBuffer days;
+    private int customers;
+    private long snapshotLength = -1;   // length of the index file the snapshot on disk covers
+
+    private CustomerOrderIndex() {}
+
+    /** An indexed order: its id and the segment key of the day it was created, or null if not recorded. */
+    record Placed(String orderId, String dayKey) {}
+
+    /**
+     * Loads the persisted index, or rebuilds it from the orders files when it is missing or
+     * an orders file was replaced outside the application.
+     *
+     * @param rebuild True to ignore any persisted index
+     * @param orderFiles Orders files of every segment, used for a rebuild
+     * @param pending Journaled orders, which may be newer than the persisted index
+     * @return The index, open for appends
+     */
+    static CustomerOrderIndex open(boolean rebuild, List<String> orderFiles,
+                                   Collection<Order> pending) throws IOException {
+        CustomerOrderIndex index = new CustomerOrderIndex();
+        Path file = resolve(FILE);
+        if (rebuild || !Files.exists(file) || !index.load(file)) {
+            index = new CustomerOrderIndex();
+            for (String orders : orderFiles) {
+                List<List<Row>> ranges = CsvScanner.scanParallel(orders, s -> {
+                    List<Row> rows = new ArrayList<>();
+                    while (s.next()) {
+                        if (s.fieldCount() >= 3) rows.add(new Row(s.string(1), s.string(0), epochDay(s.parseInstant(2))));
+                    }
+                    return rows;
+                });
+                for (List<Row> range : ranges) {
+                    for (Row r : range) index.append(r.customerId(), r.orderId(), r.day()); // in file order, so histories stay oldest first
+                }
+            }
+            index.rewrite();
+        }
+        index.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        for (Order o : pending) index.add(o); // lines lost in a crash
+        Snapshot.keepFresh("customer order index", index::saveSnapshot);
+        return index;
+    }
+
+    /**
+     * Records an order for its customer if it is not indexed yet.
+     *
+     * @param order The order
+     */
+    void add(Order order) throws IOException {
+        int day = epochDay(order.getCreatedAt());
+        if (!put(order.getCustomerId(), order.getId(), day)) return;
+        synchronized (this) {
+            out.write(CsvCodec.formatRow(order.getCustomerId(), order.getId(), String.valueOf(day)));
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    /**
+     * Records several orders with a single flush.
+     *
+     * @param orders Orders to index; ones already indexed are skipped
+     */
+    void addAll(Collection<Order> orders) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (Order o : orders) {
+            int day = epochDay(o.getCreatedAt());
+            if (put(o.getCustomerId(), o.getId(), day)) {
+                CsvCodec.appendRow(sb, o.getCustomerId(), o.getId(), String.valueOf(day)).append('\n');
+            }
+        }
+        if (sb.length() == 0) return;
+        synchronized (this) {
+            out.write(sb.toString());
+            out.flush();
+        }
+    }
+
+    /**
+     * Order ids for a customer, oldest first.
+     *
+     * @param customerId The customer id
+     * @return Snapshot of the customer's orders, empty if none
+     */
+    List<Placed> ordersFor(String customerId) {
+        List<Placed> out = new ArrayList<>();
+        int c = customerCode(customerId);
+        for (int i = c < 0 ? 0 : first.get(c), end = c < 0 ? 0 : first.get(c + 1); i < end; i++) {
+            out.add(new Placed(snapshot.string(orders.get(i)), dayKey(days.get(i))));
+        }
+        History h = byCustomer.get(customerId);
+        if (h != null) {
+            synchronized (h) {
+                for (int i = 0; i < h.ids.size(); i++) out.add(new Placed(h.ids.get(i), dayKey(h.days[i])));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Writes the snapshot if orders were indexed since the last one. The file length is read
+     * while no line is being written, and every line within it was put in memory before it was
+     * written, so the snapshot holds at least the lines it claims to cover; any it holds beyond
+     * them are skipped as duplicates when the tail is read back.
+     */
+    void saveSnapshot() throws IOException {
+        Path file = resolve(FILE);
+        long length;
+        synchronized (this) {
+            length = Files.size(file);
+        }
+        if (length == snapshotLength) return;
+        Snapshot.Writer w = new Snapshot.Writer(KIND, VERSION, length, Snapshot.guardStamp(file, length));
+
+        // customers already in the snapshot keep their codes; new ones follow
+        for (int c = 0; c < customers; c++) w.intern(snapshot, c);
+        Map<Integer, History> added = new HashMap<>();
+        for (Map.Entry<String, History> e : byCustomer.entrySet()) {
+            History h = e.getValue();
+            synchronized (h) {
+                if (!h.ids.isEmpty()) added.put(w.intern(e.getKey()), h.copy());
+            }
+        }
+        int total = w.stringCount();
+        int[] first = new int[total + 1];
+        int[] codes = new int[Math.max(16, orders == null ? 16 : orders.limit() + added.size())];
+        int[] days = new int[codes.length];
+        int n = 0;
+        for (int c = 0; c < total; c++) {
+            first[c] = n;
+            for (int i = c < customers ? this.first.get(c) : 0, end = c < customers ? this.first.get(c + 1) : 0; i < end; i++) {
+                if (n == codes.length) {
+                    codes = Arrays.copyOf(codes, n * 2);
+                    days = Arrays.copyOf(days, n * 2);
+                }
+                days[n] = this.days.get(i);
+                codes[n++] = w.intern(snapshot, orders.get(i));
+            }
+            History h = added.get(c);
+            for (int i = 0; h != null && i < h.ids.size(); i++) {
+                if (n == codes.length) {
+                    codes = Arrays.copyOf(codes, n * 2);
+                    days = Arrays.copyOf(days, n * 2);
+                }
+                days[n] = h.days[i];
+                codes[n++] = w.intern(h.ids.get(i));
+            }
+        }
+        first[total] = n;
+        w.ints(first).codes(Arrays.copyOf(codes, n)).ints(Arrays.copyOf(days, n)).write(resolve(SNAPSHOT));
+        snapshotLength = length;
+    }
+
+    synchronized void close() throws IOException {
+        out.close();
+    }
+
+    private boolean put(String customerId, String orderId, int day) {
+        History h = byCustomer.computeIfAbsent(customerId, k -> new History());
+        synchronized (h) {
+            return !inSnapshot(customerId, orderId) && h.put(orderId, day);
+        }
+    }
+
+    /**
+     * True if the snapshot lists the order. Customer ids take the first codes and order ids
+     * follow, so the code of an order id is enough; only an id that is also a customer id
+     * needs the customer's row searched.
+     */
+    private boolean inSnapshot(String customerId, String orderId) {
+        if (snapshot == null) return false;
+        int code = snapshot.find(orderId);
+        if (code < 0) return false;
+        if (code >= customers) return true;
+        int c = customerCode(customerId);
+        for (int i = c < 0 ? 0 : first.get(c), end = c < 0 ? 0 : first.get(c + 1); i < end; i++) {
+            if (orders.get(i) == code) return true;
+        }
+        return false;
+    }
+
+    /** The customer's row in the snapshot, or -1. */
+    private int customerCode(String customerId) {
+        if (snapshot == null) return -1;
+        int c = snapshot.find(customerId);
+        return c < customers ? c : -1;
+    }
+
+    /**
+     * Reads the persisted index: the snapshot, if current, and the lines appended after it.
+     *
+     * @return False if a line has no day, i.e. the file predates days; it is then rebuilt once
+     */
+    private boolean load(Path file) throws IOException {
+        long from = loadSnapshot(file);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+             CsvCodec.RecordReader in = new CsvCodec.RecordReader(Channels.newReader(ch.position(from), StandardCharsets.UTF_8))) {
+            String[] r;
+            while ((r = in.next()) != null) {
+                if (r.length < 2) continue;
+                if (r.length < 3) return false;
+                if (from == 0) append(r[0], r[1], parseDay(r[2]));
+                else put(r[0], r[1], parseDay(r[2]));     // few lines, and some may already be in the snapshot
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Maps the snapshot if it still describes the start of the index file.
+     *
+     * @return Length of the file it covers, from where the remaining lines are read; 0 without one
+     */
+    private long loadSnapshot(Path file) throws IOException {
+        Snapshot s = Snapshot.open(resolve(SNAPSHOT), KIND, VERSION);
+        if (s == null) return 0;
+        long length = s.stamp(0);
+        if (Files.size(file) < length || Snapshot.guardStamp(file, length) != s.stamp(1)) return 0;
+        snapshot = s;
+        first = s.ints(0);
+        orders = s.codes(1);
+        days = s.ints(2);
+        customers = first.limit() - 1;
+        snapshotLength = length;
+        return length;
+    }
+
+    /**
+     * Adds an order id known not to be indexed yet. Loading uses this rather than put, so that
+     * no customer's id set is built for the load: neither the index file nor the orders files
+     * ever list an order twice.
+     */
+    private void append(String customerId, String orderId, int day) {
+        byCustomer.computeIfAbsent(customerId, k -> new History()).append(orderId, day);
+    }
+
+    private void rewrite() throws IOException {
+        Path file = resolve(FILE);
+        Path tmp = resolve(FILE + ".tmp");
+        Files.createDirectories(file.getParent());
+        Files.deleteIfExists(resolve(SNAPSHOT));    // describes the old file
+        try (BufferedWriter w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, History> e : byCustomer.entrySet()) {
+                History h = e.getValue();
+                for (int i = 0; i < h.ids.size(); i++) {
+                    w.write(CsvCodec.formatRow(e.getKey(), h.ids.get(i), String.valueOf(h.days[i])));
+                    w.write('\n');
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static int epochDay(Instant createdAt) {
+        return (int) Math.floorDiv(createdAt.getEpochSecond(), 86_400L);
+    }
+
+    private static int parseDay(String field) {
+        try {
+            return Integer.parseInt(field);
+        } catch (NumberFormatException e) {
+            return UNKNOWN_DAY;
+        }
+    }
+
+    private static String dayKey(int epochDay) {
+        return epochDay == UNKNOWN_DAY ? null : LocalDate.ofEpochDay(epochDay).toString();
+    }
+
+    private static Path resolve(String filename) {
+        return DataSource.getInstance().resolve(filename);
+    }
+
+    /** A customer id, order id and day read from an orders file. */
+    private record Row(String customerId, String orderId, int day) {}
+
+    /**
+     * One customer's order ids, oldest first, and the day of each. The set of the same ids is
+     * built on the first duplicate check, so checking an order costs the same however long the
+     * history is, and customers who do not order while the application runs never pay for one.
+     */
+    private static final class History {
+        final List<String> ids = new ArrayList<>();
+        int[] days = new int[2];
+        private Set<String> seen;
+
+        /** Adds the id unless it is already listed. */
+        boolean put(String orderId, int day) {
+            if (seen == null) seen = new HashSet<>(ids);
+            if (!seen.add(orderId)) return false;
+            append(orderId, day);
+            return true;
+        }
+
+        void append(String orderId, int day) {
+            if (ids.size() == days.length) days = Arrays.copyOf(days, days.length * 2);
+            days[ids.size()] = day;
+            ids.add(orderId);
+        }
+
+        History copy() {
+            History h = new History();
+            h.ids.addAll(ids);
+            h.days = Arrays.copyOf(days, Math.max(1, ids.size()));
+            return h;
+        }
+    }
+}
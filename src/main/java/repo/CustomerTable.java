@@ -0,0 +1,105 @@
+package repo;
+
+import model.Customer;
+import patterns.singleton.DataSource;
+import util.CsvUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+/**
+ * Resident index of users.csv by id and by username, built in one pass.
+ * users.csv is written by UserManager rather than through this class, so every lookup first
+ * checks the file's size and modification time and rebuilds the index if either changed.
+ * Customers are immutable and shared; the first row for an id or username wins, as a
+ * front-to-back scan would find it.
+ *
+ * Shared by every CustomerDataManager in the process (Singleton).
+ */
+final class CustomerTable {
+    static final String FILE = "users.csv"; // user_id, username, password_hash, role, email, favorite_color
+
+    private static CustomerTable instance;
+
+    private Map<String, Customer> byId = Map.of();
+    private Map<String, Customer> byUsername = Map.of();   // lower-cased username
+    private List<Customer> all = List.of();
+    private long loadedSize = -1;
+    private long loadedModified = -1;
+
+    private CustomerTable() {}
+
+    static synchronized CustomerTable getInstance() {
+        if (instance == null) instance = new CustomerTable();
+        return instance;
+    }
+
+    synchronized Optional<Customer> byId(String id) {
+        refreshIfChanged();
+        return Optional.ofNullable(byId.get(id));
+    }
+
+    synchronized Optional<Customer> byUsername(String username) {
+        refreshIfChanged();
+        return Optional.ofNullable(byUsername.get(username.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * Looks up many ids against one consistent snapshot of the file.
+     *
+     * @return Customers found, keyed by id; ids with no customer are absent
+     */
+    synchronized Map<String, Customer> byIds(Collection<String> ids) {
+        refreshIfChanged();
+        Map<String, Customer> found = new HashMap<>();
+        for (String id : ids) {
+            Customer c = byId.get(id);
+            if (c != null) found.put(id, c);
+        }
+        return found;
+    }
+
+    synchronized List<Customer> all() {
+        refreshIfChanged();
+        return all;
+    }
+
+    private void refreshIfChanged() {
+        Path file = DataSource.getInstance().resolve(FILE);
+        long size, modified;
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            size = attrs.size();
+            modified = attrs.lastModifiedTime().toMillis();
+        } catch (IOException e) {
+            size = modified = -2; // missing file: index is empty
+        }
+        if (size == loadedSize && modified == loadedModified) return;
+
+        Map<String, Customer> ids = new HashMap<>();
+        Map<String, Customer> names = new HashMap<>();
+        List<Customer> rows = new ArrayList<>();
+        try {
+            CsvUtil.forEach(FILE, row -> {
+                if (row.length < 2) return true;
+                Customer c = new Customer(row[0], row[1], row.length >= 5 ? row[4] : "");
+                names.putIfAbsent(row[1].toLowerCase(Locale.ROOT), c);
+                if (row.length >= 5) {
+                    ids.putIfAbsent(row[0], c);
+                    rows.add(c);
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            System.err.println("Error reading users: " + e.getMessage());
+        }
+        byId = ids;
+        byUsername = names;
+        all = Collections.unmodifiableList(rows);
+        loadedSize = size;
+        loadedModified = modified;
+    }
+}
@@ -1,50 +1,41 @@
 package repo;
 
+import metrics.LatencyHistogram;
 import model.InventoryItem;
-import util.CsvUtil;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
-import java.util.Locale;
 import java.util.Optional;
 
 /**
  * Data manager for inventory operations.
  * Handles reading/writing to inventory.csv file.
+ * Reads are served from a shared in-memory table (InventoryTable) that is
+ * loaded once and written through to the file on every change.
  *
  * @author Travis Dagostino
  * @version 1.0
  * @since 2025-11-22
  */
 public class InventoryDataManager {
-    private static final String INVENTORY_FILE = "inventory.csv";
+    private static final LatencyHistogram ALL = RepoMetrics.query("inventory", "getAllItems");
+    private static final LatencyHistogram GET = RepoMetrics.query("inventory", "getItem");
+    private static final LatencyHistogram BY_TYPE = RepoMetrics.query("inventory", "getItemsByType");
+    private static final LatencyHistogram LOW_STOCK = RepoMetrics.query("inventory", "getLowStockItems");
+    private static final LatencyHistogram SAVE = RepoMetrics.write("inventory", "saveItem");
+    private static final LatencyHistogram SAVE_ALL = RepoMetrics.write("inventory", "saveItems");
+    private static final LatencyHistogram DELETE = RepoMetrics.write("inventory", "deleteItem");
+
+    private final InventoryTable table = InventoryTable.getInstance();
 
     /**
-     * Retrieves all inventory items from the CSV file.
-     * Skips the header row and parses each data row into an InventoryItem object.
+     * Retrieves all inventory items, in file order.
      *
      * @return List of all InventoryItem objects in the inventory
      */
     public List<InventoryItem> getAllItems() {
-        List<InventoryItem> items = new ArrayList<>();
-        try {
-            List<String[]> rows = CsvUtil.read(INVENTORY_FILE);
-            // Skip header row
-            for (int i = 1; i < rows.size(); i++) {
-                String[] r = rows.get(i);
-                if (r.length >= 4 && !r[0].trim().isEmpty()) {
-                    String name = r[0].trim();
-                    String type = r[1].trim();
-                    double price = Double.parseDouble(r[2].trim());
-                    int quantity = Integer.parseInt(r[3].trim());
-                    items.add(new InventoryItem(name, type, price, quantity));
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading inventory: " + e.getMessage());
-        }
-        return items;
+        return ALL.time(table::all);
     }
 
     /**
@@ -55,9 +46,7 @@ public class InventoryDataManager {
      * @return Optional containing the InventoryItem if found, empty otherwise
      */
     public Optional<InventoryItem> getItem(String name) {
-        return getAllItems().stream()
-                .filter(item -> item.getName().equalsIgnoreCase(name))
-                .findFirst();
+        return GET.time(() -> table.get(name));
     }
 
     /**
@@ -68,46 +57,27 @@ public class InventoryDataManager {
      * @param item The InventoryItem to save or update
      */
     public void saveItem(InventoryItem item) throws IOException {
-        List<String[]> rows = CsvUtil.read(INVENTORY_FILE);
-
-        // Keep header if it exists, otherwise create one
-        List<String[]> updatedRows = new ArrayList<>();
-        if (rows.isEmpty() || !rows.get(0)[0].equals("name")) {
-            updatedRows.add(new String[]{"name", "type", "price", "quantity"});
-        } else {
-            updatedRows.add(rows.get(0)); // Keep header
-        }
-
-        // Update existing or add new
-        boolean found = false;
-        for (int i = 1; i < rows.size(); i++) {
-            String[] r = rows.get(i);
-            if (r.length >= 4 && r[0].trim().equalsIgnoreCase(item.getName())) {
-                // Update existing item
-                updatedRows.add(new String[]{
-                        item.getName(),
-                        item.getType(),
-                        String.format(Locale.US, "%.2f", item.getPrice()),
-                        String.valueOf(item.getQuantity())
-                });
-                found = true;
-            } else if (r.length >= 4 && !r[0].trim().isEmpty()) {
-                // Keep other items as-is
-                updatedRows.add(r);
-            }
+        long start = System.nanoTime();
+        try {
+            table.put(item);
+        } finally {
+            SAVE.recordSince(start);
         }
+    }
 
-        // If not found, add as new item
-        if (!found) {
-            updatedRows.add(new String[]{
-                    item.getName(),
-                    item.getType(),
-                    String.format(Locale.US, "%.2f", item.getPrice()),
-                    String.valueOf(item.getQuantity())
-            });
+    /**
+     * Saves several inventory items with a single write of the CSV file.
+     * Either all of them are saved or, if the write fails, none are.
+     *
+     * @param items The InventoryItems to save or update
+     */
+    public void saveItems(Collection<InventoryItem> items) throws IOException {
+        long start = System.nanoTime();
+        try {
+            table.putAll(items);
+        } finally {
+            SAVE_ALL.recordSince(start);
         }
-
-        CsvUtil.write(INVENTORY_FILE, updatedRows);
     }
 
     /**
@@ -116,23 +86,12 @@ public class InventoryDataManager {
      * @param name The name of the item to delete (case-insensitive)
      */
     public void deleteItem(String name) throws IOException {
-        List<String[]> rows = CsvUtil.read(INVENTORY_FILE);
-        List<String[]> updatedRows = new ArrayList<>();
-
-        // Keep header
-        if (!rows.isEmpty()) {
-            updatedRows.add(rows.get(0));
-        }
-
-        // Keep all items except the one to delete
-        for (int i = 1; i < rows.size(); i++) {
-            String[] r = rows.get(i);
-            if (r.length >= 4 && !r[0].trim().equalsIgnoreCase(name)) {
-                updatedRows.add(r);
-            }
+        long start = System.nanoTime();
+        try {
+            table.remove(name);
+        } finally {
+            DELETE.recordSince(start);
         }
-
-        CsvUtil.write(INVENTORY_FILE, updatedRows);
     }
 
     /**
@@ -142,13 +101,7 @@ public class InventoryDataManager {
      * @return List of InventoryItem objects matching the specified type
      */
     public List<InventoryItem> getItemsByType(String type) {
-        List<InventoryItem> items = new ArrayList<>();
-        for (InventoryItem item : getAllItems()) {
-            if (item.getType().equalsIgnoreCase(type)) {
-                items.add(item);
-            }
-        }
-        return items;
+        return BY_TYPE.time(() -> table.ofType(type));
     }
 
     /**
@@ -158,26 +111,24 @@ public class InventoryDataManager {
      * @return List of InventoryItem objects with quantity at or below threshold
      */
     public List<InventoryItem> getLowStockItems(int threshold) {
-        List<InventoryItem> items = new ArrayList<>();
-        for (InventoryItem item : getAllItems()) {
-            if (item.getQuantity() <= threshold) {
-                items.add(item);
-            }
-        }
-        return items;
+        return LOW_STOCK.time(() -> table.matching(item -> item.getQuantity() <= threshold));
     }
 
     /**
      * Calculates the total value of all inventory items.
-     * Total value is the sum of (price * quantity) for each item.
+     * Total value is the sum of (price * quantity) for each item, kept up to date on every change.
      *
      * @return The total monetary value of the entire inventory
      */
     public double getTotalInventoryValue() {
-        double total = 0.0;
-        for (InventoryItem item : getAllItems()) {
-            total += item.getPrice() * item.getQuantity();
-        }
-        return total;
+        return table.totalValue();
+    }
+
+    /**
+     * Discards the in-memory table and reloads it from inventory.csv.
+     * Only needed after the file was edited outside the application.
+     */
+    public void reload() {
+        table.reload();
     }
 }
@@ -0,0 +1,315 @@
+package repo;
+
+import model.InventoryItem;
+import patterns.singleton.DataSource;
+import util.CsvScanner;
+import util.CsvUtil;
+import util.Snapshot;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Predicate;
+
+/**
+ * Authoritative in-memory copy of inventory.csv, loaded once and written through on every change.
+ * Items are indexed by lower-cased name and type, so lookups never touch the file system.
+ * Callers always receive copies; the table's own items are never handed out.
+ *
+ * The table is also written periodically and at exit as a {@link Snapshot}
+ * (inventory.csv.snap: header, name, type, price and quantity columns), stamped with the
+ * size and checksum of the inventory.csv it matches. Loading uses the snapshot while that
+ * stamp still holds and parses the CSV otherwise.
+ *
+ * Shared by every InventoryDataManager in the process (Singleton).
+ */
+final class InventoryTable {
+    static final String FILE = "inventory.csv";
+    static final String SNAPSHOT = FILE + ".snap";
+    private static final String KIND = "inventory";
+    private static final int VERSION = 1;
+    private static final String[] DEFAULT_HEADER = {"name", "type", "price", "quantity"};
+
+    private static InventoryTable instance;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Map<String, InventoryItem> byName = new LinkedHashMap<>();   // file order
+    private final Map<String, Set<String>> byType = new HashMap<>();
+    private String[] header = DEFAULT_HEADER;
+    private double totalValue;
+    private long changes;               // bumped whenever the table and the file change together
+    private long snapshotAt = -1;       // value of changes the snapshot on disk matches
+
+    private InventoryTable() {}
+
+    static synchronized InventoryTable getInstance() {
+        if (instance == null) {
+            instance = new InventoryTable();
+            instance.reload();
+            Snapshot.keepFresh("inventory", instance::saveSnapshot);
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the table with the current contents of inventory.csv, read from the snapshot
+     * if it still matches the file.
+     */
+    void reload() {
+        lock.writeLock().lock();
+        try {
+            byName.clear();
+            byType.clear();
+            totalValue = 0;
+            header = DEFAULT_HEADER;
+            changes++;
+            if (loadSnapshot()) {
+                snapshotAt = changes;
+                return;
+            }
+            try (CsvScanner s = CsvScanner.open(FILE)) {
+                if (s.next() && s.fieldEquals(0, "name")) header = s.row();
+                while (s.next()) {
+                    if (s.fieldCount() < 4) continue;
+                    String name = s.string(0).trim();
+                    if (name.isEmpty() || byName.containsKey(key(name))) continue; // first row wins, as lookups always did
+                    index(new InventoryItem(name, s.string(1).trim(), s.parseDouble(2), s.parseInt(3)));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading inventory: " + e.getMessage());
+            snapshotAt = changes;   // never snapshot a partial table
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    Optional<InventoryItem> get(String name) {
+        lock.readLock().lock();
+        try {
+            return Optional.ofNullable(byName.get(key(name))).map(InventoryTable::copyOf);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<InventoryItem> all() {
+        return matching(item -> true);
+    }
+
+    List<InventoryItem> ofType(String type) {
+        lock.readLock().lock();
+        try {
+            List<InventoryItem> items = new ArrayList<>();
+            for (String name : byType.getOrDefault(key(type), Set.of())) items.add(copyOf(byName.get(name)));
+            return items;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    List<InventoryItem> matching(Predicate<InventoryItem> filter) {
+        lock.readLock().lock();
+        try {
+            List<InventoryItem> items = new ArrayList<>();
+            for (InventoryItem item : byName.values()) {
+                if (filter.test(item)) items.add(copyOf(item));
+            }
+            return items;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    double totalValue() {
+        lock.readLock().lock();
+        try {
+            return totalValue;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces an item (matched by name, case-insensitive) and writes the table to disk.
+     * If the write fails the table is left as it was.
+     */
+    void put(InventoryItem item) throws IOException {
+        lock.writeLock().lock();
+        try {
+            InventoryItem copy = copyOf(item);
+            InventoryItem previous = replace(copy);
+            try {
+                persist();
+            } catch (IOException e) {
+                if (previous != null) replace(previous);
+                else unindex(key(copy.getName()));
+                throw e;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds or replaces several items and writes the table to disk once.
+     * Either every item lands or, if the write fails, none of them do.
+     */
+    void putAll(Collection<InventoryItem> items) throws IOException {
+        if (items.isEmpty()) return;
+        lock.writeLock().lock();
+        try {
+            List<InventoryItem> added = new ArrayList<>();
+            Deque<InventoryItem> replaced = new ArrayDeque<>();
+            for (InventoryItem item : items) {
+                InventoryItem copy = copyOf(item);
+                InventoryItem previous = replace(copy);
+                if (previous != null) replaced.push(previous);
+                else added.add(copy);
+            }
+            try {
+                persist();
+            } catch (IOException e) {
+                while (!replaced.isEmpty()) replace(replaced.pop()); // newest first restores the original
+                for (InventoryItem item : added) unindex(key(item.getName()));
+                throw e;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes an item by name (case-insensitive) and writes the table to disk.
+     * If the write fails the table is left as it was.
+     */
+    void remove(String name) throws IOException {
+        lock.writeLock().lock();
+        try {
+            InventoryItem previous = unindex(key(name));
+            if (previous == null) return;
+            try {
+                persist();
+            } catch (IOException e) {
+                index(previous);
+                throw e;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the snapshot if the table changed since the last one. The read lock keeps the
+     * table and inventory.csv in step while both are read.
+     */
+    void saveSnapshot() throws IOException {
+        lock.readLock().lock();
+        try {
+            if (snapshotAt == changes) return;
+            int n = byName.size(), i = 0;
+            String[] names = new String[n], types = new String[n];
+            double[] prices = new double[n];
+            int[] quantities = new int[n];
+            for (InventoryItem item : byName.values()) {  // as a reload of inventory.csv would see them
+                names[i] = item.getName().trim();
+                types[i] = String.valueOf(item.getType()).trim();
+                prices[i] = Double.parseDouble(String.format(Locale.US, "%.2f", item.getPrice()));
+                quantities[i++] = item.getQuantity();
+            }
+            new Snapshot.Writer(KIND, VERSION, Snapshot.contentStamp(resolve(FILE)))
+                    .strings(header).strings(names).strings(types).doubles(prices).ints(quantities)
+                    .write(resolve(SNAPSHOT));
+            snapshotAt = changes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /** Fills the empty table from the snapshot. Caller holds the write lock. */
+    private boolean loadSnapshot() {
+        Snapshot snap;
+        try {
+            snap = Snapshot.open(resolve(SNAPSHOT), KIND, VERSION);
+            if (snap == null || !Arrays.equals(snap.stamp(), Snapshot.contentStamp(resolve(FILE)))) return false;
+        } catch (IOException e) {
+            return false;
+        }
+        String[] strings = snap.strings();
+        IntBuffer head = snap.codes(0), names = snap.codes(1), types = snap.codes(2), quantities = snap.ints(4);
+        DoubleBuffer prices = snap.doubles(3);
+        header = new String[head.limit()];
+        for (int i = 0; i < header.length; i++) header[i] = strings[head.get(i)];
+        byName = new LinkedHashMap<>(names.limit() * 4 / 3 + 1);
+        for (int i = 0; i < names.limit(); i++) {
+            index(new InventoryItem(strings[names.get(i)], strings[types.get(i)], prices.get(i), quantities.get(i)));
+        }
+        return true;
+    }
+
+    /** Rewrites inventory.csv from memory. Caller holds the write lock. */
+    private void persist() throws IOException {
+        List<String[]> rows = new ArrayList<>(byName.size() + 1);
+        rows.add(header);
+        for (InventoryItem item : byName.values()) {
+            rows.add(new String[]{
+                    item.getName(),
+                    item.getType(),
+                    String.format(Locale.US, "%.2f", item.getPrice()),
+                    String.valueOf(item.getQuantity())
+            });
+        }
+        CsvUtil.write(FILE, rows);
+        changes++;
+    }
+
+    /** Indexes item in place of any item with the same name, keeping its position. */
+    private InventoryItem replace(InventoryItem item) {
+        String name = key(item.getName());
+        InventoryItem previous = byName.get(name);
+        if (previous != null) {
+            dropType(name, previous);
+            totalValue -= previous.getPrice() * previous.getQuantity();
+        }
+        index(item);
+        return previous;
+    }
+
+    private void index(InventoryItem item) {
+        String name = key(item.getName());
+        byName.put(name, item);
+        byType.computeIfAbsent(key(item.getType()), k -> new LinkedHashSet<>()).add(name);
+        totalValue += item.getPrice() * item.getQuantity();
+    }
+
+    private InventoryItem unindex(String name) {
+        InventoryItem item = byName.remove(name);
+        if (item == null) return null;
+        dropType(name, item);
+        totalValue -= item.getPrice() * item.getQuantity();
+        if (byName.isEmpty()) totalValue = 0; // drop accumulated rounding error
+        return item;
+    }
+
+    private void dropType(String name, InventoryItem item) {
+        Set<String> names = byType.get(key(item.getType()));
+        if (names == null) return;
+        names.remove(name);
+        if (names.isEmpty()) byType.remove(key(item.getType()));
+    }
+
+    private static String key(String s) {
+        return s == null ? "" : s.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static InventoryItem copyOf(InventoryItem item) {
+        return new InventoryItem(item.getName(), item.getType(), item.getPrice(), item.getQuantity());
+    }
+
+    private static Path resolve(String filename) {
+        return DataSource.getInstance().resolve(filename);
+    }
+}
@@ -1,119 +1,373 @@
 package repo;
 
+import metrics.LatencyHistogram;
 import model.*;
-import util.CsvUtil;
+import repo.CustomerOrderIndex.Placed;
+import util.CsvScanner;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class OrderDataManager {
-    private static final String ORDERS = "orders.csv";
-    private static final String ITEMS  = "order_items.csv";
+    static final String ORDERS = "orders.csv";
+    static final String ITEMS  = "order_items.csv";
+    // Up to this many orders, items are fetched by index seeks; beyond it, one pass over the file is cheaper
+    private static final int INDEXED_ITEM_LOOKUPS = 256;
+    // Orders per slice when forEachOrderParallel splits a segment
+    private static final int SLICE_ORDERS = 50_000;
+    private static final OrderStatus[] STATUSES = OrderStatus.values();
 
+    private static final LatencyHistogram SAVE = RepoMetrics.write("orders", "saveOrder");
+    private static final LatencyHistogram SAVE_ALL = RepoMetrics.write("orders", "saveOrders");
+    private static final LatencyHistogram GET = RepoMetrics.query("orders", "getOrder");
+    private static final LatencyHistogram BY_USER = RepoMetrics.query("orders", "getOrdersByUser");
+    private static final LatencyHistogram FOR_EACH = RepoMetrics.query("orders", "forEachOrderParallel");
+    private static final LatencyHistogram ALL = RepoMetrics.query("orders", "getAllOrders");
+    private static final LatencyHistogram BY_STATUS = RepoMetrics.query("orders", "getOrdersByStatus");
+    private static final LatencyHistogram AFTER = RepoMetrics.query("orders", "getOrdersAfter");
+    private static final LatencyHistogram BETWEEN = RepoMetrics.query("orders", "getOrdersBetween");
+    private static final LatencyHistogram TODAY = RepoMetrics.query("orders", "getTodaysOrders");
+
+    private final OrderJournal journal = OrderJournal.getInstance();
+
+    /**
+     * Records the order in the append-only journal.
+     * Cost is independent of how many orders are already stored.
+     */
     public void saveOrder(Order order) throws IOException {
-        List<String[]> orders = CsvUtil.read(ORDERS);
-        orders.removeIf(r -> r.length >= 1 && r[0].equals(order.getId()));
-        orders.add(new String[] {
-                order.getId(), order.getCustomerId(), order.getCreatedAt().toString(),
-                order.getStatus().name(),
-                String.format(Locale.US,"%.2f", order.getSubtotal()),
-                String.format(Locale.US,"%.2f", order.getDiscountTotal()),
-                String.format(Locale.US,"%.2f", order.getGrandTotal())
-        });
-        CsvUtil.write(ORDERS, orders);
+        long start = System.nanoTime();
+        try {
+            journal.append(order);
+            journal.customerIndex().add(order);
+        } finally {
+            SAVE.recordSince(start);
+        }
+    }
 
-        List<String[]> items = CsvUtil.read(ITEMS);
-        items.removeIf(r -> r.length >= 1 && r[0].equals(order.getId()));
-        int line = 1;
-        for (OrderItem it : order.getItems()) {
-            items.add(new String[] {
-                    order.getId(), String.valueOf(line++), it.getProductId(),
-                    String.valueOf(it.getQty()),
-                    String.format(Locale.US,"%.2f", it.getUnitPrice()),
-                    it.getName()
-            });
+    /**
+     * Records several orders with one journal write and one index flush.
+     */
+    public void saveOrders(Collection<Order> orders) throws IOException {
+        long start = System.nanoTime();
+        try {
+            journal.appendAll(orders);
+            journal.customerIndex().addAll(orders);
+        } finally {
+            SAVE_ALL.recordSince(start);
         }
-        CsvUtil.write(ITEMS, items);
     }
 
     public Optional<Order> getOrder(String orderId) {
-        try {
-            for (String[] r : CsvUtil.read(ORDERS)) {
-                if (r.length >= 7 && r[0].equals(orderId)) {
-                    Order o = new Order(r[0], r[1], Instant.parse(r[2]));
-                    o.setStatus(OrderStatus.valueOf(r[3]));
-                    loadItemsInto(o);
-                    return Optional.of(o);
+        return GET.time(() -> {
+            Optional<Order> pending = journal.find(orderId);
+            if (pending.isPresent()) return pending;
+            List<Order> found = getOrdersById(List.of(new Placed(orderId, null)));
+            return found.isEmpty() ? Optional.empty() : Optional.of(found.get(0));
+        });
+    }
+
+    /**
+     * Order history for one customer, oldest first.
+     * Served from the customer index, so the cost depends only on that customer's orders.
+     */
+    public List<Order> getOrdersByUser(String userId) {
+        return BY_USER.time(() -> getOrdersById(journal.customerIndex().ordersFor(userId)));
+    }
+
+    /**
+     * Point reads by order id: journal first, then index seeks into the segment holding each
+     * order, found from the day it was created without probing the other segments.
+     */
+    private List<Order> getOrdersById(List<Placed> placed) {
+        return journal.readBase(() -> {
+            Map<String, Order> byId = new HashMap<>();
+            Map<OrderSegment, List<String>> bySegment = new LinkedHashMap<>();
+            for (Placed p : placed) {
+                Optional<Order> pending = journal.find(p.orderId());
+                if (pending.isPresent()) {
+                    byId.put(p.orderId(), pending.get());
+                    continue;
+                }
+                OrderSegment seg = segmentOf(p);
+                if (seg != null) bySegment.computeIfAbsent(seg, k -> new ArrayList<>()).add(p.orderId());
+            }
+            try {
+                for (Map.Entry<OrderSegment, List<String>> e : bySegment.entrySet()) {
+                    List<Order> needItems = new ArrayList<>();
+                    for (List<String[]> rows : e.getKey().orderIndex.read(e.getValue()).values()) {
+                        for (String[] r : rows) {
+                            if (r.length < 7) continue;
+                            Order o = toOrder(r);
+                            byId.put(o.getId(), o);
+                            needItems.add(o);
+                        }
+                    }
+                    loadItems(e.getKey(), needItems);
                 }
+            } catch (Exception ignored) {}
+
+            List<Order> out = new ArrayList<>();
+            for (Placed p : placed) {
+                Order o = byId.get(p.orderId());
+                if (o != null) out.add(o);
             }
-        } catch (Exception ignored) {}
-        return Optional.empty();
+            return out;
+        });
     }
 
-    public List<Order> getOrdersByUser(String userId) {
+    /**
+     * The segment holding a stored order: the one for its day, or legacy, where orders
+     * compacted before day segments existed stay. Without a day every segment is probed.
+     */
+    private OrderSegment segmentOf(Placed p) {
+        if (p.dayKey() == null) {
+            for (OrderSegment seg : journal.segments()) {
+                if (seg.orderIndex.contains(p.orderId())) return seg;
+            }
+            return null;
+        }
+        OrderSegment day = journal.segment(p.dayKey());
+        if (day != null && day.orderIndex.contains(p.orderId())) return day;
+        OrderSegment legacy = journal.segment(OrderSegment.LEGACY);
+        return legacy != null && legacy.orderIndex.contains(p.orderId()) ? legacy : null;
+    }
+
+    /**
+     * Orders as persisted: the order segments overlaid with the journal, where the journaled
+     * version of an order replaces the stored one. Only segments whose createdAt range
+     * overlaps [from, to] are opened, and inside them rows outside the range are skipped
+     * before anything is built from them; null bounds are open-ended.
+     * Large segment files are parsed on several cores; the result is in file order regardless.
+     */
+    private List<Order> findOrders(Instant from, Instant to, Predicate<Order> matches) {
+        return journal.readBase(() -> {
+            Map<String, Order> pending = journal.pending();
+            List<Order> out = new ArrayList<>();
+            for (OrderSegment seg : journal.segments()) {
+                if (!seg.overlaps(from, to)) continue;
+                try {
+                    List<Order> needItems = new ArrayList<>();
+                    // workers only read pending; it is updated here, in file order, once they are done
+                    for (List<Order> range : CsvScanner.scanParallel(seg.ordersFile, s -> readOrders(s, from, to, pending, matches))) {
+                        for (Order o : range) {
+                            out.add(o);
+                            if (pending.remove(o.getId()) == null) needItems.add(o);
+                        }
+                    }
+                    loadItems(seg, needItems);
+                } catch (IOException ignored) {}
+            }
+            for (Order o : pending.values()) {
+                if (matches.test(o)) out.add(o);
+            }
+            return out;
+        });
+    }
+
+    /**
+     * The orders in one range of an orders file that fall in [from, to] and match, with
+     * journaled orders standing in for their stored rows.
+     */
+    private static List<Order> readOrders(CsvScanner s, Instant from, Instant to, Map<String, Order> pending,
+                                          Predicate<Order> matches) throws IOException {
         List<Order> out = new ArrayList<>();
-        try {
-            for (String[] r : CsvUtil.read(ORDERS)) {
-                if (r.length >= 2 && r[1].equals(userId)) {
-                    Order o = new Order(r[0], r[1], Instant.parse(r[2]));
-                    o.setStatus(OrderStatus.valueOf(r[3]));
-                    loadItemsInto(o);
-                    out.add(o);
-                }
+        while (s.next()) {
+            if (s.fieldCount() < 7) continue;
+            if (from != null || to != null) {
+                // createdAt never changes, so a journaled version is out of range too
+                Instant createdAt = s.parseInstant(2);
+                if ((from != null && createdAt.isBefore(from)) || (to != null && createdAt.isAfter(to))) continue;
             }
-        } catch (Exception ignored) {}
+            String id = s.string(0);
+            Order journaled = pending.get(id);
+            Order o = journaled != null ? journaled : toOrder(s, id);
+            if (matches.test(o)) out.add(o);
+        }
         return out;
     }
 
-    private void loadItemsInto(Order o) throws IOException {
-        for (String[] r : CsvUtil.read(ITEMS)) {
-            if (r.length >= 6 && r[0].equals(o.getId())) {
-                int qty = Integer.parseInt(r[3]);
-                double price = Double.parseDouble(r[4]);
-                String name = r[5];
-                o.addItem(new OrderItem(r[2], name, qty, price));
+    /**
+     * Attaches order lines from a segment's items file to orders read from its orders file.
+     * A few orders are served from the order-id index; larger sets are joined
+     * in a single pass over the items file.
+     */
+    private void loadItems(OrderSegment seg, List<Order> orders) throws IOException {
+        if (orders.isEmpty()) return;
+        if (orders.size() <= INDEXED_ITEM_LOOKUPS) {
+            List<String> ids = new ArrayList<>(orders.size());
+            for (Order o : orders) ids.add(o.getId());
+            Map<String, List<String[]>> rows = seg.itemIndex.read(ids);
+            for (Order o : orders) {
+                for (String[] r : rows.getOrDefault(o.getId(), List.of())) {
+                    if (r.length >= 6) o.addItem(toItem(r));
+                }
             }
+            return;
+        }
+        Map<String, Order> byId = new HashMap<>();
+        for (Order o : orders) byId.put(o.getId(), o);
+        List<List<Line>> ranges = CsvScanner.scanParallel(seg.itemsFile, s -> {
+            List<Line> lines = new ArrayList<>();
+            String id = null;
+            Order o = null;
+            while (s.next()) {
+                if (s.fieldCount() < 6) continue;
+                if (id == null || !s.fieldEquals(0, id)) { // an order's lines are adjacent: one lookup per order
+                    id = s.string(0);
+                    o = byId.get(id);
+                }
+                if (o != null) lines.add(new Line(o, toItem(s)));
+            }
+            return lines;
+        });
+        // attached here rather than by the workers: an order's lines may straddle two ranges
+        for (List<Line> range : ranges) {
+            for (Line line : range) line.order().addItem(line.item());
         }
     }
 
+    /** An order line found by a parallel scan, waiting to be attached to its order. */
+    private record Line(Order order, OrderItem item) {}
+
     /**
-     * Get all orders from CSV
+     * Visits every stored order once. Each order segment is split at row starts taken from
+     * its order-id index, and the slices are read in parallel; an order goes to the sink as
+     * soon as its row and lines are read, so nothing is held per segment.
+     * Journaled orders are visited in their journaled state. The sink is called from
+     * several threads at once and must be thread-safe.
+     *
+     * @throws IOException If a segment cannot be read
      */
-    public List<Order> getAllOrders() {
-        List<Order> orders = new ArrayList<>();
+    public void forEachOrderParallel(Consumer<Order> sink) throws IOException {
+        long start = System.nanoTime();
         try {
-            for (String[] r : CsvUtil.read(ORDERS)) {
-                if (r.length >= 7) {
-                    Order o = new Order(r[0], r[1], Instant.parse(r[2]));
-                    o.setStatus(OrderStatus.valueOf(r[3]));
-                    loadItemsInto(o);
-                    orders.add(o);
+            journal.readBase(() -> {
+                Map<String, Order> pending = journal.pending();
+                List<Slice> slices = new ArrayList<>();
+                for (OrderSegment seg : journal.segments()) {
+                    long from = 0;
+                    for (long cut : seg.orderIndex.rowStarts(seg.orderIndex.size() / SLICE_ORDERS)) {
+                        if (cut <= from) continue;
+                        slices.add(new Slice(seg, from, cut));
+                        from = cut;
+                    }
+                    slices.add(new Slice(seg, from, Long.MAX_VALUE));
                 }
+                slices.parallelStream().forEach(slice -> {
+                    try {
+                        streamSlice(slice, pending, sink);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                pending.values().forEach(sink);
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            FOR_EACH.recordSince(start);
+        }
+    }
+
+    /** The orders file rows of a segment starting in [from, to). */
+    private record Slice(OrderSegment segment, long from, long to) {}
+
+    /**
+     * Hands the stored orders of one slice to the sink, skipping journaled ones. An order's
+     * lines are adjacent and in orders-file order, so they are merge-joined from a single
+     * items cursor, which an index seek moves only where the next lines are not the order's.
+     */
+    private static void streamSlice(Slice slice, Map<String, Order> pending, Consumer<Order> sink) throws IOException {
+        try (CsvScanner s = CsvScanner.open(slice.segment().ordersFile, slice.from(), slice.to());
+             LineCursor lines = new LineCursor(slice.segment())) {
+            while (s.next()) {
+                if (s.fieldCount() < 7) continue;
+                String id = s.string(0);
+                Order o = pending.containsKey(id) ? null : toOrder(s, id);
+                lines.attach(id, o);
+                if (o != null) sink.accept(o);
             }
-        } catch (IOException ignored) {}
-        return orders;
+        }
+    }
+
+    /** Forward cursor over a segment's items file, for the merge join of {@link #streamSlice}. */
+    private static final class LineCursor implements Closeable {
+        private final OrderSegment seg;
+        private CsvScanner items;
+        private boolean onRow;   // items is on a line not consumed yet
+
+        LineCursor(OrderSegment seg) {
+            this.seg = seg;
+        }
+
+        /**
+         * Consumes the lines of one order, adding them to it unless it is null (a journaled
+         * order whose stored lines are only passed over).
+         */
+        void attach(String id, Order order) throws IOException {
+            if (!onRow || !items.fieldEquals(0, id)) {
+                if (order == null) return;
+                long at = seg.itemIndex.offsetOf(id);
+                if (at < 0) return;             // an order without lines
+                close();
+                items = CsvScanner.open(seg.itemsFile, at, Long.MAX_VALUE);
+                advance();
+            }
+            while (onRow && items.fieldEquals(0, id)) {
+                if (order != null) order.addItem(toItem(items));
+                advance();
+            }
+        }
+
+        private void advance() throws IOException {
+            onRow = false;
+            while (!onRow && items.next()) onRow = items.fieldCount() >= 6;
+        }
+
+        @Override
+        public void close() throws IOException {
+            onRow = false;
+            if (items != null) items.close();
+            items = null;
+        }
+    }
+
+    /**
+     * Get all orders from CSV
+     */
+    public List<Order> getAllOrders() {
+        return ALL.time(() -> findOrders(null, null, o -> true));
     }
 
     /**
      * Get orders by status
      */
     public List<Order> getOrdersByStatus(OrderStatus status) {
-        return getAllOrders().stream()
-            .filter(o -> o.getStatus() == status)
-            .collect(Collectors.toList());
+        return BY_STATUS.time(() -> findOrders(null, null, o -> o.getStatus() == status));
     }
 
     /**
-     * Get orders created after a specific date
+     * Get orders created after a specific date.
+     * Segments that end before the date are skipped without being read.
      */
     public List<Order> getOrdersAfter(Instant after) {
-        return getAllOrders().stream()
-            .filter(o -> o.getCreatedAt().isAfter(after))
-            .collect(Collectors.toList());
+        return AFTER.time(() -> findOrders(after, null, o -> o.getCreatedAt().isAfter(after)));
+    }
+
+    /**
+     * Get orders created in [from, to).
+     * Only the segments overlapping the range are read.
+     */
+    public List<Order> getOrdersBetween(Instant from, Instant to) {
+        return BETWEEN.time(() -> findOrders(from, to, o -> !o.getCreatedAt().isBefore(from) && o.getCreatedAt().isBefore(to)));
     }
 
     /**
@@ -123,6 +377,60 @@ public class OrderDataManager {
         Instant startOfToday = LocalDate.now()
             .atStartOfDay(ZoneId.systemDefault())
             .toInstant();
-        return getOrdersAfter(startOfToday);
+        return TODAY.time(() -> findOrders(startOfToday, null, o -> o.getCreatedAt().isAfter(startOfToday)));
+    }
+
+    // ---- row mapping, shared with OrderJournal ----
+
+    /** orders.csv: id, customer_id, created_at, status, subtotal, discount_total, grand_total */
+    static String[] toOrderRow(Order order) {
+        return new String[] {
+                order.getId(), order.getCustomerId(), order.getCreatedAt().toString(),
+                order.getStatus().name(),
+                String.format(Locale.US,"%.2f", order.getSubtotal()),
+                String.format(Locale.US,"%.2f", order.getDiscountTotal()),
+                String.format(Locale.US,"%.2f", order.getGrandTotal())
+        };
+    }
+
+    /** order_items.csv: order_id, line_no, product_id, qty, unit_price, name */
+    static List<String[]> toItemRows(Order order) {
+        List<String[]> rows = new ArrayList<>();
+        int line = 1;
+        for (OrderItem it : order.getItems()) {
+            rows.add(new String[] {
+                    order.getId(), String.valueOf(line++), it.getProductId(),
+                    String.valueOf(it.getQty()),
+                    String.format(Locale.US,"%.2f", it.getUnitPrice()),
+                    it.getName()
+            });
+        }
+        return rows;
+    }
+
+    static Order toOrder(String[] r) {
+        Order o = new Order(r[0], r[1], Instant.parse(r[2]));
+        o.setStatus(OrderStatus.valueOf(r[3]));
+        if (r.length >= 6) o.addDiscount(Double.parseDouble(r[5]));
+        return o;
+    }
+
+    /** The current orders.csv row of a scan; the id is passed in when the caller already decoded it. */
+    static Order toOrder(CsvScanner s, String id) {
+        Order o = new Order(id, s.string(1), s.parseInstant(2));
+        o.setStatus(s.parseEnum(3, STATUSES));
+        if (s.fieldCount() >= 6) o.addDiscount(s.parseDouble(5));
+        return o;
+    }
+
+    static OrderItem toItem(CsvScanner s) {
+        return new OrderItem(s.string(2), s.string(5), s.parseInt(3), s.parseDouble(4));
+    }
+
+    static OrderItem toItem(String[] r) {
+        int qty = Integer.parseInt(r[3]);
+        double price = Double.parseDouble(r[4]);
+        String name = r[5];
+        return new OrderItem(r[2], name, qty, price);
     }
 }
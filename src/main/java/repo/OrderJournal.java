@@ -0,0 +1,487 @@
+package repo;
+
+import model.Order;
+import model.OrderItem;
+import patterns.singleton.DataSource;
+import util.CsvCodec;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Supplier;
+
+/**
+ * Append-only journal for order writes.
+ * saveOrder appends a record here instead of rewriting orders.csv and order_items.csv,
+ * and the latest record per order wins on read. Once the journal grows past a threshold
+ * a background task folds it into the order segments (see {@link OrderSegment}) and
+ * starts a fresh journal.
+ *
+ * Record layout (one CSV row each, same columns and quoting as the base files):
+ *   O,&lt;order row&gt;   full snapshot, followed by its I lines (items are replaced)
+ *   I,&lt;item row&gt;    one order line belonging to the preceding O record
+ *   U,&lt;order row&gt;   header-only update (status/totals), items unchanged
+ *
+ * Shared by every OrderDataManager in the process (Singleton).
+ */
+public final class OrderJournal {
+
+    /** How hard the journal tries to get appended records onto disk. */
+    public enum Durability {
+        /** Leave flushing to the OS page cache. Fastest, may lose recent writes on power loss. */
+        NONE,
+        /** fsync at most every {@link #BATCH_SYNC_MS} ms, amortized over all appends in between. */
+        BATCHED,
+        /** fsync before every append returns. */
+        PER_WRITE
+    }
+
+    static final String JOURNAL = "orders.journal";
+    static final String COMPACTING = "orders.journal.compacting";
+    private static final long COMPACT_THRESHOLD_BYTES = 4L * 1024 * 1024;
+    private static final long BATCH_SYNC_MS = 50;
+
+    private static OrderJournal instance;
+
+    private final Object appendLock = new Object();
+    // Held for reading while a caller scans base files + overlay, for writing while swapping base files
+    private final ReentrantReadWriteLock baseLock = new ReentrantReadWriteLock();
+    private final ScheduledExecutorService background;
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+    private final Object compactionLock = new Object();
+
+    private FileChannel channel;
+    private volatile List<OrderSegment> segments;               // base files, legacy first then by day
+    private volatile Map<String, OrderSegment> segmentsByKey;
+    private final CustomerOrderIndex customerIndex;
+    private Map<String, Order> live = new LinkedHashMap<>();    // records in orders.journal
+    private Map<String, Order> frozen = new LinkedHashMap<>();  // records being folded into the base files
+    private volatile Durability durability;
+    private boolean dirty;
+
+    private OrderJournal() throws IOException {
+        String mode = System.getProperty("candystore.journal.durability", Durability.BATCHED.name());
+        this.durability = Durability.valueOf(mode.toUpperCase(Locale.ROOT));
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "order-journal");
+            t.setDaemon(true);
+            return t;
+        });
+
+        setSegments(SegmentManifest.load());
+        replay(resolve(COMPACTING), frozen);
+        replay(resolve(JOURNAL), live);
+        List<String> orderFiles = new ArrayList<>();
+        boolean filesChanged = false;
+        for (OrderSegment seg : segments) {
+            orderFiles.add(seg.ordersFile);
+            filesChanged |= seg.orderIndex.wasRebuilt();
+        }
+        customerIndex = CustomerOrderIndex.open(filesChanged, orderFiles, pending().values());
+        channel = openJournal();
+
+        background.scheduleWithFixedDelay(this::syncIfDirty, BATCH_SYNC_MS, BATCH_SYNC_MS, TimeUnit.MILLISECONDS);
+        if (!frozen.isEmpty()) scheduleCompaction(); // finish a compaction interrupted by a crash
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "order-journal-shutdown"));
+    }
+
+    /**
+     * Gets the process-wide journal, replaying any existing journal files on first use.
+     *
+     * @return The shared OrderJournal instance
+     */
+    public static synchronized OrderJournal getInstance() {
+        if (instance == null) {
+            try {
+                instance = new OrderJournal();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open order journal: " + e.getMessage(), e);
+            }
+        }
+        return instance;
+    }
+
+    public Durability getDurability() { return durability; }
+
+    public void setDurability(Durability durability) { this.durability = durability; }
+
+    /**
+     * Appends the current state of an order.
+     * Only the header is written when the items are unchanged since the last record.
+     *
+     * @param order The order to record
+     * @throws IOException If the record cannot be written
+     */
+    public void append(Order order) throws IOException {
+        appendAll(List.of(order));
+    }
+
+    /**
+     * Appends the current state of several orders with one write and, under
+     * {@link Durability#PER_WRITE}, one fsync for the whole batch (group commit).
+     *
+     * @param orders The orders to record, in order
+     * @throws IOException If the records cannot be written
+     */
+    public void appendAll(Collection<Order> orders) throws IOException {
+        if (orders.isEmpty()) return;
+        long size;
+        synchronized (appendLock) {
+            StringBuilder sb = new StringBuilder();
+            Map<String, Order> written = new LinkedHashMap<>();
+            for (Order order : orders) {
+                Order previous = written.containsKey(order.getId()) ? written.get(order.getId()) : live.get(order.getId());
+                boolean headerOnly = previous != null && sameItems(previous, order);
+                appendLine(sb, headerOnly ? "U" : "O", OrderDataManager.toOrderRow(order));
+                if (!headerOnly) {
+                    for (String[] item : OrderDataManager.toItemRows(order)) appendLine(sb, "I", item);
+                }
+                written.put(order.getId(), copyOf(order));
+            }
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+
+            live.putAll(written);
+            if (durability == Durability.PER_WRITE) channel.force(false);
+            else dirty = true;
+            size = channel.size();
+        }
+        if (size >= COMPACT_THRESHOLD_BYTES) scheduleCompaction();
+    }
+
+    /**
+     * Looks up the newest journaled state of an order.
+     *
+     * @param orderId The order id
+     * @return A copy of the order, or empty if it only exists in the base files
+     */
+    public Optional<Order> find(String orderId) {
+        synchronized (appendLock) {
+            Order o = live.get(orderId);
+            if (o == null) o = frozen.get(orderId);
+            return Optional.ofNullable(o).map(OrderJournal::copyOf);
+        }
+    }
+
+    /**
+     * Copies every journaled order, newest record per id, in first-written order.
+     *
+     * @return Mutable map of order id to order copy
+     */
+    public Map<String, Order> pending() {
+        synchronized (appendLock) {
+            Map<String, Order> out = new LinkedHashMap<>();
+            for (Order o : frozen.values()) out.put(o.getId(), copyOf(o));
+            for (Order o : live.values()) out.put(o.getId(), copyOf(o));
+            return out;
+        }
+    }
+
+    /**
+     * Runs a read of the base files that must not observe a compaction half-way through.
+     *
+     * @param reader Reads the base files and the journal overlay
+     * @return Whatever the reader returns
+     */
+    public <T> T readBase(Supplier<T> reader) {
+        baseLock.readLock().lock();
+        try {
+            return reader.get();
+        } finally {
+            baseLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Index of customer id to order ids, covering both the base files and the journal.
+     *
+     * @return The shared customer index
+     */
+    CustomerOrderIndex customerIndex() {
+        return customerIndex;
+    }
+
+    /**
+     * Base order storage, legacy segment first and then one segment per day.
+     * Only valid inside {@link #readBase}.
+     *
+     * @return Immutable snapshot of the current segments
+     */
+    List<OrderSegment> segments() {
+        return segments;
+    }
+
+    /**
+     * The base segment with the given key. Only valid inside {@link #readBase}.
+     *
+     * @param key {@link OrderSegment#LEGACY} or a day key
+     * @return The segment, or null if there is none for the key
+     */
+    OrderSegment segment(String key) {
+        return segmentsByKey.get(key);
+    }
+
+    /**
+     * Folds the journal into the order segments right away, on the calling thread.
+     * Only the segments that journaled orders belong to are rewritten.
+     *
+     * @throws IOException If a segment cannot be rewritten
+     */
+    public void compactNow() throws IOException {
+        synchronized (compactionLock) {
+            rotate();
+            Map<String, Order> folding;
+            synchronized (appendLock) { folding = new LinkedHashMap<>(frozen); }
+            if (folding.isEmpty()) return;
+
+            Map<String, OrderSegment> byKey = new LinkedHashMap<>();
+            for (OrderSegment seg : segments) byKey.put(seg.key, seg);
+
+            // The first compaction splits legacy into day segments, so no later one rewrites it whole
+            List<OrderSegment> rewritten = new ArrayList<>();
+            List<OrderSegment> placed = List.of();
+            OrderSegment legacy = byKey.get(OrderSegment.LEGACY);
+            if (legacy.orderIndex.size() > 0) {
+                try {
+                    OrderSegment.Migration migration = OrderSegment.migrateLegacy(legacy, byKey, folding);
+                    rewritten.addAll(migration.staged());
+                    placed = migration.placed();
+                    folding.keySet().removeAll(migration.merged());
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Legacy orders left in place: " + e.getMessage());
+                }
+            }
+
+            // An order stays in the segment that already holds it; new orders go to their day
+            Map<String, Map<String, Order>> bySegment = new TreeMap<>();
+            for (Order o : folding.values()) {
+                String day = OrderSegment.dayKey(o.getCreatedAt());
+                boolean inLegacy = !containsIn(byKey.get(day), o.getId())
+                        && containsIn(byKey.get(OrderSegment.LEGACY), o.getId());
+                String key = inLegacy ? OrderSegment.LEGACY : day;
+                bySegment.computeIfAbsent(key, k -> new LinkedHashMap<>()).put(o.getId(), o);
+            }
+
+            for (Map.Entry<String, Map<String, Order>> e : bySegment.entrySet()) {
+                OrderSegment seg = byKey.getOrDefault(e.getKey(), OrderSegment.empty(e.getKey()));
+                rewritten.add(seg.rewrite(e.getValue()));
+            }
+
+            for (OrderSegment seg : rewritten) byKey.put(seg.key, seg);
+            for (OrderSegment seg : placed) byKey.put(seg.key, seg);
+            List<OrderSegment> next = new ArrayList<>();
+            next.add(byKey.remove(OrderSegment.LEGACY));
+            next.addAll(new TreeMap<>(byKey).values());
+            Set<String> installing = new HashSet<>();
+            for (OrderSegment seg : rewritten) installing.add(seg.key);
+            SegmentManifest.save(next, installing);     // from here on a restart finishes the swap
+
+            baseLock.writeLock().lock();
+            try {
+                for (OrderSegment seg : rewritten) seg.install();
+                setSegments(next);
+                synchronized (appendLock) { frozen = new LinkedHashMap<>(); }
+            } finally {
+                baseLock.writeLock().unlock();
+            }
+            for (OrderSegment seg : rewritten) seg.saveIndexes();
+            SegmentManifest.save(next);
+            Files.deleteIfExists(resolve(COMPACTING));
+        }
+    }
+
+    /**
+     * Flushes the journal to disk and stops the background thread.
+     */
+    public void close() {
+        background.shutdown();
+        synchronized (appendLock) {
+            try {
+                if (channel.isOpen()) {
+                    channel.force(false);
+                    channel.close();
+                }
+                customerIndex.close();
+            } catch (IOException e) {
+                System.err.println("Error closing order journal: " + e.getMessage());
+            }
+        }
+    }
+
+    // ---- internals ----
+
+    private void setSegments(List<OrderSegment> list) {
+        Map<String, OrderSegment> byKey = new HashMap<>();
+        for (OrderSegment seg : list) byKey.put(seg.key, seg);
+        segmentsByKey = byKey;
+        segments = Collections.unmodifiableList(list);
+    }
+
+    /** Moves the live journal aside so new appends go to a fresh file while we compact. */
+    private void rotate() throws IOException {
+        synchronized (appendLock) {
+            if (!frozen.isEmpty() || live.isEmpty()) return; // resume an earlier rotation, or nothing to do
+            channel.force(false);
+            channel.close();
+            Files.move(resolve(JOURNAL), resolve(COMPACTING), StandardCopyOption.REPLACE_EXISTING);
+            channel = openJournal();
+            frozen = live;
+            live = new LinkedHashMap<>();
+            dirty = false;
+        }
+    }
+
+    private void scheduleCompaction() {
+        if (!compactionQueued.compareAndSet(false, true)) return;
+        background.execute(() -> {
+            compactionQueued.set(false);
+            try {
+                compactNow();
+            } catch (IOException e) {
+                System.err.println("Order journal compaction failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private void syncIfDirty() {
+        synchronized (appendLock) {
+            if (!dirty || durability != Durability.BATCHED || !channel.isOpen()) return;
+            try {
+                channel.force(false);
+                dirty = false;
+            } catch (IOException e) {
+                System.err.println("Error syncing order journal: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the latest-per-order view from a journal file. Malformed records are skipped.
+     * A torn record at the end, left by a crash mid-append, is cut off the file, so the next
+     * append starts a fresh row instead of running into it (or into its open quote).
+     */
+    private static void replay(Path file, Map<String, Order> into) throws IOException {
+        if (!Files.exists(file)) return;
+        byte[] data = Files.readAllBytes(file);
+        int end = completeLength(data);
+        if (end < data.length) {
+            try (FileChannel ch = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                ch.truncate(end);
+            }
+        }
+        try (CsvCodec.RecordReader in = new CsvCodec.RecordReader(
+                new StringReader(new String(data, 0, end, StandardCharsets.UTF_8)))) {
+            Order current = null;
+            String[] r;
+            while ((r = in.next()) != null) {
+                String[] row = Arrays.copyOfRange(r, 1, r.length);
+                try {
+                    switch (r[0]) {
+                        case "O" -> {
+                            current = OrderDataManager.toOrder(row);
+                            into.put(current.getId(), current);
+                        }
+                        case "I" -> {
+                            if (current != null && row[0].equals(current.getId())) {
+                                current.addItem(OrderDataManager.toItem(row));
+                            }
+                        }
+                        case "U" -> {
+                            current = null;
+                            Order previous = into.get(row[0]);
+                            if (previous != null) {
+                                Order updated = OrderDataManager.toOrder(row);
+                                for (OrderItem it : previous.getItems()) updated.addItem(it);
+                                into.put(updated.getId(), updated);
+                            }
+                        }
+                        default -> current = null;
+                    }
+                } catch (RuntimeException malformed) {
+                    current = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Length of the leading complete records: up to the last newline outside a quoted field.
+     * Quotes count only where CsvCodec reads them, at the start of a field, so journals
+     * written before fields were quoted, with quotes inside bare names, are measured correctly.
+     */
+    private static int completeLength(byte[] data) {
+        int end = 0;
+        boolean quoted = false, closing = false, fieldStart = true;
+        for (int i = 0; i < data.length; i++) {
+            byte b = data[i];
+            if (quoted) {
+                if (b == '"') {
+                    quoted = false;
+                    closing = true;
+                }
+                continue;
+            }
+            if (closing) {
+                closing = false;
+                if (b == '"') {         // doubled quote
+                    quoted = true;
+                    continue;
+                }
+            }
+            if (b == '"' && fieldStart) quoted = true;
+            else if (b == '\n') end = i + 1;
+            fieldStart = b == ',' || b == '\n';
+        }
+        return end;
+    }
+
+    private FileChannel openJournal() throws IOException {
+        Path p = resolve(JOURNAL);
+        Files.createDirectories(p.getParent());
+        return FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private static boolean sameItems(Order a, Order b) {
+        if (a.getItems().size() != b.getItems().size()) return false;
+        for (int i = 0; i < a.getItems().size(); i++) {
+            OrderItem x = a.getItems().get(i), y = b.getItems().get(i);
+            if (!x.getProductId().equals(y.getProductId()) || !x.getName().equals(y.getName())
+                    || x.getQty() != y.getQty() || x.getUnitPrice() != y.getUnitPrice()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static Order copyOf(Order o) {
+        Order copy = new Order(o.getId(), o.getCustomerId(), o.getCreatedAt());
+        copy.setStatus(o.getStatus());
+        for (OrderItem it : o.getItems()) copy.addItem(it);
+        copy.addDiscount(o.getDiscountTotal());
+        return copy;
+    }
+
+    private static void appendLine(StringBuilder sb, String kind, String[] row) {
+        CsvCodec.appendRow(sb.append(kind).append(','), row).append('\n');
+    }
+
+    private static boolean containsIn(OrderSegment seg, String orderId) {
+        return seg != null && seg.orderIndex.contains(orderId);
+    }
+
+    private static Path resolve(String filename) {
+        return DataSource.getInstance().resolve(filename);
+    }
+}
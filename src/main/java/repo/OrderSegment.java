@@ -0,0 +1,379 @@
+package repo;
+
+import model.Order;
+import patterns.singleton.DataSource;
+import util.CsvCodec;
+import util.CsvScanner;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * One time bucket of order storage: an orders file, its items file, their order-id indexes
+ * and the min/max createdAt of the orders inside, so range queries can skip the whole segment.
+ *
+ * Compaction writes new orders into one segment per UTC day (segments/yyyy-MM-dd.orders.csv
+ * and .items.csv). The original orders.csv/order_items.csv are read as the "legacy" segment,
+ * covering whatever dates they happen to hold, until the first compaction moves their orders
+ * into day segments; the legacy segment then stays, empty.
+ *
+ * Instances are immutable; a rewrite produces a new segment that replaces this one.
+ */
+final class OrderSegment {
+    static final String LEGACY = "legacy";
+    static final String DIR = "segments";
+
+    final String key;
+    final String ordersFile;
+    final String itemsFile;
+    final RowIndex orderIndex;
+    final RowIndex itemIndex;
+    final Instant minCreatedAt;   // null when the segment is empty
+    final Instant maxCreatedAt;
+    final long orderCount;
+
+    OrderSegment(String key, String ordersFile, String itemsFile, RowIndex orderIndex, RowIndex itemIndex,
+                 Instant minCreatedAt, Instant maxCreatedAt, long orderCount) {
+        this.key = key;
+        this.ordersFile = ordersFile;
+        this.itemsFile = itemsFile;
+        this.orderIndex = orderIndex;
+        this.itemIndex = itemIndex;
+        this.minCreatedAt = minCreatedAt;
+        this.maxCreatedAt = maxCreatedAt;
+        this.orderCount = orderCount;
+    }
+
+    /** Segment key (UTC date) an order belongs to when it is first compacted. */
+    static String dayKey(Instant createdAt) {
+        return LocalDate.ofInstant(createdAt, ZoneOffset.UTC).toString();
+    }
+
+    static String ordersFileFor(String key) {
+        return key.equals(LEGACY) ? OrderDataManager.ORDERS : DIR + "/" + key + ".orders.csv";
+    }
+
+    static String itemsFileFor(String key) {
+        return key.equals(LEGACY) ? OrderDataManager.ITEMS : DIR + "/" + key + ".items.csv";
+    }
+
+    /** A segment with no files written yet. */
+    static OrderSegment empty(String key) {
+        String orders = ordersFileFor(key), items = itemsFileFor(key);
+        return new OrderSegment(key, orders, items, RowIndex.empty(orders), RowIndex.empty(items), null, null, 0);
+    }
+
+    /**
+     * Opens a segment's indexes and, if the orders index had to be rebuilt or no bounds are known,
+     * recomputes min/max createdAt with one scan of the orders file.
+     */
+    static OrderSegment open(String key, Instant min, Instant max, long count) throws IOException {
+        String orders = ordersFileFor(key), items = itemsFileFor(key);
+        RowIndex orderIndex = RowIndex.open(orders);
+        RowIndex itemIndex = RowIndex.open(items);
+        if (orderIndex.wasRebuilt() || (min == null && orderIndex.size() > 0)) {
+            Instant[] bounds = new Instant[2];
+            count = 0;
+            for (Bounds range : CsvScanner.scanParallel(orders, s -> {
+                Instant[] local = new Instant[2];
+                long n = 0;
+                while (s.next()) {
+                    if (s.fieldCount() < 3) continue;
+                    widen(local, s.parseInstant(2));
+                    n++;
+                }
+                return new Bounds(local[0], local[1], n);
+            })) {
+                if (range.count() == 0) continue;
+                widen(bounds, range.min());
+                widen(bounds, range.max());
+                count += range.count();
+            }
+            min = bounds[0];
+            max = bounds[1];
+        }
+        return new OrderSegment(key, orders, items, orderIndex, itemIndex, min, max, count);
+    }
+
+    /**
+     * True if this segment may hold orders created in [from, to]; null bounds are open.
+     */
+    boolean overlaps(Instant from, Instant to) {
+        if (minCreatedAt == null) return false;
+        return (from == null || !maxCreatedAt.isBefore(from)) && (to == null || !minCreatedAt.isAfter(to));
+    }
+
+    /**
+     * Writes this segment merged with journaled orders into temp files next to the live ones.
+     * Journaled orders replace their rows in place; orders new to the segment are appended.
+     * Call {@link OrderSegment#install()} on the result to swap the files in.
+     *
+     * @param folding Orders to merge, keyed by id
+     * @return The merged segment, with indexes and bounds built while writing
+     */
+    OrderSegment rewrite(Map<String, Order> folding) throws IOException {
+        return rewrite(folding, List.of(), List.of());
+    }
+
+    /**
+     * As {@link #rewrite(Map)}, with rows moved over from another segment written after this
+     * segment's own rows and before the orders new to it.
+     */
+    private OrderSegment rewrite(Map<String, Order> folding, List<String[]> movedOrders,
+                                 List<String[]> movedItems) throws IOException {
+        Files.createDirectories(resolve(ordersFile).getParent());
+        RowIndex newOrderIndex = RowIndex.empty(ordersFile);
+        RowIndex newItemIndex = RowIndex.empty(itemsFile);
+        Instant[] bounds = new Instant[2];
+        long count = 0;
+
+        // Files of a segment not in the segment list yet are leftovers of an interrupted migration
+        boolean stored = orderIndex.size() > 0;
+        Set<String> written = new HashSet<>();
+        long[] offset = {0};
+        try (CsvCodec.RecordReader in = stored ? newReader(resolve(ordersFile)) : null;
+             BufferedWriter out = Files.newBufferedWriter(tmp(ordersFile), StandardCharsets.UTF_8)) {
+            Rows rows = new Rows(in, movedOrders);
+            String[] row;
+            while ((row = rows.next()) != null) {
+                String id = row[0];
+                Order o = folding.get(id);
+                if (o != null && !written.add(id)) continue;
+                if (o != null) row = OrderDataManager.toOrderRow(o);
+                if (row.length >= 3) {
+                    widen(bounds, Instant.parse(row[2]));
+                    count++;
+                }
+                writeIndexed(out, newOrderIndex, offset, id, row);
+            }
+            for (Order o : folding.values()) {
+                if (!written.add(o.getId())) continue;
+                widen(bounds, o.getCreatedAt());
+                count++;
+                writeIndexed(out, newOrderIndex, offset, o.getId(), OrderDataManager.toOrderRow(o));
+            }
+        }
+
+        written.clear();
+        offset[0] = 0;
+        try (CsvCodec.RecordReader in = stored ? newReader(resolve(itemsFile)) : null;
+             BufferedWriter out = Files.newBufferedWriter(tmp(itemsFile), StandardCharsets.UTF_8)) {
+            Rows rows = new Rows(in, movedItems);
+            String[] row;
+            while ((row = rows.next()) != null) {
+                String id = row[0];
+                Order o = folding.get(id);
+                if (o == null) {
+                    writeIndexed(out, newItemIndex, offset, id, row);
+                } else if (written.add(id)) {
+                    for (String[] r : OrderDataManager.toItemRows(o)) writeIndexed(out, newItemIndex, offset, id, r);
+                }
+            }
+            for (Order o : folding.values()) {
+                if (!written.add(o.getId())) continue;
+                for (String[] r : OrderDataManager.toItemRows(o)) writeIndexed(out, newItemIndex, offset, o.getId(), r);
+            }
+        }
+        return new OrderSegment(key, ordersFile, itemsFile, newOrderIndex, newItemIndex, bounds[0], bounds[1], count);
+    }
+
+    /** Atomically replaces the live files with the ones written by {@link #rewrite}. */
+    void install() throws IOException {
+        Files.move(tmp(ordersFile), resolve(ordersFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(tmp(itemsFile), resolve(itemsFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Moves in whatever temp files {@link #rewrite} left for a segment, after a crash part-way
+     * through its {@link #install()}.
+     */
+    static void finishInstall(String key) throws IOException {
+        for (String file : List.of(ordersFileFor(key), itemsFileFor(key))) {
+            if (Files.exists(tmp(file))) {
+                Files.move(tmp(file), resolve(file), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    void saveIndexes() throws IOException {
+        orderIndex.save();
+        itemIndex.save();
+    }
+
+    /**
+     * Moves the legacy segment's orders into day segments in one streamed pass, merging in the
+     * journaled orders of the same days. Legacy rows are in createdAt order, so one day's rows
+     * are gathered, written and dropped before the next day is read, and an order's lines are
+     * read alongside it, being adjacent and in the same order; lines found elsewhere are read
+     * through the item index. The few rows out of order, orders once appended to legacy by a
+     * compaction, and the rows of days that already have a segment are kept until the end of
+     * the pass and written then.
+     *
+     * Days with no segment yet are written straight to their files, which nothing reads before
+     * the returned segments enter the segment list. Days that have a segment, and the legacy
+     * segment, which is left empty, are written next to their live files for {@link #install}.
+     * Until then nothing live has changed, so a failed migration leaves legacy in place.
+     *
+     * @param legacy The legacy segment
+     * @param existing Current segments by key
+     * @param folding Journaled orders being compacted, keyed by id; only read
+     * @throws IOException If the legacy files cannot be read
+     */
+    static Migration migrateLegacy(OrderSegment legacy, Map<String, OrderSegment> existing,
+                                   Map<String, Order> folding) throws IOException {
+        Map<String, Map<String, Order>> foldingByDay = new HashMap<>();
+        for (Order o : folding.values()) {
+            foldingByDay.computeIfAbsent(dayKey(o.getCreatedAt()), k -> new LinkedHashMap<>()).put(o.getId(), o);
+        }
+        Map<String, OrderSegment> placed = new TreeMap<>();
+        Map<String, DayRows> kept = new TreeMap<>();
+        Set<String> movedEarly = new HashSet<>();   // orders whose lines were not next to them
+        try (CsvCodec.RecordReader orders = newReader(resolve(legacy.ordersFile));
+             CsvCodec.RecordReader items = newReader(resolve(legacy.itemsFile))) {
+            String day = null;
+            DayRows rows = new DayRows();
+            String[] line = nextLine(items);
+            String[] row;
+            while (orders != null && (row = orders.next()) != null) {
+                if (row.length < 3) continue;                       // not an order
+                String rowDay = dayKey(Instant.parse(row[2]));
+                DayRows into = rows;
+                if (existing.containsKey(rowDay) || placed.containsKey(rowDay) || (day != null && rowDay.compareTo(day) < 0)) {
+                    into = kept.computeIfAbsent(rowDay, k -> new DayRows());
+                } else if (!rowDay.equals(day)) {
+                    if (day != null) placed.put(day, place(empty(day), foldingByDay.get(day), rows));
+                    day = rowDay;
+                    rows = new DayRows();
+                    into = rows;
+                }
+                String id = row[0];
+                into.orders.add(row);
+                while (line != null && !line[0].equals(id)
+                        && (movedEarly.contains(line[0]) || !legacy.orderIndex.contains(line[0]))) {
+                    line = nextLine(items);                         // read already, or lines of no order
+                }
+                if (line != null && line[0].equals(id)) {
+                    while (line != null && line[0].equals(id)) {
+                        into.items.add(line);
+                        line = nextLine(items);
+                    }
+                } else if (legacy.itemIndex.contains(id)) {
+                    into.items.addAll(legacy.itemIndex.read(List.of(id)).get(id));
+                    movedEarly.add(id);
+                }
+            }
+            if (day != null) placed.put(day, place(empty(day), foldingByDay.get(day), rows));
+        }
+
+        List<OrderSegment> staged = new ArrayList<>();
+        for (Map.Entry<String, DayRows> e : kept.entrySet()) {
+            String day = e.getKey();
+            Map<String, Order> dayFolding = foldingByDay.get(day);
+            if (existing.containsKey(day)) {
+                staged.add(existing.get(day).rewrite(orEmpty(dayFolding), e.getValue().orders, e.getValue().items));
+            } else {
+                // folded again, so journaled orders already written to the day are not doubled by stale rows
+                placed.put(day, place(placed.getOrDefault(day, empty(day)), dayFolding, e.getValue()));
+            }
+        }
+        staged.add(empty(LEGACY).rewrite(Map.of()));
+
+        Set<String> merged = new HashSet<>();
+        for (String day : placed.keySet()) merged.addAll(orEmpty(foldingByDay.get(day)).keySet());
+        for (String day : kept.keySet()) merged.addAll(orEmpty(foldingByDay.get(day)).keySet());
+        return new Migration(new ArrayList<>(placed.values()), staged, merged);
+    }
+
+    /**
+     * Segments produced by {@link #migrateLegacy}: new day segments already in their files,
+     * rewritten ones (including the emptied legacy segment) waiting for {@link #install}, and
+     * the ids of the journaled orders written into them.
+     */
+    record Migration(List<OrderSegment> placed, List<OrderSegment> staged, Set<String> merged) {}
+
+    /** Legacy rows of one day, with their lines. */
+    private static final class DayRows {
+        final List<String[]> orders = new ArrayList<>();
+        final List<String[]> items = new ArrayList<>();
+    }
+
+    /**
+     * Writes legacy rows into a day segment that is not in the segment list, straight to its files.
+     *
+     * @return The segment, reopened from the index snapshots just written so its indexes are mapped, not held
+     */
+    private static OrderSegment place(OrderSegment seg, Map<String, Order> folding, DayRows rows) throws IOException {
+        OrderSegment written = seg.rewrite(orEmpty(folding), rows.orders, rows.items);
+        written.install();
+        written.saveIndexes();
+        return open(written.key, written.minCreatedAt, written.maxCreatedAt, written.orderCount);
+    }
+
+    private static Map<String, Order> orEmpty(Map<String, Order> folding) {
+        return folding == null ? Map.of() : folding;
+    }
+
+    private static String[] nextLine(CsvCodec.RecordReader items) throws IOException {
+        String[] line;
+        while (items != null && (line = items.next()) != null) {
+            if (line.length >= 2) return line;
+        }
+        return null;
+    }
+
+    /** The rows of a file, then rows moved over from elsewhere. */
+    private static final class Rows {
+        private CsvCodec.RecordReader in;   // null once read to the end
+        private final Iterator<String[]> moved;
+
+        Rows(CsvCodec.RecordReader in, List<String[]> moved) {
+            this.in = in;
+            this.moved = moved.iterator();
+        }
+
+        String[] next() throws IOException {
+            String[] row = in == null ? null : in.next();
+            if (row != null) return row;
+            in = null;
+            return moved.hasNext() ? moved.next() : null;
+        }
+    }
+
+    /** createdAt bounds and order count of one range of an orders file. */
+    private record Bounds(Instant min, Instant max, long count) {}
+
+    private static void widen(Instant[] bounds, Instant t) {
+        if (bounds[0] == null || t.isBefore(bounds[0])) bounds[0] = t;
+        if (bounds[1] == null || t.isAfter(bounds[1])) bounds[1] = t;
+    }
+
+    private static void writeIndexed(BufferedWriter out, RowIndex index, long[] offset,
+                                     String key, String[] row) throws IOException {
+        String line = CsvCodec.formatRow(row);
+        out.write(line);
+        out.write('\n');
+        long length = line.getBytes(StandardCharsets.UTF_8).length + 1;
+        if (!key.isEmpty()) index.record(key, offset[0], length);
+        offset[0] += length;
+    }
+
+    private static CsvCodec.RecordReader newReader(Path p) throws IOException {
+        return Files.exists(p) ? new CsvCodec.RecordReader(Files.newBufferedReader(p, StandardCharsets.UTF_8)) : null;
+    }
+
+    private static Path tmp(String filename) {
+        return resolve(filename + ".tmp");
+    }
+
+    private static Path resolve(String filename) {
+        return DataSource.getInstance().resolve(filename);
+    }
+}
@@ -0,0 +1,21 @@
+package repo;
+
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Latency meters for the data managers:
+ *   repo_query_seconds{repo, op}   reads
+ *   repo_write_seconds{repo, op}   saves and deletes
+ */
+final class RepoMetrics {
+    private RepoMetrics() {}
+
+    static LatencyHistogram query(String repo, String op) {
+        return MetricsRegistry.getInstance().histogram("repo_query_seconds", "repo", repo, "op", op);
+    }
+
+    static LatencyHistogram write(String repo, String op) {
+        return MetricsRegistry.getInstance().histogram("repo_write_seconds", "repo", repo, "op", op);
+    }
+}
@@ -0,0 +1,305 @@
+package repo;
+
+import patterns.singleton.DataSource;
+import util.CsvCodec;
+import util.CsvScanner;
+import util.Snapshot;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Persistent index from the first column of a CSV file (an order id) to the byte ranges
+ * of the rows carrying that key, so a lookup reads just those rows instead of the file.
+ * Rows of one key are usually contiguous and are stored as a single range.
+ *
+ * Persisted next to the data file as &lt;file&gt;.idx:
+ *   #&lt;data file length&gt;,&lt;data file last-modified millis&gt;
+ *   key,offset,length[,offset,length...]
+ * The index is rebuilt from the data file whenever the header does not match it.
+ *
+ * Every save also writes &lt;file&gt;.idx.snap, a {@link Snapshot} with the same stamp: the keys
+ * as its dictionary, so a key's code is its row, then first int[keys + 1] and ranges
+ * long[] holding the offset,length pairs of key k at [first[k], first[k + 1]). An index
+ * opened from its snapshot is served straight from the mapping and builds nothing, so
+ * opening one costs the same whatever its size. Without a current snapshot the text index
+ * is read instead, and the snapshot written for next time.
+ */
+final class RowIndex {
+    private static final String KIND = "row-index";
+    private static final int VERSION = 1;
+
+    private final String filename;
+    private Map<String, long[]> ranges;     // null while served from the snapshot
+    private Snapshot snapshot;
+    private IntBuffer first;
+    private LongBuffer spans;
+    private boolean rebuilt;
+
+    private RowIndex(String filename, Map<String, long[]> ranges) {
+        this.filename = filename;
+        this.ranges = ranges;
+    }
+
+    private RowIndex(String filename, Snapshot snapshot) {
+        this.filename = filename;
+        this.snapshot = snapshot;
+        this.first = snapshot.ints(0);
+        this.spans = snapshot.longs(1);
+    }
+
+    /**
+     * Loads the index for a data file, rebuilding it with one scan if it is missing or stale.
+     *
+     * @param filename Data file relative to the data directory
+     * @return The index
+     */
+    static RowIndex open(String filename) throws IOException {
+        Path data = resolve(filename);
+        long length = Files.exists(data) ? Files.size(data) : 0;
+        long modified = Files.exists(data) ? Files.getLastModifiedTime(data).toMillis() : 0;
+        Snapshot snap = Snapshot.open(resolve(filename + ".idx.snap"), KIND, VERSION);
+        if (snap != null && snap.stamp(0) == length && snap.stamp(1) == modified) return new RowIndex(filename, snap);
+
+        Map<String, long[]> loaded = load(data, resolve(filename + ".idx"));
+        if (loaded != null) {
+            RowIndex index = new RowIndex(filename, loaded);
+            index.saveSnapshot(length, modified);
+            return index;
+        }
+
+        RowIndex index = new RowIndex(filename, new HashMap<>());
+        index.scan();
+        index.save();
+        index.rebuilt = true;
+        return index;
+    }
+
+    /** Empty index for a data file that is being written from scratch. */
+    static RowIndex empty(String filename) {
+        return new RowIndex(filename, new HashMap<>());
+    }
+
+    /** True if {@link #open} had to rebuild the index, i.e. the data file changed behind its back. */
+    boolean wasRebuilt() {
+        return rebuilt;
+    }
+
+    boolean contains(String key) {
+        return ranges != null ? ranges.containsKey(key) : snapshot.find(key) >= 0;
+    }
+
+    int size() {
+        return ranges != null ? ranges.size() : snapshot.stringCount();
+    }
+
+    /** File offset of the first row for key, or -1 if it is not indexed. */
+    long offsetOf(String key) {
+        long[] r = rangesOf(key);
+        return r == null ? -1 : r[0];
+    }
+
+    /**
+     * Offsets of up to n rows spread over the data file, for splitting it at row starts.
+     * Keys are picked evenly by their order in the index, which follows no file order, so
+     * the offsets fall at scattered points of the file.
+     *
+     * @return Distinct row offsets, ascending
+     */
+    long[] rowStarts(int n) {
+        int keys = size();
+        if (keys == 0 || n <= 0) return new long[0];
+        int step = Math.max(1, keys / n);
+        TreeSet<Long> starts = new TreeSet<>();
+        if (ranges == null) {
+            for (int k = 0; k < keys; k += step) starts.add(spans.get(first.get(k)));
+        } else {
+            int k = 0;
+            for (long[] r : ranges.values()) {
+                if (k++ % step == 0) starts.add(r[0]);
+            }
+        }
+        return starts.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    /**
+     * Records that a row for key occupies [offset, offset + length) in the data file.
+     * Extends the key's last range when the row directly follows it.
+     */
+    void record(String key, long offset, long length) {
+        materialize();
+        long[] r = ranges.get(key);
+        if (r == null) {
+            ranges.put(key, new long[] {offset, length});
+        } else if (r[r.length - 2] + r[r.length - 1] == offset) {
+            r[r.length - 1] += length;
+        } else {
+            long[] grown = Arrays.copyOf(r, r.length + 2);
+            grown[r.length] = offset;
+            grown[r.length + 1] = length;
+            ranges.put(key, grown);
+        }
+    }
+
+    /**
+     * Reads the rows for several keys with one open of the data file.
+     *
+     * @param keys Keys to look up; keys not in the index are skipped
+     * @return Rows per key, in file order
+     */
+    Map<String, List<String[]>> read(Collection<String> keys) throws IOException {
+        Map<String, List<String[]>> out = new HashMap<>();
+        Path data = resolve(filename);
+        if (!Files.exists(data)) return out;
+        try (FileChannel ch = FileChannel.open(data, StandardOpenOption.READ)) {
+            for (String key : keys) {
+                long[] r = rangesOf(key);
+                if (r == null) continue;
+                List<String[]> rows = new ArrayList<>();
+                for (int i = 0; i < r.length; i += 2) {
+                    ByteBuffer buf = ByteBuffer.allocate((int) r[i + 1]);
+                    while (buf.hasRemaining()) {
+                        if (ch.read(buf, r[i] + buf.position()) < 0) break;
+                    }
+                    String chunk = new String(buf.array(), 0, buf.position(), StandardCharsets.UTF_8);
+                    CsvCodec.RecordReader in = new CsvCodec.RecordReader(new StringReader(chunk));
+                    String[] row;
+                    while ((row = in.next()) != null) {
+                        if (row.length > 1 || !row[0].isEmpty()) rows.add(row);
+                    }
+                }
+                out.put(key, rows);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Writes the index next to its data file, stamped with the data file's current size and mtime.
+     */
+    void save() throws IOException {
+        materialize();
+        Path data = resolve(filename);
+        Path idx = resolve(filename + ".idx");
+        Path tmp = resolve(filename + ".idx.tmp");
+        long length = Files.exists(data) ? Files.size(data) : 0;
+        long modified = Files.exists(data) ? Files.getLastModifiedTime(data).toMillis() : 0;
+        Files.createDirectories(idx.getParent());
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            out.write("#" + length + "," + modified);
+            out.write('\n');
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, long[]> e : ranges.entrySet()) {
+                sb.setLength(0);
+                CsvCodec.appendField(sb, e.getKey());
+                for (long v : e.getValue()) sb.append(',').append(v);
+                out.write(sb.append('\n').toString());
+            }
+        }
+        Files.move(tmp, idx, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        saveSnapshot(length, modified);
+    }
+
+    /** Writes the snapshot of a map-backed index, stamped like the text index. */
+    private void saveSnapshot(long length, long modified) throws IOException {
+        Snapshot.Writer w = new Snapshot.Writer(KIND, VERSION, length, modified);
+        int total = 0;
+        for (long[] r : ranges.values()) total += r.length;
+        int[] first = new int[ranges.size() + 1];
+        long[] spans = new long[total];
+        int k = 0, n = 0;
+        for (Map.Entry<String, long[]> e : ranges.entrySet()) {
+            w.intern(e.getKey());               // keys are distinct, so key k gets code k
+            first[k++] = n;
+            System.arraycopy(e.getValue(), 0, spans, n, e.getValue().length);
+            n += e.getValue().length;
+        }
+        first[k] = n;
+        w.ints(first).longs(spans).write(resolve(filename + ".idx.snap"));
+    }
+
+    /** The offset,length pairs of a key, or null if it is not indexed. */
+    private long[] rangesOf(String key) {
+        if (ranges != null) return ranges.get(key);
+        int code = snapshot.find(key);
+        if (code < 0) return null;
+        long[] r = new long[first.get(code + 1) - first.get(code)];
+        spans.get(first.get(code), r);
+        return r;
+    }
+
+    /**
+     * Copies a snapshot-backed index into a map before it is changed. Indexes opened from a
+     * snapshot are only read in practice; changed ones are built from empty.
+     */
+    private void materialize() {
+        if (ranges != null) return;
+        String[] keys = snapshot.strings();
+        ranges = new HashMap<>(keys.length * 2);
+        for (int k = 0; k < keys.length; k++) {
+            long[] r = new long[first.get(k + 1) - first.get(k)];
+            spans.get(first.get(k), r);
+            ranges.put(keys[k], r);
+        }
+        snapshot = null;
+        first = null;
+        spans = null;
+    }
+
+    /**
+     * Builds the index from the data file, scanning ranges of it in parallel. Each range
+     * indexes its own rows; the partial indexes are merged in file order, so every key's
+     * ranges stay sorted and rows that continue across a split still join up.
+     */
+    private void scan() throws IOException {
+        for (Map<String, long[]> part : CsvScanner.scanParallel(filename, s -> {
+            RowIndex local = empty(filename);
+            while (s.next()) {
+                if (s.length(0) > 0) local.record(s.string(0), s.rowOffset(), s.rowLength());
+            }
+            return local.ranges;
+        })) {
+            for (Map.Entry<String, long[]> e : part.entrySet()) {
+                long[] r = e.getValue();
+                for (int i = 0; i < r.length; i += 2) record(e.getKey(), r[i], r[i + 1]);
+            }
+        }
+    }
+
+    /** Returns the persisted ranges, or null if there is no index or it does not match the data file. */
+    private static Map<String, long[]> load(Path data, Path idx) throws IOException {
+        if (!Files.exists(idx)) return null;
+        long length = Files.exists(data) ? Files.size(data) : 0;
+        long modified = Files.exists(data) ? Files.getLastModifiedTime(data).toMillis() : 0;
+        try (CsvCodec.RecordReader in = new CsvCodec.RecordReader(Files.newBufferedReader(idx, StandardCharsets.UTF_8))) {
+            String[] header = in.next();
+            if (header == null || header.length != 2 || !header[0].equals("#" + length)
+                    || !header[1].equals(String.valueOf(modified))) return null;
+            Map<String, long[]> ranges = new HashMap<>();
+            String[] f;
+            while ((f = in.next()) != null) {
+                long[] r = new long[f.length - 1];
+                for (int i = 1; i < f.length; i++) r[i - 1] = Long.parseLong(f[i]);
+                ranges.put(f[0], r);
+            }
+            return ranges;
+        } catch (RuntimeException corrupt) {
+            return null;
+        }
+    }
+
+    private static Path resolve(String filename) {
+        return DataSource.getInstance().resolve(filename);
+    }
+}
@@ -0,0 +1,226 @@
+package repo;
+
+import model.DailySales;
+import model.Order;
+import model.OrderItem;
+import model.OrderStatus;
+import patterns.singleton.DataSource;
+import util.CsvCodec;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Materialized daily sales per (UTC day, product), so reports over months read a few hundred
+ * rows instead of scanning every order and order line.
+ *
+ * An order counts once it is paid (PAID, PACKING, SHIPPED, DELIVERED); an order that leaves
+ * those statuses, e.g. a cancellation after payment, is taken back out. OrderService reports
+ * every status change here. Totals are kept in memory and persisted as
+ *   sales_daily.csv       snapshot: day,product_id,units,revenue,discount,orders
+ *   sales_daily.journal   deltas appended since the snapshot, same columns
+ * The journal is folded into the snapshot on startup and whenever it passes 1 MB.
+ * If no snapshot exists the store is rebuilt from order history.
+ *
+ * Shared by every OrderService in the process (Singleton).
+ */
+public final class SalesRollupStore {
+    static final String SNAPSHOT = "sales_daily.csv";
+    static final String JOURNAL = "sales_daily.journal";
+    private static final long COMPACT_THRESHOLD_BYTES = 1024 * 1024;
+    private static final Set<OrderStatus> SOLD =
+            EnumSet.of(OrderStatus.PAID, OrderStatus.PACKING, OrderStatus.SHIPPED, OrderStatus.DELIVERED);
+
+    private static SalesRollupStore instance;
+
+    private final Map<String, DailySales> byKey = new ConcurrentHashMap<>(); // "day,product"
+    private BufferedWriter journal;
+    private long journalBytes;
+
+    private SalesRollupStore() throws IOException {
+        if (Files.exists(resolve(SNAPSHOT))) {
+            read(resolve(SNAPSHOT));
+            read(resolve(JOURNAL));
+        } else {
+            fillFromHistory();
+        }
+        compact();
+    }
+
+    /**
+     * Gets the process-wide store, loading or rebuilding it on first use.
+     *
+     * @return The shared SalesRollupStore instance
+     */
+    public static synchronized SalesRollupStore getInstance() {
+        if (instance == null) {
+            try {
+                instance = new SalesRollupStore();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot open sales rollups: " + e.getMessage(), e);
+            }
+        }
+        return instance;
+    }
+
+    /** True if orders in this status count as sales. */
+    public static boolean isSold(OrderStatus status) {
+        return SOLD.contains(status);
+    }
+
+    /**
+     * Applies an order's status change: adds its lines when it becomes sold,
+     * subtracts them when it stops being sold, and does nothing otherwise.
+     *
+     * @param order The order in its new state
+     * @param previous Its status before the change
+     */
+    public void statusChanged(Order order, OrderStatus previous) throws IOException {
+        boolean was = isSold(previous), now = isSold(order.getStatus());
+        if (was != now) apply(contributions(order, now ? 1 : -1));
+    }
+
+    /**
+     * Daily sales rows for a UTC date range, oldest day first.
+     *
+     * @param from First day, inclusive
+     * @param to Last day, inclusive
+     */
+    public List<DailySales> between(LocalDate from, LocalDate to) {
+        List<DailySales> rows = new ArrayList<>();
+        for (DailySales d : byKey.values()) {
+            if (!d.day().isBefore(from) && !d.day().isAfter(to)) rows.add(d);
+        }
+        rows.sort(Comparator.comparing(DailySales::day).thenComparing(DailySales::productId));
+        return rows;
+    }
+
+    /**
+     * Per-product totals for a UTC date range, summed over its days.
+     *
+     * @return Totals keyed by product id; the day of each total is the range's first day
+     */
+    public Map<String, DailySales> totalsByProduct(LocalDate from, LocalDate to) {
+        Map<String, DailySales> totals = new TreeMap<>();
+        for (DailySales d : between(from, to)) {
+            totals.merge(d.productId(), new DailySales(from, d.productId(), d.units(), d.revenue(), d.discount(), d.orders()),
+                    DailySales::plus);
+        }
+        return totals;
+    }
+
+    /**
+     * Discards the rollups and recomputes them from every stored order in one parallel pass.
+     */
+    public synchronized void rebuild() throws IOException {
+        byKey.clear();
+        fillFromHistory();
+        compact();
+    }
+
+    // ---- internals ----
+
+    private void fillFromHistory() throws IOException {
+        new OrderDataManager().forEachOrderParallel(o -> {
+            if (!isSold(o.getStatus())) return;
+            for (DailySales d : contributions(o, 1)) byKey.merge(key(d), d, DailySales::plus);
+        });
+    }
+
+    /** What one order adds to each (day, product) it touches, scaled by sign. */
+    private static Collection<DailySales> contributions(Order order, int sign) {
+        LocalDate day = LocalDate.ofInstant(order.getCreatedAt(), ZoneOffset.UTC);
+        double subtotal = order.getSubtotal();
+        double discountRate = subtotal > 0 ? Math.min(1, order.getDiscountTotal() / subtotal) : 0;
+        Map<String, DailySales> byProduct = new LinkedHashMap<>();
+        for (OrderItem it : order.getItems()) {
+            double line = it.lineTotal();
+            double discount = line * discountRate;
+            byProduct.merge(it.getProductId(),
+                    new DailySales(day, it.getProductId(), (long) sign * it.getQty(),
+                            sign * (line - discount), sign * discount, 0),
+                    DailySales::plus);
+        }
+        List<DailySales> out = new ArrayList<>(byProduct.size());
+        for (DailySales d : byProduct.values()) {
+            out.add(new DailySales(d.day(), d.productId(), d.units(), d.revenue(), d.discount(), sign)); // one order per product
+        }
+        return out;
+    }
+
+    private synchronized void apply(Collection<DailySales> deltas) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (DailySales d : deltas) {
+            byKey.merge(key(d), d, (x, y) -> {
+                DailySales sum = x.plus(y);
+                return sum.orders() == 0 && sum.units() == 0 ? null : sum; // last order taken back out
+            });
+            sb.append(toLine(d)).append('\n');
+        }
+        journal.write(sb.toString());
+        journal.flush();
+        journalBytes += sb.length();
+        if (journalBytes >= COMPACT_THRESHOLD_BYTES) compact();
+    }
+
+    /** Writes the snapshot from memory and starts an empty journal. */
+    private synchronized void compact() throws IOException {
+        if (journal != null) journal.close();
+        Path file = resolve(SNAPSHOT);
+        Path tmp = resolve(SNAPSHOT + ".tmp");
+        Files.createDirectories(file.getParent());
+        List<DailySales> rows = new ArrayList<>(byKey.values());
+        rows.sort(Comparator.comparing(DailySales::day).thenComparing(DailySales::productId));
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (DailySales d : rows) {
+                out.write(toLine(d));
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        journal = Files.newBufferedWriter(resolve(JOURNAL), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        journalBytes = 0;
+    }
+
+    /** Merges a snapshot or journal file into memory. Malformed lines are skipped. */
+    private void read(Path file) throws IOException {
+        if (!Files.exists(file)) return;
+        try (CsvCodec.RecordReader in = new CsvCodec.RecordReader(Files.newBufferedReader(file, StandardCharsets.UTF_8))) {
+            String[] r;
+            while ((r = in.next()) != null) {                // a product name may hold a quoted line break
+                if (r.length < 6) continue;
+                try {
+                    DailySales d = new DailySales(LocalDate.parse(r[0]), r[1], Long.parseLong(r[2]),
+                            Double.parseDouble(r[3]), Double.parseDouble(r[4]), Long.parseLong(r[5]));
+                    byKey.merge(key(d), d, DailySales::plus);
+                } catch (RuntimeException malformed) {
+                    // torn last line after a crash
+                }
+            }
+        }
+    }
+
+    private static String toLine(DailySales d) {
+        return CsvCodec.formatRow(d.day().toString(), d.productId(), String.valueOf(d.units()),
+                String.format(Locale.US, "%.4f", d.revenue()), String.format(Locale.US, "%.4f", d.discount()),
+                String.valueOf(d.orders()));
+    }
+
+    private static String key(DailySales d) {
+        return d.day() + "," + d.productId();
+    }
+
+    private static Path resolve(String filename) {
+        return DataSource.getInstance().resolve(filename);
+    }
+}
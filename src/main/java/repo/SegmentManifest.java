@@ -0,0 +1,95 @@
+package repo;
+
+import patterns.singleton.DataSource;
+import util.CsvCodec;
+import util.CsvUtil;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * List of order segments with their createdAt bounds, persisted as segments/manifest.csv:
+ *   key,min_created_at,max_created_at,order_count[,installing]
+ * The legacy segment (orders.csv/order_items.csv) is always present and always first.
+ *
+ * A compaction saves the manifest of the segments it wrote before moving their temp files
+ * into place, with those segments marked installing, and again once they are in place.
+ * The manifest is therefore the commit point: if the process dies in between, loading it
+ * finishes moving the marked segments' files in.
+ */
+final class SegmentManifest {
+    static final String FILE = OrderSegment.DIR + "/manifest.csv";
+    private static final String INSTALLING = "installing";
+
+    private SegmentManifest() {}
+
+    /**
+     * Opens every segment listed in the manifest, plus the legacy segment.
+     *
+     * @return Segments, legacy first and then by key (oldest day first)
+     */
+    static List<OrderSegment> load() throws IOException {
+        Map<String, String[]> entries = new TreeMap<>();
+        CsvUtil.forEach(FILE, r -> {
+            if (r.length >= 4) entries.put(r[0], r);
+            return true;
+        });
+
+        for (String[] r : entries.values()) {
+            if (r.length >= 5 && r[4].equals(INSTALLING)) OrderSegment.finishInstall(r[0]);
+        }
+
+        List<OrderSegment> segments = new ArrayList<>();
+        segments.add(open(OrderSegment.LEGACY, entries.remove(OrderSegment.LEGACY)));
+        for (Map.Entry<String, String[]> e : entries.entrySet()) segments.add(open(e.getKey(), e.getValue()));
+        save(segments);
+        return segments;
+    }
+
+    /**
+     * Writes the manifest for the given segments.
+     */
+    static void save(List<OrderSegment> segments) throws IOException {
+        save(segments, Set.of());
+    }
+
+    /**
+     * Writes the manifest for the given segments, marking the ones whose files are still
+     * waiting in temp files.
+     *
+     * @param installing Keys of the segments to mark
+     */
+    static void save(List<OrderSegment> segments, Set<String> installing) throws IOException {
+        Path file = resolve(FILE);
+        Path tmp = resolve(FILE + ".tmp");
+        Files.createDirectories(file.getParent());
+        try (BufferedWriter out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+            for (OrderSegment s : segments) {
+                String row = CsvCodec.formatRow(s.key,
+                        s.minCreatedAt == null ? "" : s.minCreatedAt.toString(),
+                        s.maxCreatedAt == null ? "" : s.maxCreatedAt.toString(),
+                        String.valueOf(s.orderCount));
+                out.write(installing.contains(s.key) ? row + "," + INSTALLING : row);
+                out.write('\n');
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static OrderSegment open(String key, String[] entry) throws IOException {
+        Instant min = entry == null || entry[1].isEmpty() ? null : Instant.parse(entry[1]);
+        Instant max = entry == null || entry[2].isEmpty() ? null : Instant.parse(entry[2]);
+        long count = entry == null ? 0 : Long.parseLong(entry[3]);
+        return OrderSegment.open(key, min, max, count);
+    }
+
+    private static Path resolve(String filename) {
+        return DataSource.getInstance().resolve(filename);
+    }
+}
@@ -1,15 +1,23 @@
 package service;
 
+import model.DomainEvent;
 import model.Order;
 import model.OrderItem;
 import model.OrderStatus;
 import patterns.command.DiscountCommand;
+import patterns.observer.EventPublisher;
 import patterns.observer.InventorySubject;
 import repo.OrderDataManager;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
 import java.util.function.BiConsumer;
 
 /**
@@ -21,12 +29,21 @@ import java.util.function.BiConsumer;
  *   BackendFacade.init();
  *   Order o = BackendFacade.checkout(userId, cartItems, discounts);
  *
+ * Safe to call from several threads: initialization happens once and checkouts
+ * of the same product never sell more stock than exists.
+ *
  * @since 2025-11-22
  */
 public final class BackendFacade {
-    private static InventorySubject subject;
-    private static InventoryService inventory;
-    private static OrderService orders;
+    private static volatile InventorySubject subject;
+    private static volatile InventoryService inventory;
+    private static volatile OrderService orders;
+    private static volatile CheckoutPipeline pipeline;
+    // -Dcandystore.checkout.mode=pipeline routes checkout() through the single-writer pipeline
+    private static final boolean PIPELINED =
+            "pipeline".equals(System.getProperty("candystore.checkout.mode", "direct").toLowerCase(Locale.ROOT));
+
+    private static final Duration LOW_STOCK_COALESCE = Duration.ofMillis(250);
 
     private BackendFacade() {}
 
@@ -36,10 +53,15 @@ public final class BackendFacade {
      */
     public static void init() {
         if (orders != null) return; // already initialized
-        subject = new InventorySubject();
-        inventory = new InventoryService(subject);
-        inventory.setLowStockThreshold(10); // Default threshold for low stock alerts
-        orders = new OrderService(new OrderDataManager(), inventory);
+        synchronized (BackendFacade.class) {
+            if (orders != null) return;
+            subject = new InventorySubject(LOW_STOCK_COALESCE); // alerts arrive off the checkout thread
+            inventory = new InventoryService(subject);
+            inventory.setLowStockThreshold(10); // Default threshold for low stock alerts
+            OrderService service = new OrderService(new OrderDataManager(), inventory);
+            pipeline = new CheckoutPipeline(service, inventory);
+            orders = service; // published last
+        }
     }
 
     /**
@@ -52,6 +74,19 @@ public final class BackendFacade {
         subject.attach((productId, qty) -> handler.accept(productId, qty));
     }
 
+    /**
+     * Subscribes to inventory and order events (stock changes, items added or deleted,
+     * orders placed, status changes) instead of polling the data files.
+     *
+     * @param subscriber Receives events as it requests them
+     * @param capacity Events buffered for this subscriber while it is busy
+     * @param overflow What to discard when the buffer is full
+     */
+    public static void subscribe(Flow.Subscriber<? super DomainEvent> subscriber, int capacity,
+                                 EventPublisher.Overflow overflow) {
+        EventPublisher.getInstance().subscribe(subscriber, capacity, overflow);
+    }
+
     /**
      * Gets the inventory service instance.
      * Initializes if not already done.
@@ -83,22 +118,95 @@ public final class BackendFacade {
         inventory.setLowStockThreshold(threshold);
     }
 
-    /** Convert UI cart → place order → apply discounts → decrement inventory → mark PAID */
+    /**
+     * Convert UI cart → place order → apply discounts → take inventory → mark PAID.
+     * If any product is short the order is marked CANCELLED and no stock is taken.
+     *
+     * @throws IllegalStateException If the cart asks for more than is in stock
+     */
     public static Order checkout(String userId, List<UiCartItem> cart, List<DiscountCommand> discounts) throws IOException {
+        return checkout(userId, cart, discounts, List.of());
+    }
+
+    /**
+     * Checkout for a cart whose items were held with {@link InventoryService#reserve}.
+     * Held units are used first, so the order cannot fail for stock the cart already holds.
+     *
+     * @param reservationIds Holds placed while the cart was filled; all are consumed on success
+     * @throws IllegalStateException If the cart asks for more than it holds plus what is available
+     */
+    public static Order checkout(String userId, List<UiCartItem> cart, List<DiscountCommand> discounts,
+                                 Collection<String> reservationIds) throws IOException {
         if (orders == null) init();
-        List<OrderItem> items = new ArrayList<>();
-        for (UiCartItem c : cart) {
-            items.add(new OrderItem(c.productId(), c.name(), c.qty(), c.unitPrice()));
+        boolean pipelined = PIPELINED && reservationIds.isEmpty(); // the pipeline sells from available stock only
+        long start = System.nanoTime();
+        try {
+            Order o = pipelined ? checkoutPipelined(userId, cart, discounts) : checkoutDirect(userId, cart, discounts, reservationIds);
+            CheckoutMetrics.PAID.increment();
+            return o;
+        } catch (IllegalStateException e) {
+            CheckoutMetrics.REJECTED.increment();
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            CheckoutMetrics.FAILED.increment();
+            throw e;
+        } finally {
+            (pipelined ? CheckoutMetrics.PIPELINE : CheckoutMetrics.DIRECT).recordSince(start);
         }
+    }
+
+    private static Order checkoutPipelined(String userId, List<UiCartItem> cart, List<DiscountCommand> discounts) throws IOException {
+        try {
+            return checkoutAsync(userId, cart, discounts).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException io) throw io;
+            if (e.getCause() instanceof RuntimeException re) throw re;
+            throw e;
+        }
+    }
+
+    private static Order checkoutDirect(String userId, List<UiCartItem> cart, List<DiscountCommand> discounts,
+                                        Collection<String> reservationIds) throws IOException {
+        long t = System.nanoTime();
+        List<OrderItem> items = toOrderItems(cart);
         Order o = orders.createOrder(userId, items);
+        t = CheckoutMetrics.lap(CheckoutMetrics.CREATE, t);
         if (discounts != null && !discounts.isEmpty()) {
             orders.applyDiscounts(o, discounts);
+            t = CheckoutMetrics.lap(CheckoutMetrics.DISCOUNTS, t);
+        }
+        try {
+            orders.takeInventoryFor(o, reservationIds);
+        } catch (IllegalStateException e) {
+            orders.advanceStatus(o, OrderStatus.CANCELLED);
+            throw e;
+        } finally {
+            t = CheckoutMetrics.lap(CheckoutMetrics.TAKE_STOCK, t);
         }
-        orders.decrementInventoryFor(o);
         orders.advanceStatus(o, OrderStatus.PAID); // mock payment success
+        CheckoutMetrics.lap(CheckoutMetrics.PAY, t);
         return o;
     }
 
+    /**
+     * Queues a checkout on the single-writer pipeline, which saves orders in batches.
+     * The order is never saved in an intermediate state: it lands as PAID or CANCELLED.
+     *
+     * @return Completes with the PAID order; fails with IllegalStateException if stock is short
+     */
+    public static CompletableFuture<Order> checkoutAsync(String userId, List<UiCartItem> cart, List<DiscountCommand> discounts) {
+        if (orders == null) init();
+        return pipeline.submit(userId, toOrderItems(cart), discounts);
+    }
+
+    private static List<OrderItem> toOrderItems(List<UiCartItem> cart) {
+        List<OrderItem> items = new ArrayList<>();
+        for (UiCartItem c : cart) {
+            items.add(new OrderItem(c.productId(), c.name(), c.qty(), c.unitPrice()));
+        }
+        return items;
+    }
+
     /** Load all orders for a user (Order History screen) */
     public static List<Order> ordersForUser(String userId) {
         return new OrderDataManager().getOrdersByUser(userId);
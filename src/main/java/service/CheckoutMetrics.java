@@ -0,0 +1,47 @@
+package service;
+
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
+
+/**
+ * Meters shared by the direct checkout path and the checkout pipeline.
+ *   checkout_seconds{mode}        whole checkout as the caller sees it
+ *   checkout_step_seconds{step}   each step; pipeline steps are per batch
+ *   checkout_total{outcome}       paid, rejected (not enough stock) or failed
+ */
+final class CheckoutMetrics {
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getInstance();
+
+    static final LatencyHistogram DIRECT = REGISTRY.histogram("checkout_seconds", "mode", "direct");
+    static final LatencyHistogram PIPELINE = REGISTRY.histogram("checkout_seconds", "mode", "pipeline");
+
+    static final LatencyHistogram CREATE = step("create");
+    static final LatencyHistogram DISCOUNTS = step("discounts");
+    static final LatencyHistogram TAKE_STOCK = step("take_stock");
+    static final LatencyHistogram PAY = step("pay");
+    static final LatencyHistogram BATCH_DRAFT = step("batch_draft");
+    static final LatencyHistogram BATCH_TAKE_STOCK = step("batch_take_stock");
+    static final LatencyHistogram BATCH_SAVE = step("batch_save");
+
+    static final Counter PAID = outcome("paid");
+    static final Counter REJECTED = outcome("rejected");
+    static final Counter FAILED = outcome("failed");
+
+    private CheckoutMetrics() {}
+
+    /** Records the time since the previous lap and starts the next one. */
+    static long lap(LatencyHistogram step, long since) {
+        long now = System.nanoTime();
+        step.record(now - since);
+        return now;
+    }
+
+    private static LatencyHistogram step(String name) {
+        return REGISTRY.histogram("checkout_step_seconds", "step", name);
+    }
+
+    private static Counter outcome(String name) {
+        return REGISTRY.counter("checkout_total", "outcome", name);
+    }
+}
@@ -0,0 +1,159 @@
+package service;
+
+import model.Order;
+import model.OrderItem;
+import model.OrderStatus;
+import patterns.command.DiscountCommand;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Single-writer checkout pipeline.
+ * Callers enqueue checkout requests into a bounded ring buffer and get a future back;
+ * one writer thread drains the buffer in batches and, per batch:
+ *   prices each order and applies its discounts,
+ *   takes stock for all of them with one inventory write (each order all-or-nothing),
+ *   saves every order in its final state (PAID or CANCELLED) with one journal write.
+ *
+ * Because only the writer touches the files, a burst of checkouts costs a few writes
+ * per batch instead of several per order. A full buffer blocks callers (back-pressure)
+ * rather than letting the queue, and latency, grow without bound.
+ *
+ * The writer starts with the first checkout. If a batch fails unexpectedly, stock taken for
+ * orders that were not saved is given back, every request of the batch still pending fails
+ * with the error, and the writer goes on with the next batch.
+ */
+public final class CheckoutPipeline {
+    static final int CAPACITY = 4096;
+    static final int MAX_BATCH = 256;
+
+    private record Request(String userId, List<OrderItem> items, List<DiscountCommand> discounts,
+                           CompletableFuture<Order> result) {}
+
+    private final OrderService orders;
+    private final InventoryService inventory;
+    private final BlockingQueue<Request> ring = new ArrayBlockingQueue<>(CAPACITY);
+    private Thread writer;
+    private Map<String, Integer> unsaved = Map.of(); // stock taken for the current batch, until it is saved; writer thread only
+
+    CheckoutPipeline(OrderService orders, InventoryService inventory) {
+        this.orders = orders;
+        this.inventory = inventory;
+    }
+
+    /**
+     * Queues a checkout, waiting for room if the buffer is full.
+     *
+     * @return Completes with the PAID order; fails with IllegalStateException if stock is short
+     *         (the order is saved as CANCELLED), or with IOException if the batch could not be saved
+     */
+    CompletableFuture<Order> submit(String userId, List<OrderItem> items, List<DiscountCommand> discounts) {
+        CompletableFuture<Order> result = new CompletableFuture<>();
+        startWriter();
+        try {
+            ring.put(new Request(userId, List.copyOf(items), discounts == null ? List.of() : List.copyOf(discounts), result));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    private synchronized void startWriter() {
+        if (writer != null) return;
+        writer = new Thread(this::run, "checkout-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void run() {
+        List<Request> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(ring.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            ring.drainTo(batch, MAX_BATCH - 1);
+            try {
+                process(batch);
+            } catch (Throwable t) {
+                giveBack(unsaved);
+                for (Request r : batch) r.result().completeExceptionally(t); // no-op for those already completed
+            } finally {
+                unsaved = Map.of();
+                batch.clear();
+            }
+        }
+    }
+
+    private void process(List<Request> batch) {
+        long t = System.nanoTime();
+        List<Request> accepted = new ArrayList<>(batch.size());
+        List<Order> drafts = new ArrayList<>(batch.size());
+        List<Map<String, Integer>> quantities = new ArrayList<>(batch.size());
+        for (Request r : batch) {
+            try {
+                Order o = orders.draftOrder(r.userId(), r.items(), r.discounts());
+                accepted.add(r);
+                drafts.add(o);
+                quantities.add(OrderService.quantitiesFor(o));
+            } catch (RuntimeException e) {
+                r.result().completeExceptionally(e); // e.g. a discount that rejects the order
+            }
+        }
+        if (drafts.isEmpty()) return;
+        t = CheckoutMetrics.lap(CheckoutMetrics.BATCH_DRAFT, t);
+
+        List<RuntimeException> refused = inventory.takeStock(quantities);
+        t = CheckoutMetrics.lap(CheckoutMetrics.BATCH_TAKE_STOCK, t);
+
+        Map<String, Integer> taken = new LinkedHashMap<>();
+        for (int i = 0; i < refused.size(); i++) {
+            if (refused.get(i) == null) quantities.get(i).forEach((name, qty) -> taken.merge(name, qty, Integer::sum));
+        }
+        unsaved = taken;
+        for (int i = 0; i < drafts.size(); i++) {
+            drafts.get(i).setStatus(refused.get(i) == null ? OrderStatus.PAID : OrderStatus.CANCELLED); // mock payment success
+        }
+
+        try {
+            orders.saveAll(drafts);
+        } catch (IOException e) {
+            CheckoutMetrics.lap(CheckoutMetrics.BATCH_SAVE, t);
+            giveBack(taken); // orders were not recorded
+            unsaved = Map.of();
+            for (Request r : accepted) r.result().completeExceptionally(e);
+            return;
+        }
+        unsaved = Map.of();
+        CheckoutMetrics.lap(CheckoutMetrics.BATCH_SAVE, t);
+        try {
+            orders.announceAll(drafts);
+        } catch (RuntimeException e) {
+            System.err.println("Error announcing saved orders: " + e.getMessage()); // the orders stand
+        }
+
+        for (int i = 0; i < drafts.size(); i++) {
+            if (refused.get(i) == null) accepted.get(i).result().complete(drafts.get(i));
+            else accepted.get(i).result().completeExceptionally(refused.get(i));
+        }
+    }
+
+    /** Returns stock taken for orders that were not saved. */
+    private void giveBack(Map<String, Integer> taken) {
+        if (taken.isEmpty()) return;
+        try {
+            inventory.adjustStock(taken);
+        } catch (RuntimeException e) {
+            System.err.println("Error returning stock after failed order save: " + e.getMessage());
+        }
+    }
+}
@@ -1,27 +1,75 @@
 package service;
 
+import model.DomainEvent;
 import model.InventoryItem;
+import model.Reservation;
+import patterns.observer.EventPublisher;
 import patterns.observer.InventorySubject;
 import repo.InventoryDataManager;
+import util.TimingWheel;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Service layer for managing inventory operations.
  * Integrates with InventoryDataManager for persistence and InventorySubject for low stock notifications.
  * Uses the Observer pattern to notify when stock levels are low.
  *
+ * Thread-safe: stock levels are per-product atomic counters updated with compare-and-set,
+ * so concurrent checkouts never lose an update and {@link #takeStock} never oversells.
+ *
+ * The counters are authoritative; inventory.csv follows them. A stock change only marks its
+ * products dirty, and a single background writer saves the dirty products shortly after,
+ * so a burst of checkouts costs one write instead of one each. {@link #flush} writes them
+ * right away, and a shutdown hook writes whatever is left at exit; a crash loses at most the
+ * changes of the last {@value #FLUSH_DELAY_MS} ms from the file.
+ *
+ * Carts can hold stock with {@link #reserve}; held units are not available to anyone else
+ * until the hold is released, checked out, or expires (a timing wheel releases expired holds).
+ * On-hand stock ({@link #getStock}) and available-to-sell ({@link #getAvailable}) are reported
+ * separately. Holds live in memory only; a restart releases them all.
+ *
  * @version 1.0
  * @since 2025-11-22
  */
 public class InventoryService {
+    /** How long an add-to-cart hold lasts unless the caller asks otherwise. */
+    public static final Duration DEFAULT_HOLD = Duration.ofMinutes(15);
+    /** How long stock changes gather before the writer saves them. */
+    public static final long FLUSH_DELAY_MS = 50;
+    private static final long FLUSH_RETRY_MS = 1000;
+
     private final InventorySubject subject;
     private final InventoryDataManager dataManager;
-    private final Map<String,Integer> stock = new HashMap<>();
-    private int lowStockThreshold = 10; // Default threshold
+    private final EventPublisher events = EventPublisher.getInstance();
+    private final Map<String, StockLevel> stock = new ConcurrentHashMap<>();
+    private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+    private final TimingWheel<String> holdExpiry = new TimingWheel<>(100, this::expire, "stock-hold-expiry");
+    private final Object persistLock = new Object();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet();   // changed since the last write
+    private final AtomicBoolean flushQueued = new AtomicBoolean();
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "inventory-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile int lowStockThreshold = 10; // Default threshold
+
+    /** A live reservation and its expiry timer. */
+    private static final class Hold {
+        final Reservation reservation;
+        volatile TimingWheel.Timeout<String> timer;
+
+        Hold(Reservation reservation) { this.reservation = reservation; }
+    }
 
     /**
      * Constructs an InventoryService with the specified observer subject.
@@ -32,17 +80,20 @@ public class InventoryService {
         this.subject = subject;
         this.dataManager = new InventoryDataManager();
         loadInventoryFromCsv();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flushQuietly, "inventory-flush-shutdown"));
     }
 
     /**
      * Loads inventory data from CSV into memory.
-     * Initializes stock levels for all items.
+     * Initializes stock levels for all items; existing holds are kept.
      */
     private void loadInventoryFromCsv() {
-        List<InventoryItem> items = dataManager.getAllItems();
-        for (InventoryItem item : items) {
-            stock.put(item.getName(), item.getQuantity());
+        Set<String> names = new HashSet<>();
+        for (InventoryItem item : dataManager.getAllItems()) {
+            level(item.getName()).setOnHand(item.getQuantity());
+            names.add(item.getName());
         }
+        stock.keySet().retainAll(names);
     }
 
     /**
@@ -65,30 +116,15 @@ public class InventoryService {
 
     /**
      * Sets the stock quantity for a product and notifies observers if low.
-     * Updates both in-memory stock and persists to CSV.
+     * Updates in-memory stock; the CSV is written by the background writer.
      *
      * @param productName The name of the product
      * @param qty The new quantity
      */
     public void setStock(String productName, int qty) {
-        stock.put(productName, qty);
-        if (qty <= lowStockThreshold) {
-            subject.notifyLowStock(productName, qty);
-        }
-
-        // Persist to CSV
-        try {
-            dataManager.getItem(productName).ifPresent(item -> {
-                item.setQuantity(qty);
-                try {
-                    dataManager.saveItem(item);
-                } catch (IOException e) {
-                    System.err.println("Error updating stock in CSV: " + e.getMessage());
-                }
-            });
-        } catch (Exception e) {
-            System.err.println("Error setting stock: " + e.getMessage());
-        }
+        level(productName).setOnHand(qty);
+        markDirty(List.of(productName));
+        stockChanged(productName, qty);
     }
 
     /**
@@ -99,18 +135,363 @@ public class InventoryService {
      * @param by The amount to decrement by
      */
     public void decrement(String productName, int by) {
-        int newQty = stock.getOrDefault(productName, 0) - by;
-        setStock(productName, Math.max(0, newQty));
+        adjustStock(Map.of(productName, -by));
+    }
+
+    /**
+     * Applies a set of stock changes as one unit.
+     * Each delta is added to the product's current quantity and the result is clamped at zero.
+     * The changed items are marked for the background writer.
+     *
+     * @param deltas Quantity change per product name (negative to take stock out)
+     * @return The new quantity of every product in the batch
+     * @throws IllegalArgumentException If a product name is blank or not in the inventory;
+     *         nothing has been changed
+     */
+    public Map<String, Integer> adjustStock(Map<String, Integer> deltas) {
+        Map<String, StockLevel> levels = new LinkedHashMap<>();
+        for (String productName : deltas.keySet()) {
+            requireName(productName);
+            StockLevel level = stock.get(productName);
+            if (level == null) throw new IllegalArgumentException("Unknown product: " + productName);
+            levels.put(productName, level);
+        }
+
+        Map<String, Integer> updated = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> d : deltas.entrySet()) {
+            StockLevel level = levels.get(d.getKey());
+            level.add(d.getValue());
+            updated.put(d.getKey(), level.onHand());
+        }
+        markDirty(updated.keySet());
+        notifyIfLow(updated);
+        return updated;
+    }
+
+    /**
+     * Removes stock for a whole order, or nothing at all.
+     * Each line is taken with a compare-and-set that only succeeds while enough stock remains,
+     * so concurrent callers can never drive a product below zero. If any line cannot be covered,
+     * lines already taken are given back and the call fails without changing anything.
+     *
+     * @param quantities Quantity to take per product name; all must be positive
+     * @return The new quantity of every product taken from
+     * @throws IllegalStateException If a product does not have enough stock
+     */
+    public Map<String, Integer> takeStock(Map<String, Integer> quantities) {
+        return takeStock(quantities, List.of());
+    }
+
+    /**
+     * Removes stock for a whole order, using the cart's holds first.
+     * Held units of a product count towards that product's quantity; the rest must be
+     * available to sell. Holds that have already expired simply contribute nothing.
+     * On success every given hold is consumed, including any held units the order did not need.
+     * On failure nothing is taken and the holds stay in place.
+     *
+     * @param quantities Quantity to take per product name; all must be positive
+     * @param reservationIds Holds placed by this cart
+     * @return The new on-hand quantity of every product taken from
+     * @throws IllegalStateException If a product does not have enough stock
+     */
+    public Map<String, Integer> takeStock(Map<String, Integer> quantities, Collection<String> reservationIds) {
+        List<Hold> claimed = new ArrayList<>();
+        Map<String, Integer> heldTotal = new HashMap<>();
+        for (String id : reservationIds) {
+            Hold h = holds.remove(id);
+            if (h == null) continue;
+            holdExpiry.cancel(h.timer);
+            claimed.add(h);
+            heldTotal.merge(h.reservation.productName(), h.reservation.qty(), Integer::sum);
+        }
+        Map<String, Integer> fromHeld = new HashMap<>();
+        heldTotal.forEach((name, held) -> fromHeld.put(name, Math.min(held, quantities.getOrDefault(name, 0))));
+
+        Map<String, Integer> updated;
+        try {
+            updated = take(quantities, fromHeld);
+        } catch (RuntimeException e) {
+            restore(claimed);
+            throw e;
+        }
+        markDirty(updated.keySet());
+        // Held units the order did not use go back on sale
+        heldTotal.forEach((name, held) -> {
+            int unused = held - fromHeld.get(name);
+            StockLevel level = stock.get(name);
+            if (unused > 0 && level != null) level.release(unused);
+        });
+        notifyIfLow(updated);
+        return updated;
+    }
+
+    /**
+     * Takes stock for several orders at once.
+     * Each order is still all-or-nothing on its own: an order that cannot be covered is
+     * skipped and the others go ahead.
+     *
+     * @param orders Quantity to take per product name, one map per order
+     * @return One entry per order: null if its stock was taken, otherwise why it was refused
+     */
+    public List<RuntimeException> takeStock(List<Map<String, Integer>> orders) {
+        List<RuntimeException> refused = new ArrayList<>(orders.size());
+        Map<String, Integer> takenTotal = new LinkedHashMap<>();
+        for (Map<String, Integer> quantities : orders) {
+            try {
+                take(quantities, Map.of());
+                quantities.forEach((name, qty) -> takenTotal.merge(name, qty, Integer::sum));
+                refused.add(null);
+            } catch (IllegalStateException | IllegalArgumentException e) {
+                refused.add(e);
+            }
+        }
+        if (takenTotal.isEmpty()) return refused;
+
+        markDirty(takenTotal.keySet());
+        Map<String, Integer> updated = new LinkedHashMap<>();
+        for (String name : takenTotal.keySet()) updated.put(name, getStock(name));
+        notifyIfLow(updated);
+        return refused;
+    }
+
+    /**
+     * Takes every line in memory or, if one falls short, none of them.
+     *
+     * @param fromHeld Units per product to take out of holds the caller owns rather than available stock
+     */
+    private Map<String, Integer> take(Map<String, Integer> quantities, Map<String, Integer> fromHeld) {
+        for (Map.Entry<String, Integer> q : quantities.entrySet()) {
+            requireName(q.getKey());
+            if (q.getValue() <= 0) throw new IllegalArgumentException("Quantity must be positive: " + q.getKey());
+        }
+
+        Map<String, Integer> taken = new LinkedHashMap<>();
+        Map<String, Integer> updated = new LinkedHashMap<>();
+        for (Map.Entry<String, Integer> q : quantities.entrySet()) {
+            StockLevel level = stock.get(q.getKey());
+            int held = fromHeld.getOrDefault(q.getKey(), 0);
+            int after = level == null ? -1 : level.take(q.getValue(), held);
+            if (after < 0) {
+                giveBack(taken, fromHeld);
+                throw new IllegalStateException("Not enough stock for " + q.getKey()
+                        + ": requested " + q.getValue() + ", available "
+                        + (level == null ? 0 : level.available() + held));
+            }
+            taken.put(q.getKey(), q.getValue());
+            updated.put(q.getKey(), after);
+        }
+        return updated;
+    }
+
+    private void giveBack(Map<String, Integer> taken, Map<String, Integer> toHeld) {
+        for (Map.Entry<String, Integer> t : taken.entrySet()) {
+            level(t.getKey()).giveBack(t.getValue(), toHeld.getOrDefault(t.getKey(), 0));
+        }
+        markDirty(taken.keySet());  // a write may have caught the level mid-take
+    }
+
+    // ---- reservations ----
+
+    /**
+     * Holds stock for a cart for {@link #DEFAULT_HOLD}.
+     *
+     * @see #reserve(String, int, Duration)
+     */
+    public Reservation reserve(String productName, int qty) {
+        return reserve(productName, qty, DEFAULT_HOLD);
+    }
+
+    /**
+     * Holds stock for a cart. The units leave available-to-sell immediately but stay on hand
+     * until checkout; if the hold is neither checked out nor released in time it lapses
+     * and the units go back on sale.
+     *
+     * @param productName The product to hold
+     * @param qty Units to hold; must be positive
+     * @param ttl How long the hold lasts
+     * @return The hold; pass its id to {@link #release} or to checkout
+     * @throws IllegalStateException If fewer than qty units are available to sell
+     */
+    public Reservation reserve(String productName, int qty, Duration ttl) {
+        requireName(productName);
+        if (qty <= 0) throw new IllegalArgumentException("Quantity must be positive: " + productName);
+        StockLevel level = stock.get(productName);
+        if (level == null || !level.hold(qty)) {
+            throw new IllegalStateException("Not enough stock for " + productName + ": requested " + qty
+                    + ", available " + (level == null ? 0 : level.available()));
+        }
+        Reservation r = new Reservation(UUID.randomUUID().toString(), productName, qty, Instant.now().plus(ttl));
+        schedule(new Hold(r));
+        availabilityChanged(productName);
+        return r;
+    }
+
+    /**
+     * Releases a hold early (item removed from the cart, cart cleared).
+     *
+     * @param reservationId The hold's id
+     * @return False if the hold had already expired, been released or been checked out
+     */
+    public boolean release(String reservationId) {
+        Hold h = holds.remove(reservationId);
+        if (h == null) return false;
+        holdExpiry.cancel(h.timer);
+        StockLevel level = stock.get(h.reservation.productName());
+        if (level != null) level.release(h.reservation.qty());
+        availabilityChanged(h.reservation.productName());
+        return true;
+    }
+
+    /**
+     * Looks up a live hold.
+     *
+     * @param reservationId The hold's id
+     * @return The hold, or empty if it has expired, been released or been checked out
+     */
+    public Optional<Reservation> getReservation(String reservationId) {
+        return Optional.ofNullable(holds.get(reservationId)).map(h -> h.reservation);
     }
 
     /**
-     * Gets the current stock quantity for a product.
+     * Units that can still be sold or held: on hand minus everything held by carts.
+     *
+     * @param productName The name of the product
+     * @return Available-to-sell quantity, or 0 if not found
+     */
+    public int getAvailable(String productName) {
+        StockLevel level = stock.get(productName);
+        return level == null ? 0 : level.available();
+    }
+
+    /**
+     * Units of a product currently held by carts.
+     *
+     * @param productName The name of the product
+     * @return Held quantity, or 0 if none
+     */
+    public int getHeld(String productName) {
+        StockLevel level = stock.get(productName);
+        return level == null ? 0 : level.held();
+    }
+
+    private void schedule(Hold h) {
+        holds.put(h.reservation.id(), h); // before the timer, so an early expiry always finds it
+        // A release or checkout on another thread may take the hold before timer is set; it then
+        // cancels null, which the wheel ignores, and the expiry later finds no hold and does nothing
+        h.timer = holdExpiry.schedule(h.reservation.id(), h.reservation.expiresAt().toEpochMilli());
+    }
+
+    private void expire(String reservationId) {
+        Hold h = holds.remove(reservationId);
+        if (h == null) return;
+        StockLevel level = stock.get(h.reservation.productName());
+        if (level != null) level.release(h.reservation.qty());
+        availabilityChanged(h.reservation.productName());
+    }
+
+    /** Puts claimed holds back after a failed checkout; ones that lapsed meanwhile are released. */
+    private void restore(List<Hold> claimed) {
+        for (Hold h : claimed) {
+            if (h.reservation.expiresAt().isAfter(Instant.now())) {
+                schedule(new Hold(h.reservation));
+            } else {
+                StockLevel level = stock.get(h.reservation.productName());
+                if (level != null) level.release(h.reservation.qty());
+            }
+        }
+    }
+
+    private void notifyIfLow(Map<String, Integer> quantities) {
+        for (Map.Entry<String, Integer> q : quantities.entrySet()) stockChanged(q.getKey(), q.getValue());
+    }
+
+    /**
+     * Publishes a product's new level, and reports it to the low-stock subject,
+     * which decides whether observers hear about it.
+     */
+    private void stockChanged(String productName, int qty) {
+        if (qty <= lowStockThreshold) subject.notifyLowStock(productName, qty);
+        else subject.notifyRestocked(productName);
+        events.publish(new DomainEvent.StockChanged(productName, qty, getAvailable(productName)));
+    }
+
+    /** Publishes a change in what is held, which moves available-to-sell but not on hand. */
+    private void availabilityChanged(String productName) {
+        events.publish(new DomainEvent.StockChanged(productName, getStock(productName), getAvailable(productName)));
+    }
+
+    /**
+     * Writes the stock of every product changed since the last write to the CSV, in one write.
+     * Products leave the dirty set before their counters are read, so a change racing with
+     * the write marks its product again and is written next time, never lost.
+     *
+     * @throws IOException If the CSV write fails; the products stay dirty
+     */
+    public void flush() throws IOException {
+        synchronized (persistLock) {
+            if (dirty.isEmpty()) return;
+            List<String> names = new ArrayList<>(dirty);
+            dirty.removeAll(names);
+            List<InventoryItem> changed = new ArrayList<>();
+            for (String productName : names) {
+                dataManager.getItem(productName).ifPresent(item -> {
+                    item.setQuantity(getStock(productName));
+                    changed.add(item);
+                });
+            }
+            try {
+                dataManager.saveItems(changed);
+            } catch (IOException e) {
+                dirty.addAll(names);
+                throw e;
+            }
+        }
+    }
+
+    /** Marks products for the writer, waking it unless a write is already queued. */
+    private void markDirty(Collection<String> productNames) {
+        dirty.addAll(productNames);
+        if (flushQueued.compareAndSet(false, true)) writer.schedule(this::runFlush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void runFlush() {
+        flushQueued.set(false);     // changes from here on queue another write
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Error updating stock in CSV: " + e.getMessage());
+            if (flushQueued.compareAndSet(false, true)) writer.schedule(this::runFlush, FLUSH_RETRY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (IOException e) {
+            System.err.println("Error updating stock in CSV: " + e.getMessage());
+        }
+    }
+
+    private StockLevel level(String productName) {
+        return stock.computeIfAbsent(productName, k -> new StockLevel());
+    }
+
+    private static void requireName(String productName) {
+        if (productName == null || productName.isBlank()) {
+            throw new IllegalArgumentException("Stock adjustment needs a product name");
+        }
+    }
+
+    /**
+     * Gets the current on-hand stock quantity for a product, including units held by carts.
      *
      * @param productName The name of the product
      * @return The current stock quantity, or 0 if not found
+     * @see #getAvailable(String)
      */
     public int getStock(String productName) {
-        return stock.getOrDefault(productName, 0);
+        StockLevel level = stock.get(productName);
+        return level == null ? 0 : level.onHand();
     }
 
     /**
@@ -157,10 +538,8 @@ public class InventoryService {
      */
     public void updateItem(InventoryItem item) throws IOException {
         dataManager.saveItem(item);
-        stock.put(item.getName(), item.getQuantity());
-        if (item.getQuantity() <= lowStockThreshold) {
-            subject.notifyLowStock(item.getName(), item.getQuantity());
-        }
+        level(item.getName()).setOnHand(item.getQuantity());
+        stockChanged(item.getName(), item.getQuantity());
     }
 
     /**
@@ -171,7 +550,9 @@ public class InventoryService {
      */
     public void addItem(InventoryItem item) throws IOException {
         dataManager.saveItem(item);
-        stock.put(item.getName(), item.getQuantity());
+        level(item.getName()).setOnHand(item.getQuantity());
+        events.publish(new DomainEvent.ItemAdded(
+                new InventoryItem(item.getName(), item.getType(), item.getPrice(), item.getQuantity())));
     }
 
     /**
@@ -183,14 +564,17 @@ public class InventoryService {
     public void deleteItem(String productName) throws IOException {
         dataManager.deleteItem(productName);
         stock.remove(productName);
+        events.publish(new DomainEvent.ItemDeleted(productName));
     }
 
     /**
      * Reloads inventory data from CSV.
-     * Useful after external changes to the CSV file.
+     * Useful after external changes to the CSV file. Pending stock changes are written first
+     * so the reload does not drop them.
      */
     public void refresh() {
-        stock.clear();
+        flushQuietly();
+        dataManager.reload();
         loadInventoryFromCsv();
     }
 }
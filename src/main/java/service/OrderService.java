@@ -2,16 +2,23 @@ package service;
 
 import model.*;
 import patterns.command.DiscountCommand;
+import patterns.observer.EventPublisher;
 import repo.OrderDataManager;
+import repo.SalesRollupStore;
 
 import java.io.IOException;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 public class OrderService {
     private final OrderDataManager orders;
     private final InventoryService inventory;
+    private final EventPublisher events = EventPublisher.getInstance();
+    private final SalesRollupStore rollups = SalesRollupStore.getInstance();
 
     public OrderService(OrderDataManager orders, InventoryService inventory) {
         this.orders = orders; this.inventory = inventory;
@@ -21,26 +28,106 @@ public class OrderService {
         Order order = new Order(newId(), customerId, Instant.now());
         for (OrderItem it : items) order.addItem(it);
         orders.saveOrder(order);
+        events.publish(new DomainEvent.OrderPlaced(snapshot(order, order.getStatus())));
         return order;
     }
 
+    /**
+     * Builds and prices an order with its discounts applied, without saving it.
+     * Used by the checkout pipeline, which saves whole batches at once.
+     */
+    Order draftOrder(String customerId, List<OrderItem> items, List<DiscountCommand> discounts) {
+        Order order = new Order(newId(), customerId, Instant.now());
+        for (OrderItem it : items) order.addItem(it);
+        if (discounts != null) {
+            for (DiscountCommand d : discounts) d.apply(order);
+        }
+        return order;
+    }
+
+    /** Saves a batch of orders, already in their final status, with one journal write. */
+    void saveAll(List<Order> batch) throws IOException {
+        orders.saveOrders(batch);
+    }
+
+    /** Updates the rollups and publishes the events for a batch saved by {@link #saveAll}. */
+    void announceAll(List<Order> batch) {
+        for (Order o : batch) {
+            updateRollups(o, OrderStatus.PLACED);
+            events.publish(new DomainEvent.OrderPlaced(snapshot(o, OrderStatus.PLACED)));
+            events.publish(new DomainEvent.OrderStatusAdvanced(snapshot(o, o.getStatus()), OrderStatus.PLACED));
+        }
+    }
+
+    /** Stock an order needs, merged per product. */
+    static Map<String, Integer> quantitiesFor(Order order) {
+        Map<String, Integer> quantities = new LinkedHashMap<>();
+        for (OrderItem it : order.getItems()) {
+            quantities.merge(it.getProductId(), it.getQty(), Integer::sum);
+        }
+        return quantities;
+    }
+
     public void applyDiscounts(Order order, List<DiscountCommand> discounts) throws IOException {
         for (DiscountCommand d : discounts) d.apply(order);
         orders.saveOrder(order);
     }
 
     public void advanceStatus(Order order, OrderStatus next) throws IOException {
+        OrderStatus previous = order.getStatus();
         order.setStatus(next);
         orders.saveOrder(order);
+        updateRollups(order, previous);
+        events.publish(new DomainEvent.OrderStatusAdvanced(snapshot(order, next), previous));
+    }
+
+    /** The order is already saved, so a rollup failure is logged rather than failing the caller; rebuild() repairs it. */
+    private void updateRollups(Order order, OrderStatus previous) {
+        try {
+            rollups.statusChanged(order, previous);
+        } catch (IOException e) {
+            System.err.println("Error updating sales rollups: " + e.getMessage());
+        }
     }
 
+    /** Takes the whole order out of stock in one batch: all lines or none. */
     public void decrementInventoryFor(Order order) {
+        Map<String, Integer> deltas = new LinkedHashMap<>();
         for (OrderItem it : order.getItems()) {
-            inventory.decrement(it.getProductId(), it.getQty());
+            deltas.merge(it.getProductId(), -it.getQty(), Integer::sum);
         }
+        inventory.adjustStock(deltas);
+    }
+
+    /**
+     * Takes the order's stock all-or-nothing, failing instead of overselling.
+     *
+     * @throws IllegalStateException If any product does not have enough stock; nothing is taken
+     */
+    public void takeInventoryFor(Order order) {
+        takeInventoryFor(order, List.of());
+    }
+
+    /**
+     * Takes the order's stock, drawing on the cart's holds first, all-or-nothing.
+     *
+     * @param reservationIds Holds placed while the cart was filled; all are consumed on success
+     * @throws IllegalStateException If any product does not have enough stock; nothing is taken
+     */
+    public void takeInventoryFor(Order order, Collection<String> reservationIds) {
+        inventory.takeStock(quantitiesFor(order), reservationIds);
     }
 
     public Order reload(String orderId) { return orders.getOrder(orderId).orElse(null); }
 
+    /** Copy of an order for event subscribers, so they never share the caller's instance. */
+    private static Order snapshot(Order order, OrderStatus status) {
+        Order copy = new Order(order.getId(), order.getCustomerId(), order.getCreatedAt());
+        copy.setStatus(status);
+        for (OrderItem it : order.getItems()) copy.addItem(it);
+        copy.addDiscount(order.getDiscountTotal());
+        return copy;
+    }
+
     private String newId() { return UUID.randomUUID().toString(); }
 }
@@ -0,0 +1,97 @@
+package service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * On-hand and held quantity of one product, packed into a single long so both change
+ * together in one compare-and-set. Available to sell = on hand - held.
+ * Held can exceed on hand if stock is cut while carts hold it; available is then zero.
+ */
+final class StockLevel {
+    private final AtomicLong packed = new AtomicLong();
+
+    int onHand() { return onHand(packed.get()); }
+
+    int held() { return held(packed.get()); }
+
+    int available() {
+        long v = packed.get();
+        return Math.max(0, onHand(v) - held(v));
+    }
+
+    /** Replaces the on-hand quantity, keeping holds. */
+    void setOnHand(int qty) {
+        long v;
+        do {
+            v = packed.get();
+        } while (!packed.compareAndSet(v, pack(qty, held(v))));
+    }
+
+    /**
+     * Adds to on hand, clamping at zero.
+     *
+     * @return The change actually applied
+     */
+    int add(int delta) {
+        long v;
+        int before, after;
+        do {
+            v = packed.get();
+            before = onHand(v);
+            after = Math.max(0, before + delta);
+        } while (!packed.compareAndSet(v, pack(after, held(v))));
+        return after - before;
+    }
+
+    /**
+     * Removes qty from on hand, of which fromHeld units come out of existing holds
+     * and the rest out of available stock. The caller must own at least fromHeld held units.
+     *
+     * @return The new on-hand quantity, or -1 if there is not enough
+     */
+    int take(int qty, int fromHeld) {
+        long v;
+        int onHand, held;
+        do {
+            v = packed.get();
+            onHand = onHand(v);
+            held = held(v);
+            if (held < fromHeld || onHand < qty || onHand - held < qty - fromHeld) return -1;
+        } while (!packed.compareAndSet(v, pack(onHand - qty, held - fromHeld)));
+        return onHand - qty;
+    }
+
+    /** Undoes {@link #take}. */
+    void giveBack(int qty, int toHeld) {
+        long v;
+        do {
+            v = packed.get();
+        } while (!packed.compareAndSet(v, pack(onHand(v) + qty, held(v) + toHeld)));
+    }
+
+    /** Holds qty units if that many are available to sell. */
+    boolean hold(int qty) {
+        long v;
+        do {
+            v = packed.get();
+            if (onHand(v) - held(v) < qty) return false;
+        } while (!packed.compareAndSet(v, pack(onHand(v), held(v) + qty)));
+        return true;
+    }
+
+    /** Returns held units to available stock. */
+    void release(int qty) {
+        long v;
+        do {
+            v = packed.get();
+        } while (!packed.compareAndSet(v, pack(onHand(v), Math.max(0, held(v) - qty))));
+    }
+
+    private static long pack(int onHand, int held) {
+        return ((long) onHand << 32) | (held & 0xFFFFFFFFL);
+    }
+
+    private static int onHand(long v) { return (int) (v >>> 32); }
+
+    private static int held(long v) { return (int) v; }
+}
@@ -7,6 +7,7 @@ import javafx.scene.control.*;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
 import managers.DashboardStatsManager;
+import managers.TopSellersManager;
 import repo.*;
 import service.*;
 import ui.components.*;
@@ -29,6 +30,7 @@ public class AdminDashboard extends Application {
 
     // Services and Data Managers
     private DashboardStatsManager statsManager;
+    private TopSellersManager topSellersManager;
     private OrderDataManager orderData;
     private UserManager userManager;
     private InventoryService inventoryService;
@@ -48,9 +50,11 @@ public class AdminDashboard extends Application {
     private OrderTableView orderTable;
     private InventoryTableView inventoryTable;
     private UserTableView userTable;
+    private TopSellersPanel topSellersPanel;
 
     // Current user
     private UserAccount currentUser;
+    private boolean loggedOut;
 
     /**
      * Default constructor for AdminDashboard.
@@ -237,7 +241,7 @@ public class AdminDashboard extends Application {
             "Total Users",
             "👥",
             () -> String.valueOf(userManager.getAllUsers().size()),
-            () -> "registered"
+            () -> statsManager.getActiveUserCount(5) + " active now, " + statsManager.getDailyActiveUsers() + " today"
         );
 
         container.getChildren().addAll(inventoryValueCard, lowStockCard, ordersCard, usersCard);
@@ -250,7 +254,7 @@ public class AdminDashboard extends Application {
     }
 
     /**
-     * Creates the tabbed pane with Orders, Inventory, and Users tabs.
+     * Creates the tabbed pane with Orders, Inventory, Users, and Top Sellers tabs.
      *
      * @return TabPane containing all management tabs
      */
@@ -274,16 +278,58 @@ public class AdminDashboard extends Application {
         Tab usersTab = new Tab("Users", userTable);
         usersTab.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
 
-        tabPane.getTabs().addAll(ordersTab, inventoryTab, usersTab);
+        // Top Sellers Tab, filled in once the sales history has loaded
+        Tab topSellersTab = new Tab("Top Sellers", new Label("Loading sales..."));
+        topSellersTab.setStyle("-fx-font-size: 14px; -fx-font-weight: bold;");
+        loadTopSellers(topSellersTab);
+
+        tabPane.getTabs().addAll(ordersTab, inventoryTab, usersTab, topSellersTab);
 
         return tabPane;
     }
 
+    /**
+     * Builds the TopSellersManager on a background thread, since it reads the last day of
+     * orders, and shows its panel in the tab when done. A manager that finishes after logout
+     * is closed straight away.
+     *
+     * @param tab The Top Sellers tab to fill
+     */
+    private void loadTopSellers(Tab tab) {
+        Thread loader = new Thread(() -> {
+            TopSellersManager manager;
+            try {
+                manager = new TopSellersManager(orderData);
+            } catch (RuntimeException e) {
+                System.err.println("Error loading top sellers: " + e.getMessage());
+                javafx.application.Platform.runLater(() -> tab.setContent(new Label("Top sellers unavailable")));
+                return;
+            }
+            javafx.application.Platform.runLater(() -> {
+                if (loggedOut) {
+                    manager.close();
+                    return;
+                }
+                topSellersManager = manager;
+                topSellersPanel = new TopSellersPanel(manager);
+                tab.setContent(topSellersPanel);
+            });
+        }, "top-sellers-load");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
     /**
      * Handles the logout action.
      * Closes the dashboard and returns to login page.
      */
     private void handleLogout() {
+        if (currentUser != null) userManager.logout(currentUser.getUsername());
+        statsManager.close();
+        loggedOut = true;
+        if (topSellersPanel != null) topSellersPanel.stop();
+        if (topSellersManager != null) topSellersManager.close();
+
         // Close dashboard
         Stage stage = (Stage) mainLayout.getScene().getWindow();
         stage.close();
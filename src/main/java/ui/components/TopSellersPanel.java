@@ -0,0 +1,111 @@
+package ui.components;
+
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.collections.FXCollections;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.*;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+import managers.TopSellersManager;
+import managers.TopSellersManager.Seller;
+import managers.TopSellersManager.Window;
+import util.ColorConstants;
+
+import java.util.List;
+
+/**
+ * Panel listing the best-selling products for a selectable time window.
+ * Refreshes itself every few seconds from the TopSellersManager until {@link #stop()} is called.
+ */
+public class TopSellersPanel extends VBox {
+    private static final int ROWS = 10;
+    private static final Duration REFRESH_INTERVAL = Duration.seconds(5);
+
+    private final TopSellersManager topSellers;
+    private final ComboBox<Window> windowPicker = new ComboBox<>();
+    private final TableView<Seller> table = new TableView<>();
+    private final Label summaryLabel = new Label();
+    private final Timeline refresher = new Timeline(new KeyFrame(REFRESH_INTERVAL, e -> loadData()));
+
+    /**
+     * Constructs a TopSellersPanel showing the last 24 hours by default.
+     *
+     * @param topSellers Source of the best-seller estimates
+     */
+    public TopSellersPanel(TopSellersManager topSellers) {
+        this.topSellers = topSellers;
+        setSpacing(12);
+        setPadding(new Insets(16));
+
+        windowPicker.setItems(FXCollections.observableArrayList(Window.values()));
+        windowPicker.setValue(Window.LAST_DAY);
+        windowPicker.setOnAction(e -> loadData());
+
+        Label title = new Label("Top Sellers");
+        title.setStyle("-fx-font-size: 16px; -fx-font-weight: bold; -fx-text-fill: " + ColorConstants.TEXT_PRIMARY + ";");
+        summaryLabel.setStyle("-fx-font-size: 12px; -fx-text-fill: " + ColorConstants.TEXT_SECONDARY + ";");
+        Region spacer = new Region();
+        HBox.setHgrow(spacer, Priority.ALWAYS);
+        HBox header = new HBox(12, title, summaryLabel, spacer, windowPicker);
+        header.setAlignment(Pos.CENTER_LEFT);
+
+        setupColumns();
+        table.getStyleClass().add("data-table");
+        table.setPlaceholder(new Label("No sales in this window"));
+        VBox.setVgrow(table, Priority.ALWAYS);
+
+        getChildren().addAll(header, table);
+        loadData();
+
+        refresher.setCycleCount(Timeline.INDEFINITE);
+        refresher.play();
+    }
+
+    /**
+     * Stops the periodic refresh, e.g. when the dashboard closes.
+     */
+    public void stop() {
+        refresher.stop();
+    }
+
+    /**
+     * Sets up the rank, product, and units columns.
+     */
+    private void setupColumns() {
+        TableColumn<Seller, Integer> rankCol = new TableColumn<>("#");
+        rankCol.setCellValueFactory(c -> new ReadOnlyObjectWrapper<>(table.getItems().indexOf(c.getValue()) + 1));
+        rankCol.setMinWidth(50);
+        rankCol.setSortable(false);
+
+        TableColumn<Seller, String> productCol = new TableColumn<>("Product");
+        productCol.setCellValueFactory(c -> new ReadOnlyStringWrapper(c.getValue().product()));
+        productCol.setMinWidth(220);
+        productCol.setStyle("-fx-font-weight: bold;");
+
+        TableColumn<Seller, String> unitsCol = new TableColumn<>("Units Sold");
+        unitsCol.setCellValueFactory(c -> new ReadOnlyStringWrapper(
+                c.getValue().maxOvercount() == 0
+                        ? String.valueOf(c.getValue().units())
+                        : "~" + c.getValue().units())); // estimate may be high by up to maxOvercount
+        unitsCol.setMinWidth(120);
+        unitsCol.setStyle("-fx-alignment: CENTER-RIGHT;");
+
+        table.getColumns().addAll(List.of(rankCol, productCol, unitsCol));
+    }
+
+    /**
+     * Reloads the best sellers for the selected window.
+     */
+    public void loadData() {
+        Window window = windowPicker.getValue();
+        table.setItems(FXCollections.observableArrayList(topSellers.getTopSellers(window, ROWS)));
+        summaryLabel.setText(topSellers.getUnitsSold(window) + " units sold");
+    }
+}
@@ -0,0 +1,261 @@
+package util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * RFC 4180 encoding of the rows in the data files.
+ *
+ * A field is written bare unless it holds a comma, a double quote, CR or LF; then it is wrapped
+ * in double quotes and each quote inside it is doubled. Rows end at LF (CRLF is read too).
+ *
+ * Reading is a single pass of a small state machine per row:
+ * <pre>
+ *   START   -- '"' --&gt; QUOTED    -- '"' --&gt; QUOTE -- '"' --&gt; QUOTED (a literal quote)
+ *   START   -- other --&gt; BARE                QUOTE -- ',' or line end --&gt; field done
+ *   BARE    -- ',' or line end --&gt; field done QUOTE -- other --&gt; TAIL
+ * </pre>
+ * A comma or line break inside QUOTED is part of the field. Bare fields and tails only look for
+ * the comma (and line end), so a row without quotes costs the same as splitting it on commas.
+ * The reader is lenient the way split(",") was: a quote inside a bare field is kept as text,
+ * text after a closing quote (TAIL) is appended to the field, and a quote left open at the end
+ * of the input closes there. Rows written before fields were quoted therefore read back as
+ * they were written.
+ */
+public final class CsvCodec {
+    private CsvCodec() {}
+
+    /**
+     * Splits one row, without its line end, into fields. Empty fields are kept.
+     *
+     * @param row Text of one row; may contain line breaks inside quoted fields
+     * @return The decoded fields; one empty field for an empty row
+     */
+    public static String[] parseRecord(String row) {
+        String[] fields = new String[8];
+        int n = 0, len = row.length(), i = 0;
+        StringBuilder sb = null;
+        while (true) {
+            String value;
+            if (i < len && row.charAt(i) == '"') {            // START -> QUOTED
+                if (sb == null) sb = new StringBuilder(); else sb.setLength(0);
+                i = quoted(row, i + 1, sb);
+                value = sb.toString();
+            } else {                                            // START -> BARE
+                int comma = row.indexOf(',', i);
+                if (comma < 0) comma = len;
+                value = row.substring(i, comma);
+                i = comma;
+            }
+            if (n == fields.length) fields = Arrays.copyOf(fields, n * 2);
+            fields[n++] = value;
+            if (i >= len) return n == fields.length ? fields : Arrays.copyOf(fields, n);
+            i++;                                                // the comma
+        }
+    }
+
+    /** QUOTED, QUOTE and TAIL states: decodes a field opened at i - 1 and returns where it ends. */
+    private static int quoted(String row, int i, StringBuilder sb) {
+        int len = row.length();
+        while (true) {
+            int quote = row.indexOf('"', i);
+            if (quote < 0) {                                    // never closed
+                sb.append(row, i, len);
+                return len;
+            }
+            sb.append(row, i, quote);
+            i = quote + 1;
+            if (i < len && row.charAt(i) == '"') {              // QUOTE -> QUOTED
+                sb.append('"');
+                i++;
+                continue;
+            }
+            int comma = row.indexOf(',', i);                    // QUOTE -> done, or TAIL
+            if (comma < 0) comma = len;
+            sb.append(row, i, comma);
+            return comma;
+        }
+    }
+
+    /**
+     * Appends one field, quoting it only if it has to be.
+     * A null field is written as "null", as String.join writes it.
+     */
+    public static StringBuilder appendField(StringBuilder sb, String field) {
+        if (field == null) return sb.append("null");
+        if (!needsQuotes(field)) return sb.append(field);
+        sb.append('"');
+        int from = 0;
+        for (int quote; (quote = field.indexOf('"', from)) >= 0; from = quote + 1) {
+            sb.append(field, from, quote + 1).append('"');
+        }
+        return sb.append(field, from, field.length()).append('"');
+    }
+
+    /**
+     * Appends the fields of one row, comma separated, without a line end.
+     */
+    public static StringBuilder appendRow(StringBuilder sb, String... fields) {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) sb.append(',');
+            appendField(sb, fields[i]);
+        }
+        return sb;
+    }
+
+    /** One encoded row without its line end; the inverse of {@link #parseRecord}. */
+    public static String formatRow(String... fields) {
+        for (String f : fields) {
+            if (f != null && needsQuotes(f)) return appendRow(new StringBuilder(128), fields).toString();
+        }
+        return String.join(",", fields); // nothing to quote: the JDK's join sizes the result exactly
+    }
+
+    /** True if the field holds a comma, quote, CR or LF. Every one of them sorts at or below ','. */
+    private static boolean needsQuotes(String field) {
+        for (int i = 0, len = field.length(); i < len; i++) {
+            char c = field.charAt(i);
+            if (c <= ',' && (c == ',' || c == '"' || c == '\n' || c == '\r')) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Reads rows one at a time from a character stream, decoding them in the same pass that
+     * finds where they end, so a quoted field may span lines.
+     */
+    public static final class RecordReader implements Closeable {
+        private final Reader in;
+        private final char[] buf = new char[8192];
+        private final StringBuilder field = new StringBuilder();
+        private String[] fields = new String[16];
+        private int pos, limit;
+        private long filled;            // chars read into buf so far
+        private int stop;               // what ended the last field: ',', '\n' or -1 at the end of the input
+        private boolean terminated = true;
+
+        public RecordReader(Reader in) {
+            this.in = in;
+        }
+
+        /**
+         * Reads the next row.
+         *
+         * @return The decoded fields, or null at the end of the input
+         */
+        public String[] next() throws IOException {
+            if (pos == limit && !fill()) return null;
+            int n = 0;
+            while (true) {                                      // START
+                String value;
+                if (pos == limit && !fill()) {                  // input ends right after a comma
+                    value = "";
+                    stop = -1;
+                } else if (buf[pos] == '"') {
+                    pos++;
+                    value = quoted();
+                } else {
+                    value = bare();
+                }
+                if (n == fields.length) fields = Arrays.copyOf(fields, n * 2);
+                fields[n++] = value;
+                if (stop != ',') {
+                    terminated = stop == '\n';
+                    return Arrays.copyOf(fields, n);
+                }
+            }
+        }
+
+        /**
+         * BARE and TAIL: reads up to the next comma or line end, after whatever the builder
+         * already holds, and sets {@link #stop}. A CR read here just before the line end is dropped;
+         * one inside the quotes before a tail is not.
+         */
+        private String bare() throws IOException {
+            int kept = field.length(), start = pos;
+            while (true) {
+                char[] b = buf;
+                for (int p = pos, lim = limit; p < lim; p++) {
+                    char c = b[p];
+                    if (c == ',' || c == '\n') {
+                        pos = p + 1;
+                        stop = c;
+                        if (c == '\n' && p > start && b[p - 1] == '\r') p--;
+                        if (field.length() == 0) return new String(b, start, p - start);
+                        field.append(b, start, p - start);
+                        if (c == '\n' && p == start && field.length() > kept && field.charAt(field.length() - 1) == '\r') {
+                            field.setLength(field.length() - 1);   // the CR ended the previous buffer
+                        }
+                        return take();
+                    }
+                }
+                field.append(b, start, limit - start);
+                pos = limit;
+                if (!fill()) {
+                    stop = -1;
+                    return take();
+                }
+                start = 0;
+            }
+        }
+
+        /** QUOTED and QUOTE: decodes the field up to its closing quote, then any tail. */
+        private String quoted() throws IOException {
+            while (true) {
+                if (pos == limit && !fill()) {                  // never closed
+                    stop = -1;
+                    return take();
+                }
+                char[] b = buf;
+                int p = pos, lim = limit;
+                while (p < lim && b[p] != '"') p++;
+                field.append(b, pos, p - pos);
+                pos = p;
+                if (p == lim) continue;
+                pos++;                                          // QUOTE
+                if (pos == limit && !fill()) {
+                    stop = -1;
+                    return take();
+                }
+                if (buf[pos] != '"') return bare();             // a comma or line end ends it; anything else is TAIL
+                field.append('"');
+                pos++;
+            }
+        }
+
+        /** True if the last row read ended with a line end rather than at the end of the input. */
+        public boolean terminated() {
+            return terminated;
+        }
+
+        /** Characters consumed so far, line ends included. */
+        public long chars() {
+            return filled - (limit - pos);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private boolean fill() throws IOException {
+            int r;
+            do {
+                r = in.read(buf, 0, buf.length);
+            } while (r == 0);
+            if (r < 0) return false;
+            pos = 0;
+            limit = r;
+            filled += r;
+            return true;
+        }
+
+        private String take() {
+            String s = field.toString();
+            field.setLength(0);
+            return s;
+        }
+    }
+}
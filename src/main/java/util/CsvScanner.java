@@ -0,0 +1,612 @@
+package util;
+
+import patterns.singleton.DataSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Forward-only cursor over the rows of a data file, read through a memory mapping.
+ *
+ * The scanner walks the mapped bytes and records where each field of the current row starts
+ * and ends; nothing is copied or decoded until asked for. Numbers, enum names and ISO-8601
+ * instants parse straight from the bytes, and a String is built only when {@link #string}
+ * is called, so a scan that filters most rows out allocates next to nothing.
+ *
+ * Rows split into fields exactly as {@link CsvCodec} reads them: empty fields are kept, a
+ * CR before the newline is dropped, an empty line is a row of one empty field, and a quoted
+ * field may hold commas, quotes and newlines. Quoted fields are decoded when read, so they
+ * take the slower String-based paths; bare fields never do.
+ * Files larger than the mapping window are mapped a window at a time.
+ *
+ * <pre>
+ * try (CsvScanner s = CsvScanner.open("orders.csv")) {
+ *     while (s.next()) {
+ *         if (s.fieldCount() >= 7 &amp;&amp; s.parseInstant(2).isAfter(from)) out.add(s.string(0));
+ *     }
+ * }
+ * </pre>
+ *
+ * {@link #scanParallel} splits a file into byte ranges and scans them on several cores.
+ *
+ * Reads are metered like the other CsvUtil reads. Not thread-safe; use one scanner per thread.
+ */
+public final class CsvScanner implements Closeable {
+    private static final long WINDOW = 1L << 30;
+    private static final int BARE = 0, QUOTED = 1, QUOTE = 2;
+    private static final long ONES = 0x0101010101010101L, LOW7 = 0x7F7F7F7F7F7F7F7FL;
+    private static final long COMMAS = ONES * ',', NEWLINES = ONES * '\n', QUOTES = ONES * '"';
+    // Smallest range worth a task of its own; below this a file is scanned on the calling thread
+    private static final long MIN_RANGE = 8L << 20;
+    private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final int[] NANO_SCALE = {1, 100_000_000, 10_000_000, 1_000_000, 100_000, 10_000,
+            1_000, 100, 10, 1};
+
+    private final String filename;
+    private final FileChannel channel;   // null when the file does not exist
+    private final long size;
+    private final long from;             // rows starting in [from, to) belong to this scanner
+    private final long to;
+    private final boolean aligned;       // from is known to be a row start
+    private final boolean owner;         // closes the channel and meters the read
+    private final long startNanos = System.nanoTime();
+
+    private MappedByteBuffer buf;
+    private long base;                   // file offset of buf[0]
+    private int pos;                     // start of the next row in buf
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private boolean[] quoted = new boolean[16];
+    private int fields;
+    private byte[] scratch = new byte[64];
+    private long rows;
+    private long rowStart;
+    private int rowBytes;
+    private boolean started;
+    private boolean quotedNewline;       // a newline inside a quoted field was read
+
+    private CsvScanner(String filename, FileChannel channel, long size, long from, long to, boolean aligned,
+                       boolean owner) {
+        this.filename = filename;
+        this.channel = channel;
+        this.size = size;
+        this.from = from;
+        this.to = to;
+        this.aligned = aligned;
+        this.owner = owner;
+    }
+
+    /**
+     * Callback for {@link #scanParallel}: reads every row of one range and returns what it built.
+     */
+    @FunctionalInterface
+    public interface RangeReader<R> {
+        R read(CsvScanner rows) throws IOException;
+    }
+
+    /**
+     * Opens a data file for scanning.
+     *
+     * @param filename File name relative to the data directory
+     * @return A scanner positioned before the first row; one with no rows if the file does not exist
+     */
+    public static CsvScanner open(String filename) throws IOException {
+        return open(filename, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Opens a slice of a data file for scanning. Unlike the ranges of {@link #scanParallel},
+     * the slice starts exactly at {@code from}, which must therefore be where a row starts,
+     * e.g. an offset taken from an index; nothing is read twice or again.
+     *
+     * @param filename File name relative to the data directory
+     * @param from Offset of the first row
+     * @param to End of the slice: the scanner sees the rows that start before it
+     * @return A scanner positioned before the first row of the slice
+     */
+    public static CsvScanner open(String filename, long from, long to) throws IOException {
+        Path p = DataSource.getInstance().resolve(filename);
+        if (!Files.exists(p)) return new CsvScanner(filename, null, 0, 0, 0, true, true);
+        FileChannel channel = FileChannel.open(p, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            return new CsvScanner(filename, channel, size, Math.min(from, size), Math.min(to, size), true, true);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Scans a data file on the common fork/join pool. The file is split in halves, recursively,
+     * down to ranges of about a quarter of the file per core (at least 8 MB); each range gets its
+     * own scanner, which sees the rows that start inside it, so a row is never split or read
+     * twice. Small files are read on the calling thread as a single range.
+     *
+     * The reader runs on several threads at once, so it may only read shared state; whatever
+     * it builds is returned, and the results come back in file order whatever the timing,
+     * ready to be merged deterministically.
+     *
+     * A range takes its first row to start after the first newline it sees, which is wrong
+     * only if that newline sits inside a quoted field. The row holding such a newline always
+     * falls in an earlier, correctly started range, so the scan notices it and the file is
+     * read again as a single range on the calling thread; the same happens if a reader fails,
+     * in case a wrong start caused it. Files without multi-line fields, which is all of them
+     * in practice, are read once in parallel. The reader may therefore run twice over part
+     * of a file, and must not report anything except through its result.
+     *
+     * @param filename File name relative to the data directory
+     * @param reader Called once per range
+     * @return One result per range, in file order; empty if the file does not exist
+     */
+    public static <R> List<R> scanParallel(String filename, RangeReader<R> reader) throws IOException {
+        Path p = DataSource.getInstance().resolve(filename);
+        if (!Files.exists(p)) return new ArrayList<>();
+        long start = System.nanoTime(), size = 0;
+        LongAdder rows = new LongAdder();
+        try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+            size = channel.size();
+            long grain = Math.max(MIN_RANGE, size / (4L * ForkJoinPool.getCommonPoolParallelism()) + 1);
+            if (size > grain) {
+                AtomicBoolean misaligned = new AtomicBoolean();
+                try {
+                    List<R> out = new RangeTask<>(filename, channel, size, 0, size, grain, reader, rows, misaligned).invoke();
+                    if (!misaligned.get()) return out;
+                } catch (RuntimeException e) {
+                    // rethrown by the sequential read below unless a wrong range start caused it
+                }
+                rows.reset();
+            }
+            return new RangeTask<>(filename, channel, size, 0, size, size, reader, rows, new AtomicBoolean()).compute();
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            CsvUtil.meterRead(filename, rows.sum(), size, start);
+        }
+    }
+
+    /** Scans [from, to) if it is small enough, otherwise splits it and scans the halves in parallel. */
+    private static final class RangeTask<R> extends RecursiveTask<List<R>> {
+        private static final long serialVersionUID = 1L;
+
+        private final String filename;
+        private final FileChannel channel;
+        private final long size, from, to, grain;
+        private final RangeReader<R> reader;
+        private final LongAdder rows;
+        private final AtomicBoolean misaligned;
+
+        RangeTask(String filename, FileChannel channel, long size, long from, long to, long grain,
+                  RangeReader<R> reader, LongAdder rows, AtomicBoolean misaligned) {
+            this.filename = filename;
+            this.channel = channel;
+            this.size = size;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.reader = reader;
+            this.rows = rows;
+            this.misaligned = misaligned;
+        }
+
+        @Override
+        protected List<R> compute() {
+            if (to - from <= grain) {
+                try (CsvScanner s = new CsvScanner(filename, channel, size, from, to, false, false)) {
+                    List<R> out = new ArrayList<>();
+                    out.add(reader.read(s));
+                    rows.add(s.rows);
+                    if (s.quotedNewline) misaligned.set(true);
+                    return out;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            long mid = from + (to - from) / 2;
+            RangeTask<R> left = new RangeTask<>(filename, channel, size, from, mid, grain, reader, rows, misaligned);
+            left.fork();
+            List<R> right = new RangeTask<>(filename, channel, size, mid, to, grain, reader, rows, misaligned).compute();
+            List<R> out = left.join();
+            out.addAll(right);
+            return out;
+        }
+    }
+
+    /**
+     * Advances to the next row.
+     *
+     * @return False at the end of the file
+     */
+    public boolean next() throws IOException {
+        if (!started) {
+            started = true;
+            if (!seek()) return false;
+        }
+        while (true) {
+            if (buf == null || base + pos >= to) return false;
+            if (pos >= buf.limit()) map(base + pos);
+            int limit = buf.limit();
+            int start = pos, n = 0;
+            starts[0] = start;
+            quoted[0] = false;
+            int i = start;
+            boolean ended = false;
+            // Eight bytes at a time while every field is bare: flag the bytes equal to ',', '\n'
+            // or '"' and visit just those. A quote only matters at the start of a field, where it
+            // hands the rest of the row to the byte-at-a-time state machine below.
+            words:
+            while (i + 8 <= limit) {
+                long w = buf.getLong(i);
+                for (long m = zeroBytes(w ^ COMMAS) | zeroBytes(w ^ NEWLINES) | zeroBytes(w ^ QUOTES); m != 0; m &= m - 1) {
+                    int k = i + (Long.numberOfTrailingZeros(m) >>> 3);
+                    byte b = buf.get(k);
+                    if (b == ',') {
+                        if (++n == starts.length) grow();
+                        ends[n - 1] = k;
+                        starts[n] = k + 1;
+                        quoted[n] = false;
+                    } else if (b == '\n') {
+                        i = k;
+                        ended = true;
+                        break words;
+                    } else if (k == starts[n]) {
+                        i = k;
+                        break words;
+                    }
+                }
+                i += 8;
+            }
+            int state = BARE;   // the codec's states; START is a BARE byte at a field start
+            boolean multiline = false;
+            for (; !ended && i < limit; i++) {
+                byte b = buf.get(i);
+                if (state == BARE) {
+                    if (b > ',') continue;
+                    if (b == ',') {
+                        if (++n == starts.length) grow();
+                        ends[n - 1] = i;
+                        starts[n] = i + 1;
+                        quoted[n] = false;
+                    } else if (b == '\n') {
+                        break;
+                    } else if (b == '"' && i == starts[n]) {
+                        state = QUOTED;
+                        quoted[n] = true;
+                    }
+                } else if (state == QUOTED) {
+                    if (b == '"') state = QUOTE;
+                    else if (b == '\n') multiline = true;
+                } else if (b == '"') {          // doubled quote, still inside the field
+                    state = QUOTED;
+                } else {                        // closed; read this byte again as bare
+                    state = BARE;
+                    i--;
+                }
+            }
+            if (i == limit && base + limit < size) {   // row runs past the window
+                if (start == 0) throw new IOException("Row longer than " + WINDOW + " bytes in " + filename);
+                map(base + start);
+                continue;
+            }
+            int end = i;
+            if (end > starts[n] && buf.get(end - 1) == '\r') end--;
+            ends[n] = end;
+            fields = n + 1;
+            pos = i < limit ? i + 1 : i;
+            rowStart = base + start;
+            rowBytes = pos - start;
+            quotedNewline |= multiline;
+            rows++;
+            return true;
+        }
+    }
+
+    /**
+     * Maps the window holding the first row that starts at or after {@code from}.
+     *
+     * @return False if no row starts in [from, to)
+     */
+    private boolean seek() throws IOException {
+        if (channel == null || from >= to) return false;
+        if (from == 0 || aligned) {
+            map(from);
+            return true;
+        }
+        map(from - 1); // a row starts at from only if the byte before it ends a row
+        int limit = buf.limit();
+        for (int i = 0; i < limit; i++) {
+            if (buf.get(i) == '\n') {
+                pos = i + 1;
+                return true;
+            }
+        }
+        if (base + limit < size) throw new IOException("Row longer than " + WINDOW + " bytes in " + filename);
+        buf = null;
+        return false;
+    }
+
+    /** File offset of the current row. */
+    public long rowOffset() {
+        return rowStart;
+    }
+
+    /** Bytes the current row occupies in the file, including its line end. */
+    public int rowLength() {
+        return rowBytes;
+    }
+
+    /** Number of fields in the current row (1 for an empty line). */
+    public int fieldCount() {
+        return fields;
+    }
+
+    /** Length of field i in bytes, after decoding if it is quoted. */
+    public int length(int i) {
+        check(i);
+        return quoted[i] ? unquote(i) : ends[i] - starts[i];
+    }
+
+    /** Field i decoded as UTF-8. */
+    public String string(int i) {
+        check(i);
+        int len = quoted[i] ? unquote(i) : raw(i);
+        return new String(scratch, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /** The whole row as Strings, as {@link CsvUtil#parseLine} would return it. */
+    public String[] row() {
+        String[] r = new String[fields];
+        for (int i = 0; i < fields; i++) r[i] = string(i);
+        return r;
+    }
+
+    /**
+     * True if field i holds exactly the given text; compares bytes without building a String.
+     */
+    public boolean fieldEquals(int i, String s) {
+        check(i);
+        if (quoted[i]) return string(i).equals(s);
+        int len = ends[i] - starts[i], start = starts[i];
+        if (len != s.length()) return len > s.length() && !isAscii(s) && string(i).equals(s); // UTF-8 is longer
+        for (int k = 0; k < len; k++) {
+            char c = s.charAt(k);
+            if (c >= 0x80) return string(i).equals(s);
+            if (buf.get(start + k) != c) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Field i as an int, ignoring surrounding spaces.
+     *
+     * @throws NumberFormatException If the field is not an integer
+     */
+    public int parseInt(int i) {
+        long v = parseLong(i);
+        if (v != (int) v) throw new NumberFormatException("Out of int range: " + string(i));
+        return (int) v;
+    }
+
+    /**
+     * Field i as a long, ignoring surrounding spaces.
+     *
+     * @throws NumberFormatException If the field is not an integer
+     */
+    public long parseLong(int i) {
+        check(i);
+        if (quoted[i]) return Long.parseLong(string(i).trim());
+        int p = trimStart(i), end = trimEnd(i);
+        boolean negative = p < end && buf.get(p) == '-';
+        if (negative) p++;
+        if (p == end || end - p > 18) return Long.parseLong(string(i).trim());
+        long v = 0;
+        for (; p < end; p++) {
+            int d = buf.get(p) - '0';
+            if (d < 0 || d > 9) return Long.parseLong(string(i).trim()); // let the JDK report it
+            v = v * 10 + d;
+        }
+        return negative ? -v : v;
+    }
+
+    /**
+     * Field i as a double, ignoring surrounding spaces. Plain decimals such as prices parse
+     * from the bytes with the same result as Double.parseDouble; anything else (exponents,
+     * NaN, more than 15 digits) is handed to Double.parseDouble.
+     *
+     * @throws NumberFormatException If the field is not a number
+     */
+    public double parseDouble(int i) {
+        check(i);
+        if (quoted[i]) return Double.parseDouble(string(i).trim());
+        int p = trimStart(i), end = trimEnd(i);
+        boolean negative = p < end && buf.get(p) == '-';
+        if (negative) p++;
+        long mantissa = 0;
+        int digits = 0, scale = -1;
+        for (; p < end; p++) {
+            byte b = buf.get(p);
+            if (b == '.' && scale < 0) {
+                scale = 0;
+                continue;
+            }
+            int d = b - '0';
+            if (d < 0 || d > 9 || ++digits > 15) return Double.parseDouble(string(i).trim());
+            mantissa = mantissa * 10 + d;
+            if (scale >= 0) scale++;
+        }
+        if (digits == 0) return Double.parseDouble(string(i).trim());
+        // both operands are exact doubles, so one division rounds correctly, as parseDouble does
+        double v = scale > 0 ? mantissa / POW10[scale] : mantissa;
+        return negative ? -v : v;
+    }
+
+    /**
+     * Field i as an Instant. The yyyy-MM-ddTHH:mm:ss[.fraction]Z form written by
+     * Instant.toString parses from the bytes; any other form goes to Instant.parse.
+     *
+     * @throws java.time.format.DateTimeParseException If the field is not an ISO-8601 instant
+     */
+    public Instant parseInstant(int i) {
+        check(i);
+        if (quoted[i]) return Instant.parse(string(i));
+        int p = starts[i], len = ends[i] - starts[i];
+        if (len >= 20 && len <= 30 && buf.get(p + 4) == '-' && buf.get(p + 7) == '-' && buf.get(p + 10) == 'T'
+                && buf.get(p + 13) == ':' && buf.get(p + 16) == ':' && buf.get(p + len - 1) == 'Z') {
+            int year = digits(p, 4), month = digits(p + 5, 2), day = digits(p + 8, 2);
+            int hour = digits(p + 11, 2), minute = digits(p + 14, 2), second = digits(p + 17, 2);
+            int nanos = 0;
+            boolean ok = year >= 0 && month >= 1 && month <= 12 && day >= 1 && day <= lengthOfMonth(year, month)
+                    && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0 && second < 60;
+            if (ok && len > 20) {
+                int fraction = len - 21;
+                ok = buf.get(p + 19) == '.' && fraction >= 1 && fraction <= 9 && (nanos = digits(p + 20, fraction)) >= 0;
+                nanos *= NANO_SCALE[fraction];
+            } else if (ok) {
+                ok = buf.get(p + 19) == 'Z';
+            }
+            if (ok) {
+                long epochSecond = epochDay(year, month, day) * 86_400L + hour * 3600 + minute * 60 + second;
+                return Instant.ofEpochSecond(epochSecond, nanos);
+            }
+        }
+        return Instant.parse(string(i));
+    }
+
+    /**
+     * Field i as a constant of an enum, matched on its exact name without building a String.
+     *
+     * @param values The enum's values(), hoisted by the caller
+     * @throws IllegalArgumentException If no constant has that name, as Enum.valueOf does
+     */
+    public <E extends Enum<E>> E parseEnum(int i, E[] values) {
+        for (E e : values) {
+            if (fieldEquals(i, e.name())) return e;
+        }
+        throw new IllegalArgumentException("No constant " + string(i) + " in "
+                + (values.length > 0 ? values[0].getDeclaringClass().getName() : "enum"));
+    }
+
+    /** Rows read so far. */
+    public long rowCount() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        long end = buf == null ? from : Math.min(size, base + pos);
+        buf = null;
+        if (channel == null || !owner) return;
+        channel.close();
+        CsvUtil.meterRead(filename, rows, end - from, startNanos);
+    }
+
+    private void map(long offset) throws IOException {
+        base = offset;
+        buf = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW, size - offset));
+        buf.order(ByteOrder.LITTLE_ENDIAN); // byte k of a getLong is bits 8k..8k+7
+        pos = 0;
+    }
+
+    /** High bit set in each byte of x that is zero, and in no other byte. */
+    private static long zeroBytes(long x) {
+        return ~(((x & LOW7) + LOW7) | x | LOW7);
+    }
+
+    private void grow() {
+        starts = Arrays.copyOf(starts, starts.length * 2);
+        ends = Arrays.copyOf(ends, ends.length * 2);
+        quoted = Arrays.copyOf(quoted, quoted.length * 2);
+    }
+
+    /** Copies the bytes of field i into scratch and returns their count. */
+    private int raw(int i) {
+        int len = ends[i] - starts[i];
+        if (scratch.length < len) scratch = new byte[Math.max(len, scratch.length * 2)];
+        buf.get(starts[i], scratch, 0, len);
+        return len;
+    }
+
+    /** Decodes quoted field i into scratch, as {@link CsvCodec} does, and returns its length. */
+    private int unquote(int i) {
+        int len = raw(i), w = 0, k = 1;   // past the opening quote
+        for (; k < len; k++) {
+            byte b = scratch[k];
+            if (b != '"') {
+                scratch[w++] = b;
+            } else if (k + 1 < len && scratch[k + 1] == '"') {
+                scratch[w++] = '"';
+                k++;
+            } else {
+                break;                    // closing quote; anything after it is kept as text
+            }
+        }
+        for (k++; k < len; k++) scratch[w++] = scratch[k];
+        return w;
+    }
+
+    private static boolean isAscii(String s) {
+        for (int k = 0; k < s.length(); k++) {
+            if (s.charAt(k) >= 0x80) return false;
+        }
+        return true;
+    }
+
+    private void check(int i) {
+        if (i < 0 || i >= fields) throw new IndexOutOfBoundsException("Field " + i + " of " + fields);
+    }
+
+    private int trimStart(int i) {
+        int p = starts[i], end = ends[i];
+        while (p < end && buf.get(p) == ' ') p++;
+        return p;
+    }
+
+    private int trimEnd(int i) {
+        int p = starts[i], end = ends[i];
+        while (end > p && buf.get(end - 1) == ' ') end--;
+        return end;
+    }
+
+    /** Decimal value of n digits at p, or -1 if any byte is not a digit. */
+    private int digits(int p, int n) {
+        int v = 0;
+        for (int k = 0; k < n; k++) {
+            int d = buf.get(p + k) - '0';
+            if (d < 0 || d > 9) return -1;
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        if (month == 2) return (year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) ? 29 : 28;
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    /** Days since 1970-01-01 of a proleptic Gregorian date (years 0-9999). */
+    private static long epochDay(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153L * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097 + dayOfEra - 719_468;
+    }
+}
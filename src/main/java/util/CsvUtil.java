@@ -1,35 +1,182 @@
 package util;
 
+import metrics.Counter;
+import metrics.LatencyHistogram;
+import metrics.MetricsRegistry;
 import patterns.singleton.DataSource;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Reads and writes the CSV data files, encoded by {@link CsvCodec}: fields holding commas,
+ * quotes or line breaks are quoted, so a row may span several lines.
+ * Every read and write is metered per file: rows, bytes (characters plus line ends,
+ * the same as bytes for ASCII data) and latency. Day-stamped segment files share one
+ * label, e.g. segments/*.orders.csv.
+ */
 public final class CsvUtil {
     private CsvUtil(){}
 
+    /** Meters for one file label and direction. */
+    private record FileMeters(Counter rows, Counter bytes, LatencyHistogram latency) {
+        void record(long rowCount, long byteCount, long startNanos) {
+            rows.add(rowCount);
+            bytes.add(byteCount);
+            latency.recordSince(startNanos);
+        }
+    }
+
+    private static final Map<String, FileMeters> READ_METERS = new ConcurrentHashMap<>();
+    private static final Map<String, FileMeters> WRITE_METERS = new ConcurrentHashMap<>();
+
+    /**
+     * Callback for {@link #forEach(String, RowVisitor)}.
+     * Return false to stop reading the rest of the file.
+     */
+    @FunctionalInterface
+    public interface RowVisitor {
+        boolean visit(String[] row);
+    }
+
+    /**
+     * Splits one row of a file into its fields, keeping empty trailing fields.
+     */
+    public static String[] parseLine(String line) {
+        return CsvCodec.parseRecord(line);
+    }
+
     public static List<String[]> read(String filename) throws IOException {
         Path p = DataSource.getInstance().resolve(filename);
         if (!Files.exists(p)) return new ArrayList<>();
-        try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
-            List<String[]> rows = new ArrayList<>();
-            String line;
-            while ((line = br.readLine()) != null) rows.add(line.split(",", -1));
+        long start = System.nanoTime();
+        List<String[]> rows = new ArrayList<>();
+        CsvCodec.RecordReader in = open(p);
+        try (in) {
+            String[] row;
+            while ((row = in.next()) != null) rows.add(row);
             return rows;
+        } finally {
+            meters(READ_METERS, "read", filename).record(rows.size(), in.chars(), start);
+        }
+    }
+
+    /**
+     * Lazily streams the rows of a file, one row at a time.
+     * The stream holds the file open, so callers must close it (try-with-resources).
+     *
+     * @param filename file name relative to the data directory
+     * @return stream of rows, empty if the file does not exist
+     */
+    public static Stream<String[]> stream(String filename) throws IOException {
+        Path p = DataSource.getInstance().resolve(filename);
+        if (!Files.exists(p)) return Stream.empty();
+        long start = System.nanoTime();
+        long[] rows = new long[1]; // the stream is consumed sequentially
+        FileMeters meters = meters(READ_METERS, "read", filename);
+        CsvCodec.RecordReader in = open(p);
+        Spliterator<String[]> rowSource = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super String[]> action) {
+                try {
+                    String[] row = in.next();
+                    if (row == null) return false;
+                    rows[0]++;
+                    action.accept(row);
+                    return true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+        return StreamSupport.stream(rowSource, false).onClose(() -> {
+            try {
+                in.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                meters.record(rows[0], in.chars(), start);
+            }
+        });
+    }
+
+    /**
+     * Visits the rows of a file in order without keeping them in memory.
+     * Reading stops as soon as the visitor returns false.
+     *
+     * @param filename file name relative to the data directory
+     * @param visitor called once per row
+     */
+    public static void forEach(String filename, RowVisitor visitor) throws IOException {
+        Path p = DataSource.getInstance().resolve(filename);
+        if (!Files.exists(p)) return;
+        long start = System.nanoTime(), rows = 0;
+        CsvCodec.RecordReader in = open(p);
+        try (in) {
+            String[] row;
+            while ((row = in.next()) != null) {
+                rows++;
+                if (!visitor.visit(row)) return;
+            }
+        } finally {
+            meters(READ_METERS, "read", filename).record(rows, in.chars(), start);
         }
     }
 
+    /**
+     * Replaces a file with the given rows.
+     * Rows go to a temp file that is then moved over the original, so readers and crashes
+     * see either the old contents or the new ones, never a partial file.
+     */
     public static void write(String filename, List<String[]> rows) throws IOException {
         Path p = DataSource.getInstance().resolve(filename);
         Files.createDirectories(p.getParent());
-        try (BufferedWriter bw = Files.newBufferedWriter(p, StandardCharsets.UTF_8,
+        Path tmp = p.resolveSibling(p.getFileName() + ".tmp");
+        long start = System.nanoTime(), bytes = 0;
+        try (BufferedWriter bw = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder chunk = new StringBuilder(16 * 1024);
             for (String[] r : rows) {
-                bw.write(String.join(",", r));
-                bw.newLine();
+                CsvCodec.appendRow(chunk, r).append('\n');
+                if (chunk.length() >= 8 * 1024) {
+                    bw.write(chunk.toString());
+                    bytes += chunk.length();
+                    chunk.setLength(0);
+                }
             }
+            bw.write(chunk.toString());
+            bytes += chunk.length();
         }
+        Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        meters(WRITE_METERS, "write", filename).record(rows.size(), bytes, start);
+    }
+
+    private static CsvCodec.RecordReader open(Path p) throws IOException {
+        return new CsvCodec.RecordReader(Files.newBufferedReader(p, StandardCharsets.UTF_8));
+    }
+
+    /** Records a read made outside this class, e.g. by a {@link CsvScanner}. */
+    static void meterRead(String filename, long rows, long bytes, long startNanos) {
+        meters(READ_METERS, "read", filename).record(rows, bytes, startNanos);
+    }
+
+    private static FileMeters meters(Map<String, FileMeters> cache, String op, String filename) {
+        FileMeters m = cache.get(filename);
+        if (m != null) return m;
+        String file = filename.replaceAll("\\d{4}-\\d{2}-\\d{2}", "*");
+        MetricsRegistry registry = MetricsRegistry.getInstance();
+        m = new FileMeters(
+                registry.counter("csv_" + op + "_rows_total", "file", file),
+                registry.counter("csv_" + op + "_bytes_total", "file", file),
+                registry.histogram("csv_" + op + "_seconds", "file", file));
+        cache.put(filename, m);
+        return m;
     }
 }
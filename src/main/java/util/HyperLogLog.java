@@ -0,0 +1,94 @@
+package util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * HyperLogLog distinct-count estimator (Flajolet et al., falling back to linear counting
+ * for small sets): counts distinct strings in 2^precision registers, whatever the number
+ * of distinct values or additions.
+ *
+ * With the default precision of 14 the sketch is 16384 registers and the standard error
+ * is about 0.8%. Adding is a hash and a lock-free register max, so any number of threads
+ * may add at once; an estimate taken during concurrent adds may miss the newest of them.
+ */
+public final class HyperLogLog {
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+    private final int m;
+    private final AtomicIntegerArray registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param precision log2 of the register count, 4 to 18; error is about 1.04 / sqrt(2^precision)
+     */
+    public HyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) throw new IllegalArgumentException("precision must be 4..18: " + precision);
+        this.precision = precision;
+        this.m = 1 << precision;
+        this.registers = new AtomicIntegerArray(m);
+    }
+
+    public void add(String value) {
+        long h = hash64(value);
+        int idx = (int) (h >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+        int current;
+        while ((current = registers.get(idx)) < rank) {
+            if (registers.compareAndSet(idx, current, rank)) return;
+        }
+    }
+
+    /** Estimated number of distinct values added. */
+    public long estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (int i = 0; i < m; i++) {
+            int r = registers.get(i);
+            sum += 1.0 / (1L << r);
+            if (r == 0) zeros++;
+        }
+        double raw = alpha(m) * m * (double) m / sum;
+        if (raw <= 2.5 * m && zeros > 0) {
+            return Math.round(m * Math.log((double) m / zeros)); // linear counting for small sets
+        }
+        return Math.round(raw);
+    }
+
+    /** Folds another sketch of the same precision into this one (the union of both sets). */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) throw new IllegalArgumentException("precision mismatch");
+        for (int i = 0; i < m; i++) {
+            int theirs = other.registers.get(i), mine;
+            while ((mine = registers.get(i)) < theirs && !registers.compareAndSet(i, mine, theirs)) {
+                // retry
+            }
+        }
+    }
+
+    private static double alpha(int m) {
+        if (m == 16) return 0.673;
+        if (m == 32) return 0.697;
+        if (m == 64) return 0.709;
+        return 0.7213 / (1 + 1.079 / m);
+    }
+
+    /** 64-bit FNV-1a over the UTF-8 bytes, finished with the MurmurHash3 mixer for avalanche. */
+    private static long hash64(String value) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
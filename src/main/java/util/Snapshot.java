@@ -0,0 +1,538 @@
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * Versioned binary snapshot of an in-memory table, so startup maps one file instead of parsing
+ * a CSV.
+ *
+ * A snapshot holds columns of ints, longs and doubles, and string columns stored as int codes
+ * into one dictionary of distinct strings shared by the whole file. The dictionary carries its
+ * own hash table, so a snapshot can be searched by string ({@link #find}) without decoding it:
+ * tables that only serve lookups keep the snapshot mapped and read it in place, and loading
+ * them costs no more than checking the checksum.
+ *
+ * Layout, little-endian, every section starting on an 8-byte boundary:
+ * <pre>
+ *   header      magic "CSNP", format version, kind version, kind, stamp (longs chosen by the owner)
+ *   dictionary  count, slots, blob length, offsets int[count + 1], slots int[slots], UTF-8 blob
+ *   columns     type, length, values; in the order they were written
+ *   CRC32C of everything before it
+ * </pre>
+ * {@link #open} maps the whole file once and checks the checksum before anything is read from
+ * it. A missing, torn, corrupt or foreign file, or one of another version, opens as null and the
+ * owner falls back to its CSV; so does a snapshot whose stamp no longer matches that CSV.
+ *
+ * Snapshots are written to a temp file and moved into place. {@link #keepFresh} runs an owner's
+ * writer every candystore.snapshot.interval seconds (default 60) and once more at exit.
+ *
+ * Reads are absolute, so one snapshot can be read from any number of threads.
+ */
+public final class Snapshot {
+    private static final int MAGIC = 0x504E5343;    // "CSNP"
+    private static final int FORMAT = 1;
+    private static final int INT = 1, LONG = 2, DOUBLE = 3, CODES = 4;
+    private static final int GUARD = 4096;
+
+    private static final List<Runnable> savers = new CopyOnWriteArrayList<>();
+    private static ScheduledExecutorService refresher;
+
+    private final MappedByteBuffer buf;
+    private final long[] stamp;
+    private final int count;                        // distinct strings
+    private final int slotMask;
+    private final int offsetsAt, slotsAt, blobAt;
+    private final int[] columnType, columnAt, columnLength;
+
+    /** Writes an owner's snapshot; called by {@link #keepFresh}. */
+    @FunctionalInterface
+    public interface Saver {
+        void save() throws IOException;
+    }
+
+    private Snapshot(MappedByteBuffer buf, String kind, int version, int end) {
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT || buf.getInt(8) != version) {
+            throw new IllegalStateException("not a " + kind + " snapshot");
+        }
+        int kindLength = buf.getInt(12);
+        byte[] k = new byte[kindLength];
+        buf.get(16, k);
+        if (!kind.equals(new String(k, StandardCharsets.UTF_8))) throw new IllegalStateException("not a " + kind + " snapshot");
+        int p = align(16 + kindLength);
+        stamp = new long[buf.getInt(p)];
+        int columns = buf.getInt(p + 4);
+        p += 8;
+        for (int i = 0; i < stamp.length; i++, p += 8) stamp[i] = buf.getLong(p);
+
+        count = buf.getInt(p);
+        int slots = buf.getInt(p + 4), blobLength = buf.getInt(p + 8);
+        if (Integer.bitCount(slots) != 1 || slots <= count) throw new IllegalStateException("bad dictionary");
+        slotMask = slots - 1;
+        offsetsAt = p + 16;
+        slotsAt = align(offsetsAt + 4 * (count + 1));
+        blobAt = align(slotsAt + 4 * slots);
+        p = align(blobAt + blobLength);
+
+        columnType = new int[columns];
+        columnAt = new int[columns];
+        columnLength = new int[columns];
+        for (int c = 0; c < columns; c++) {
+            columnType[c] = buf.getInt(p);
+            columnLength[c] = buf.getInt(p + 4);
+            columnAt[c] = p + 8;
+            p = align(columnAt[c] + columnLength[c] * (columnType[c] == INT || columnType[c] == CODES ? 4 : 8));
+        }
+        if (p != end) throw new IllegalStateException("bad length");
+    }
+
+    /**
+     * Maps a snapshot and verifies it.
+     *
+     * @param file The snapshot file
+     * @param kind What the owner stores, e.g. "inventory"; a snapshot of another kind is rejected
+     * @param version The owner's layout version; a snapshot of another version is rejected
+     * @return The snapshot, or null if it is missing, damaged, of another kind or of another version
+     */
+    public static Snapshot open(Path file, String kind, int version) throws IOException {
+        if (!Files.exists(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < 64 || size > Integer.MAX_VALUE || size % 8 != 0) return null;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+            int end = (int) size - 8;
+            if (buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT || buf.getInt(8) != version) return null;
+            CRC32C crc = new CRC32C();
+            crc.update(buf.slice(0, end));
+            if (crc.getValue() != buf.getLong(end)) return null;
+            try {
+                return new Snapshot(buf, kind, version, end);
+            } catch (RuntimeException corrupt) {
+                return null;
+            }
+        }
+    }
+
+    /** The stamp the owner wrote with the snapshot. */
+    public long[] stamp() {
+        return stamp.clone();
+    }
+
+    public long stamp(int i) {
+        return stamp[i];
+    }
+
+    /** Number of distinct strings in the dictionary; codes run from 0 to this, exclusive. */
+    public int stringCount() {
+        return count;
+    }
+
+    /** Decodes one dictionary string. */
+    public String string(int code) {
+        return new String(bytes(code), StandardCharsets.UTF_8);
+    }
+
+    /** Decodes the whole dictionary at once, indexed by code; for owners that load every row. */
+    public String[] strings() {
+        String[] out = new String[count];
+        byte[] blob = new byte[buf.getInt(offsetsAt + 4 * count)];
+        buf.get(blobAt, blob);
+        for (int code = 0, from = 0; code < count; code++) {
+            int to = buf.getInt(offsetsAt + 4 * code + 4);
+            out[code] = new String(blob, from, to - from, StandardCharsets.UTF_8);
+            from = to;
+        }
+        return out;
+    }
+
+    /**
+     * Looks a string up in the dictionary without decoding any of it.
+     *
+     * @return Its code, or -1 if the snapshot does not hold it
+     */
+    public int find(String s) {
+        byte[] key = s.getBytes(StandardCharsets.UTF_8);
+        for (int slot = hash(key, 0, key.length) & slotMask; ; slot = (slot + 1) & slotMask) {
+            int code = buf.getInt(slotsAt + 4 * slot) - 1;
+            if (code < 0) return -1;
+            int from = buf.getInt(offsetsAt + 4 * code), to = buf.getInt(offsetsAt + 4 * code + 4);
+            if (to - from == key.length && sameBytes(blobAt + from, key)) return code;
+        }
+    }
+
+    public IntBuffer ints(int column) {
+        return view(column, INT, 4).asIntBuffer();
+    }
+
+    public LongBuffer longs(int column) {
+        return view(column, LONG, 8).asLongBuffer();
+    }
+
+    public DoubleBuffer doubles(int column) {
+        return view(column, DOUBLE, 8).asDoubleBuffer();
+    }
+
+    /** A string column: one dictionary code per row. */
+    public IntBuffer codes(int column) {
+        return view(column, CODES, 4).asIntBuffer();
+    }
+
+    private ByteBuffer view(int column, int type, int width) {
+        if (columnType[column] != type) throw new IllegalStateException("column " + column + " has type " + columnType[column]);
+        return buf.slice(columnAt[column], columnLength[column] * width).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private byte[] bytes(int code) {
+        int from = buf.getInt(offsetsAt + 4 * code), to = buf.getInt(offsetsAt + 4 * code + 4);
+        byte[] b = new byte[to - from];
+        buf.get(blobAt + from, b);
+        return b;
+    }
+
+    private boolean sameBytes(int at, byte[] key) {
+        for (int i = 0; i < key.length; i++) {
+            if (buf.get(at + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Size and CRC32C of a file's contents, for owners whose snapshot must match a CSV byte for
+     * byte: unlike the modification time, it cannot miss a same-size rewrite within one clock tick.
+     *
+     * @return {size, checksum}; {-1, 0} if the file does not exist
+     */
+    public static long[] contentStamp(Path file) throws IOException {
+        if (!Files.exists(file)) return new long[] {-1, 0};
+        return new long[] {Files.size(file), checksum(file, 0, Files.size(file))};
+    }
+
+    /**
+     * CRC32C of the last few KB before a length, for owners of append-only files: if the file
+     * still ends in them at that length, a snapshot covering that length still describes its start.
+     */
+    public static long guardStamp(Path file, long length) throws IOException {
+        return checksum(file, Math.max(0, length - GUARD), length);
+    }
+
+    private static long checksum(Path file, long from, long to) throws IOException {
+        CRC32C crc = new CRC32C();
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() < to) return -1;
+            for (long at = from; at < to; at += Integer.MAX_VALUE) {
+                crc.update(ch.map(FileChannel.MapMode.READ_ONLY, at, Math.min(Integer.MAX_VALUE, to - at)));
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Runs an owner's writer every candystore.snapshot.interval seconds and once more at exit,
+     * one writer at a time. The writer should return at once when nothing changed since its
+     * last snapshot.
+     *
+     * @param name What is written, for error messages
+     * @param saver Writes the owner's snapshot
+     */
+    public static synchronized void keepFresh(String name, Saver saver) {
+        savers.add(() -> {
+            try {
+                saver.save();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error writing " + name + " snapshot: " + e.getMessage());
+            }
+        });
+        if (refresher != null) return;
+        refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "snapshot-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        long seconds = Long.getLong("candystore.snapshot.interval", 60);
+        refresher.scheduleWithFixedDelay(Snapshot::saveAll, seconds, seconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(Snapshot::saveAll, "snapshot-final-write"));
+    }
+
+    private static synchronized void saveAll() {
+        for (Runnable saver : savers) saver.run();
+    }
+
+    private static int hash(byte[] b, int from, int to) {
+        int h = 0x811C9DC5;                         // FNV-1a
+        for (int i = from; i < to; i++) h = (h ^ b[i]) * 0x01000193;
+        return h ^ (h >>> 16);
+    }
+
+    private static int align(int p) {
+        return (p + 7) & ~7;
+    }
+
+    /**
+     * Builds a snapshot in memory and writes it in one go. Strings are interned into the
+     * dictionary in the order they are first seen, so an owner that interns its keys first
+     * can use their codes as row numbers.
+     */
+    public static final class Writer {
+        private final String kind;
+        private final int version;
+        private final long[] stamp;
+        private byte[] blob = new byte[1 << 16];
+        private int blobLength;
+        private int[] offsets = new int[1025];
+        private int[] hashes = new int[1024];
+        private int count;
+        private int[] slots = new int[2048];        // code + 1; 0 is empty
+        private final List<Object> columns = new ArrayList<>();
+        private final List<Integer> types = new ArrayList<>();
+
+        /**
+         * @param kind What the owner stores, checked by {@link Snapshot#open}
+         * @param version The owner's layout version, checked by {@link Snapshot#open}
+         * @param stamp Whatever the owner needs to tell later whether the snapshot is still current
+         */
+        public Writer(String kind, int version, long... stamp) {
+            this.kind = kind;
+            this.version = version;
+            this.stamp = stamp.clone();
+        }
+
+        /**
+         * Adds a string to the dictionary unless it is there already.
+         *
+         * @return Its code
+         */
+        public int intern(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            return intern(b, 0, b.length);
+        }
+
+        /** Interns a string of another snapshot without decoding it. */
+        public int intern(Snapshot from, int code) {
+            byte[] b = from.bytes(code);
+            return intern(b, 0, b.length);
+        }
+
+        /** Number of strings interned so far. */
+        public int stringCount() {
+            return count;
+        }
+
+        public Writer ints(int[] values) {
+            return column(INT, values);
+        }
+
+        public Writer longs(long[] values) {
+            return column(LONG, values);
+        }
+
+        public Writer doubles(double[] values) {
+            return column(DOUBLE, values);
+        }
+
+        /** A string column of codes returned by {@link #intern}. */
+        public Writer codes(int[] codes) {
+            return column(CODES, codes);
+        }
+
+        /** A string column; null is written as the empty string. */
+        public Writer strings(String[] values) {
+            int[] codes = new int[values.length];
+            for (int i = 0; i < values.length; i++) codes[i] = intern(values[i] == null ? "" : values[i]);
+            return codes(codes);
+        }
+
+        /**
+         * Writes the snapshot to a temp file next to the target and moves it into place.
+         * Nothing is forced to disk: a snapshot cut short by a crash fails its checksum.
+         */
+        public void write(Path file) throws IOException {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            try (Output out = new Output(FileChannel.open(tmp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))) {
+                byte[] k = kind.getBytes(StandardCharsets.UTF_8);
+                out.putInt(MAGIC).putInt(FORMAT).putInt(version).putInt(k.length).put(k, 0, k.length).align();
+                out.putInt(stamp.length).putInt(columns.size());
+                for (long s : stamp) out.putLong(s);
+
+                out.putInt(count).putInt(slots.length).putInt(blobLength).putInt(0);
+                out.put(offsets, count + 1).align();
+                out.put(slots, slots.length).align();
+                out.put(blob, 0, blobLength).align();
+
+                for (int c = 0; c < columns.size(); c++) {
+                    Object values = columns.get(c);
+                    int type = types.get(c);
+                    if (type == LONG) out.putInt(type).putInt(((long[]) values).length).put((long[]) values);
+                    else if (type == DOUBLE) out.putInt(type).putInt(((double[]) values).length).put((double[]) values);
+                    else out.putInt(type).putInt(((int[]) values).length).put((int[]) values, ((int[]) values).length);
+                    out.align();
+                }
+                out.finish();
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        private Writer column(int type, Object values) {
+            columns.add(values);
+            types.add(type);
+            return this;
+        }
+
+        private int intern(byte[] b, int from, int to) {
+            int h = hash(b, from, to), mask = slots.length - 1;
+            int slot = h & mask;
+            for (int code; (code = slots[slot] - 1) >= 0; slot = (slot + 1) & mask) {
+                if (hashes[code] == h && Arrays.equals(blob, offsets[code], offsets[code + 1], b, from, to)) return code;
+            }
+            int length = to - from;
+            if (blobLength + length > blob.length) blob = Arrays.copyOf(blob, Math.max(blob.length * 2, blobLength + length));
+            System.arraycopy(b, from, blob, blobLength, length);
+            blobLength += length;
+            if (count + 1 == hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                offsets = Arrays.copyOf(offsets, hashes.length + 1);
+            }
+            int code = count++;
+            hashes[code] = h;
+            offsets[code + 1] = blobLength;
+            slots[slot] = code + 1;
+            if (count * 2 > slots.length) rehash();
+            return code;
+        }
+
+        /** Doubles the hash table, keeping it at most half full. */
+        private void rehash() {
+            slots = new int[slots.length * 2];
+            int mask = slots.length - 1;
+            for (int code = 0; code < count; code++) {
+                int slot = hashes[code] & mask;
+                while (slots[slot] != 0) slot = (slot + 1) & mask;
+                slots[slot] = code + 1;
+            }
+        }
+    }
+
+    /** Buffered channel writer that checksums what it writes and keeps track of alignment. */
+    private static final class Output implements AutoCloseable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        private final CRC32C crc = new CRC32C();
+        private long written;
+
+        Output(FileChannel ch) {
+            this.ch = ch;
+        }
+
+        Output putInt(int v) throws IOException {
+            room(4);
+            buf.putInt(v);
+            return this;
+        }
+
+        Output putLong(long v) throws IOException {
+            room(8);
+            buf.putLong(v);
+            return this;
+        }
+
+        Output put(byte[] b, int from, int length) throws IOException {
+            while (length > 0) {
+                room(1);
+                int n = Math.min(length, buf.remaining());
+                buf.put(b, from, n);
+                from += n;
+                length -= n;
+            }
+            return this;
+        }
+
+        Output put(int[] values, int length) throws IOException {
+            for (int i = 0; i < length; ) {
+                room(4);
+                int n = Math.min(length - i, buf.remaining() / 4);
+                buf.asIntBuffer().put(values, i, n);
+                buf.position(buf.position() + 4 * n);
+                i += n;
+            }
+            return this;
+        }
+
+        Output put(long[] values) throws IOException {
+            for (int i = 0; i < values.length; ) {
+                room(8);
+                int n = Math.min(values.length - i, buf.remaining() / 8);
+                buf.asLongBuffer().put(values, i, n);
+                buf.position(buf.position() + 8 * n);
+                i += n;
+            }
+            return this;
+        }
+
+        Output put(double[] values) throws IOException {
+            for (int i = 0; i < values.length; ) {
+                room(8);
+                int n = Math.min(values.length - i, buf.remaining() / 8);
+                buf.asDoubleBuffer().put(values, i, n);
+                buf.position(buf.position() + 8 * n);
+                i += n;
+            }
+            return this;
+        }
+
+        /** Pads with zeros to the next multiple of 8 bytes. */
+        Output align() throws IOException {
+            room(8);
+            while ((written + buf.position()) % 8 != 0) buf.put((byte) 0);
+            return this;
+        }
+
+        /** Appends the checksum of everything written so far. */
+        void finish() throws IOException {
+            flush();
+            room(8);
+            buf.putLong(crc.getValue());
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) flush();
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            crc.update(buf.duplicate());
+            written += buf.remaining();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Space-Saving heavy-hitters sketch (Metwally et al.): tracks the most frequent keys of a
+ * weighted stream in a fixed number of counters, however many distinct keys the stream has.
+ *
+ * When a new key arrives and every counter is taken, it replaces the key with the smallest
+ * count and inherits that count as its error. Any key whose true total exceeds N / capacity
+ * (N = total weight seen) is guaranteed to hold a counter, and every reported count
+ * overestimates the true total by at most its error.
+ *
+ * Updates are O(log capacity). Not thread-safe; callers synchronize.
+ */
+public final class SpaceSaving<K> {
+
+    /** A tracked key: its estimated total and how much of that may be overcount. */
+    public record Entry<K>(K key, long count, long error) {
+        /** A total the key is guaranteed to have reached. */
+        public long guaranteed() { return count - error; }
+    }
+
+    private static final class Counter<K> {
+        final K key;
+        long count, error, seq;
+
+        Counter(K key) { this.key = key; }
+    }
+
+    private static final Comparator<Counter<?>> BY_COUNT =
+            Comparator.<Counter<?>>comparingLong(c -> c.count).thenComparingLong(c -> c.seq);
+
+    private final int capacity;
+    private final Map<K, Counter<K>> counters;
+    private final TreeSet<Counter<K>> byCount = new TreeSet<>(BY_COUNT); // smallest first
+    private long total;
+    private long seq;
+
+    /**
+     * @param capacity Number of counters kept; the sketch never holds more keys than this
+     */
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+        this.counters = new HashMap<>(capacity * 2);
+    }
+
+    /**
+     * Adds weight to a key.
+     *
+     * @param weight Must be positive; zero or negative weights are ignored
+     */
+    public void offer(K key, long weight) {
+        if (weight > 0) add(key, weight, 0);
+    }
+
+    /**
+     * Adds every counter of another sketch to this one, as if its stream had been offered here.
+     * Errors carry over: a merged count overestimates by at most the sum of the errors of the
+     * counts added up, plus the smallest count of a full sketch the key was missing from, since
+     * the key may have been seen there without keeping a counter.
+     */
+    public void addAll(SpaceSaving<K> other) {
+        long missed = other.counters.size() < other.capacity ? 0 : other.byCount.first().count;
+        if (missed > 0) {
+            for (Counter<K> c : counters.values()) {
+                if (other.counters.containsKey(c.key)) continue;
+                byCount.remove(c);
+                c.count += missed;
+                c.error += missed;
+                byCount.add(c);
+            }
+        }
+        for (Counter<K> c : other.counters.values()) add(c.key, c.count, c.error);
+    }
+
+    private void add(K key, long weight, long error) {
+        total += weight;
+        Counter<K> c = counters.get(key);
+        if (c != null) {
+            byCount.remove(c);
+        } else if (counters.size() < capacity) {
+            c = new Counter<>(key);
+            counters.put(key, c);
+        } else {
+            Counter<K> evicted = byCount.pollFirst();
+            counters.remove(evicted.key);
+            c = new Counter<>(key);
+            c.count = c.error = evicted.count;
+            counters.put(key, c);
+        }
+        c.count += weight;
+        c.error += error;
+        c.seq = seq++; // ties: the least recently bumped key is evicted first
+        byCount.add(c);
+    }
+
+    /**
+     * The n keys with the highest estimated totals, highest first.
+     */
+    public List<Entry<K>> top(int n) {
+        List<Entry<K>> out = new ArrayList<>(Math.min(n, counters.size()));
+        for (Counter<K> c : byCount.descendingSet()) {
+            if (out.size() == n) break;
+            out.add(new Entry<>(c.key, c.count, c.error));
+        }
+        return out;
+    }
+
+    /** Total weight offered since the sketch was created or cleared. */
+    public long total() {
+        return total;
+    }
+
+    /** Number of keys currently tracked (at most the capacity). */
+    public int size() {
+        return counters.size();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public void clear() {
+        counters.clear();
+        byCount.clear();
+        total = 0;
+    }
+}
@@ -0,0 +1,177 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Hierarchical timing wheel: schedules values to expire at a deadline and hands each one to a
+ * callback once its deadline has passed.
+ *
+ * Four wheels of 64 slots each; a slot on wheel n spans 64^n ticks, so with 100 ms ticks the
+ * wheels cover about 19 days (later deadlines are parked on the last wheel and re-filed when
+ * it turns). Scheduling and cancelling are O(1) regardless of how many timeouts are pending;
+ * entries on outer wheels move inward at most three times on their way to expiry.
+ *
+ * Expiry callbacks run on the wheel's own daemon thread, outside the wheel's lock.
+ */
+public final class TimingWheel<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long SPAN = 1L << (SLOT_BITS * LEVELS); // ticks covered by all wheels
+
+    /** A scheduled value; pass it to {@link #cancel} to drop it before it expires. */
+    public static final class Timeout<T> {
+        private final T value;
+        private final long deadlineTick;
+        private Timeout<T> prev, next;
+        private boolean linked;
+
+        private Timeout(T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T value() { return value; }
+    }
+
+    private final long tickMillis;
+    private final Consumer<T> onExpire;
+    private final Timeout<T>[][] wheels; // each slot is a sentinel of a circular doubly-linked list
+    private long currentTick;
+    private int size;
+
+    /**
+     * @param tickMillis Resolution; deadlines are rounded up to the next tick
+     * @param onExpire Called with each value whose deadline has passed
+     * @param threadName Name of the daemon thread that turns the wheel
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, Consumer<T> onExpire, String threadName) {
+        this.tickMillis = tickMillis;
+        this.onExpire = onExpire;
+        this.wheels = (Timeout<T>[][]) new Timeout<?>[LEVELS][SLOTS];
+        for (Timeout<T>[] wheel : wheels) {
+            for (int i = 0; i < SLOTS; i++) {
+                Timeout<T> sentinel = new Timeout<>(null, 0);
+                sentinel.prev = sentinel.next = sentinel;
+                wheel[i] = sentinel;
+            }
+        }
+        this.currentTick = System.currentTimeMillis() / tickMillis;
+
+        Thread t = new Thread(this::run, threadName);
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Schedules a value to expire at the given wall-clock time.
+     *
+     * @param value Handed to the expiry callback
+     * @param deadlineMillis Epoch millis; a deadline in the past expires on the next tick
+     * @return Handle for {@link #cancel}
+     */
+    public synchronized Timeout<T> schedule(T value, long deadlineMillis) {
+        long tick = Math.max((deadlineMillis + tickMillis - 1) / tickMillis, currentTick + 1);
+        Timeout<T> timeout = new Timeout<>(value, tick);
+        file(timeout);
+        size++;
+        return timeout;
+    }
+
+    /**
+     * Drops a scheduled value.
+     *
+     * @param timeout The handle from {@link #schedule}; null, for one not handed out yet, is ignored
+     * @return False if it had already expired or been cancelled
+     */
+    public synchronized boolean cancel(Timeout<T> timeout) {
+        if (timeout == null || !timeout.linked) return false;
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+    /** Number of values waiting to expire. */
+    public synchronized int size() {
+        return size;
+    }
+
+    /** Expires everything due by the given time. Called by the wheel thread; exposed for callers that drive it by hand. */
+    public void advanceTo(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        synchronized (this) {
+            long target = nowMillis / tickMillis;
+            while (currentTick < target) {
+                currentTick++;
+                cascade();
+                Timeout<T> slot = wheels[0][(int) (currentTick & MASK)];
+                while (slot.next != slot) {
+                    Timeout<T> t = slot.next;
+                    unlink(t);
+                    size--;
+                    expired.add(t.value);
+                }
+            }
+        }
+        for (T value : expired) {
+            try {
+                onExpire.accept(value);
+            } catch (RuntimeException e) {
+                System.err.println("Timer callback failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            try {
+                Thread.sleep(tickMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            advanceTo(System.currentTimeMillis());
+        }
+    }
+
+    /** When inner wheels wrap, re-files the outer slots that just came due, outermost first. */
+    private void cascade() {
+        int top = 0;
+        while (top + 1 < LEVELS && (currentTick & ((1L << (SLOT_BITS * (top + 1))) - 1)) == 0) top++;
+        for (int level = top; level >= 1; level--) {
+            Timeout<T> slot = wheels[level][(int) ((currentTick >>> (SLOT_BITS * level)) & MASK)];
+            Timeout<T> t = slot.next;
+            slot.prev = slot.next = slot;
+            while (t != slot) {
+                Timeout<T> next = t.next;
+                t.linked = false;
+                file(t);
+                t = next;
+            }
+        }
+    }
+
+    private void file(Timeout<T> t) {
+        long ticks = t.deadlineTick - currentTick;
+        long tick = Math.max(t.deadlineTick, currentTick); // due now: lands in the slot about to be swept
+        if (ticks >= SPAN) tick = currentTick + SPAN - 1;   // re-filed with its real deadline when reached
+        int level = 0;
+        while (level + 1 < LEVELS && tick - currentTick >= 1L << (SLOT_BITS * (level + 1))) level++;
+        Timeout<T> slot = wheels[level][(int) ((tick >>> (SLOT_BITS * level)) & MASK)];
+        t.prev = slot.prev;
+        t.next = slot;
+        slot.prev.next = t;
+        slot.prev = t;
+        t.linked = true;
+    }
+
+    private void unlink(Timeout<T> t) {
+        t.prev.next = t.next;
+        t.next.prev = t.prev;
+        t.prev = t.next = null;
+        t.linked = false;
+    }
+}
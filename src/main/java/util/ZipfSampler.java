@@ -0,0 +1,68 @@
+package util;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * Draws ranks 1..n with Zipf probabilities, P(k) proportional to 1 / k^exponent, in O(1) time
+ * and memory however large n is (rejection-inversion, Hörmann and Derflinger 1996).
+ *
+ * Immutable; share one sampler across threads and give each thread its own RandomGenerator.
+ */
+public final class ZipfSampler {
+    private final long n;
+    private final double exponent;
+    private final double hIntegralX1;
+    private final double hIntegralN;
+    private final double s;
+
+    /**
+     * @param n Number of ranks, at least 1
+     * @param exponent Skew; 0 is uniform, around 1 is typical of product popularity
+     */
+    public ZipfSampler(long n, double exponent) {
+        if (n < 1) throw new IllegalArgumentException("n must be positive: " + n);
+        if (exponent < 0) throw new IllegalArgumentException("exponent must not be negative: " + exponent);
+        this.n = n;
+        this.exponent = exponent;
+        this.hIntegralX1 = hIntegral(1.5) - 1;
+        this.hIntegralN = hIntegral(n + 0.5);
+        this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+    }
+
+    /** A rank from 1 (most likely) to n. */
+    public long sample(RandomGenerator rnd) {
+        while (true) {
+            double u = hIntegralN + rnd.nextDouble() * (hIntegralX1 - hIntegralN);
+            double x = hIntegralInverse(u);
+            long k = (long) (x + 0.5);
+            if (k < 1) k = 1;
+            else if (k > n) k = n;
+            if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) return k;
+        }
+    }
+
+    private double hIntegral(double x) {
+        double logX = Math.log(x);
+        return helper2((1 - exponent) * logX) * logX;
+    }
+
+    private double h(double x) {
+        return Math.exp(-exponent * Math.log(x));
+    }
+
+    private double hIntegralInverse(double x) {
+        double t = x * (1 - exponent);
+        if (t < -1) t = -1;
+        return Math.exp(helper1(t) * x);
+    }
+
+    /** log1p(x) / x, accurate near 0. */
+    private static double helper1(double x) {
+        return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+    }
+
+    /** expm1(x) / x, accurate near 0. */
+    private static double helper2(double x) {
+        return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+    }
+}
@@ -0,0 +1,91 @@
+package app;
+
+import model.InventoryItem;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import repo.InventoryDataManager;
+import service.BackendFacade;
+import service.BackendFacade.UiCartItem;
+import service.InventoryService;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * A small {@link CheckoutStress} run: shoppers buy the same few products at once until they
+ * run out, and stock must be conserved in memory and in inventory.csv without ever going
+ * below zero. Use CheckoutStress itself for large runs.
+ */
+class CheckoutConcurrencyTest {
+    private static final String[] PRODUCTS = {"Gummy Bears", "Lollipop", "Toffee", "Jelly Beans"};
+    private static final int INITIAL_STOCK = 100;
+    private static final int THREADS = 8;
+    private static final int CHECKOUTS_PER_THREAD = 40;
+
+    @BeforeAll
+    static void useTemporaryData() throws Exception {
+        Path dataDir = Files.createTempDirectory("candystore-test");
+        System.setProperty("candystore.data.dir", dataDir.toString());
+        StringBuilder csv = new StringBuilder("name,type,price,quantity\n");
+        for (String p : PRODUCTS) csv.append(p).append(",Candy,1.00,").append(INITIAL_STOCK).append('\n');
+        Files.writeString(dataDir.resolve("inventory.csv"), csv);
+
+        BackendFacade.init();
+        BackendFacade.setLowStockThreshold(0);
+    }
+
+    @Test
+    void concurrentCheckoutsNeverOversell() throws Exception {
+        Map<String, AtomicInteger> sold = new ConcurrentHashMap<>();
+        for (String p : PRODUCTS) sold.put(p, new AtomicInteger());
+        AtomicInteger rejected = new AtomicInteger();
+
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> shoppers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            shoppers.add(pool.submit(() -> {
+                Random rnd = new Random(seed);
+                start.await();
+                for (int i = 0; i < CHECKOUTS_PER_THREAD; i++) {
+                    String a = PRODUCTS[rnd.nextInt(PRODUCTS.length)];
+                    String b = PRODUCTS[(Arrays.asList(PRODUCTS).indexOf(a) + 1 + rnd.nextInt(PRODUCTS.length - 1)) % PRODUCTS.length];
+                    int qa = 1 + rnd.nextInt(3), qb = 1 + rnd.nextInt(3);
+                    List<UiCartItem> cart = List.of(new UiCartItem(a, a, qa, 1.00), new UiCartItem(b, b, qb, 1.00));
+                    try {
+                        BackendFacade.checkout("U" + seed, cart, null);
+                        sold.get(a).addAndGet(qa);
+                        sold.get(b).addAndGet(qb);
+                    } catch (IllegalStateException e) {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        try {
+            for (Future<?> f : shoppers) f.get(60, TimeUnit.SECONDS); // any other checkout failure fails the test
+        } finally {
+            pool.shutdownNow();
+        }
+
+        assertTrue(rejected.get() > 0, "stock should have run out");
+        InventoryService inventory = BackendFacade.getInventoryService();
+        inventory.flush();                  // the CSV trails the counters by the writer's delay
+        InventoryDataManager reloaded = new InventoryDataManager();
+        reloaded.reload();
+        for (String p : PRODUCTS) {
+            int expected = INITIAL_STOCK - sold.get(p).get();
+            assertTrue(expected >= 0, p + " oversold by " + -expected);
+            assertEquals(expected, inventory.getStock(p), p + " in memory");
+            assertEquals(expected, reloaded.getItem(p).map(InventoryItem::getQuantity).orElse(-1), p + " in inventory.csv");
+        }
+    }
+}